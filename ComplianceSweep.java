@@ -0,0 +1,51 @@
+package deliaApplication;
+
+import java.net.URL;
+
+import com.kuka.roboticsAPI.applicationModel.RoboticsAPIApplication;
+import com.kuka.roboticsAPI.controllerModel.Controller;
+import com.kuka.roboticsAPI.deviceModel.LBR;
+
+/**
+ * Runs the straight line of the {@link Compliance} application once for every
+ * combination of the impedance parameters below, unattended in one session. Every
+ * recording is named after its parameters, e.g.
+ * {@code 28MayTest_X2500_Y2500_Z300_D70_V250_J50}.
+ * 
+ * @see ImpedanceSweep
+ */
+public class ComplianceSweep extends RoboticsAPIApplication {
+	
+	private Controller kuka_Sunrise_Cabinet_1;
+	private LBR lbr;
+	private StraightLineProgram program;
+	private ImpedanceSweep sweep;
+
+	private static final double[][] stiffness = {{2500, 2500, 300}, {2500, 2500, 700}, {2500, 2500, 1500}}; // N/m
+	private static final double[] damping = {0.3, 0.7, 1};
+	private static final double[] cartVelocity = {100, 250}; // mm/s
+	private static final double[] jointJerkRel = {0.5};
+
+	public void initialize() {
+		kuka_Sunrise_Cabinet_1 = getController("KUKA_Sunrise_Cabinet_1");
+		lbr = (LBR) getDevice(kuka_Sunrise_Cabinet_1,
+				"LBR_iiwa_14_R820_1");
+		program = StraightLineProgram.compliance(new SunriseCell(lbr, getObserverManager(), getApplicationUI(), getLogger()));
+		sweep = ImpedanceSweep.grid(stiffness, damping, cartVelocity, jointJerkRel);
+		program.prepare(sweep);
+	}
+
+	public void run() {
+		for (URL recording : program.run(sweep)) {
+			System.out.println(recording);
+		}
+	}
+
+	/**
+	 * Auto-generated method stub. Do not modify the contents of this method.
+	 */
+	public static void main(String[] args) {
+		ComplianceSweep app = new ComplianceSweep();
+		app.runApplication();
+	}
+}
@@ -0,0 +1,397 @@
+package deliaApplication;
+
+import static com.kuka.roboticsAPI.motionModel.BasicMotions.*;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.kuka.roboticsAPI.conditionModel.ConditionObserver;
+import com.kuka.roboticsAPI.conditionModel.ForceCondition;
+import com.kuka.roboticsAPI.conditionModel.IRisingEdgeListener;
+import com.kuka.roboticsAPI.conditionModel.NotificationType;
+import com.kuka.roboticsAPI.conditionModel.ObserverManager;
+import com.kuka.roboticsAPI.deviceModel.LBR;
+import com.kuka.roboticsAPI.geometricModel.CartDOF;
+import com.kuka.roboticsAPI.geometricModel.Frame;
+import com.kuka.roboticsAPI.geometricModel.math.Vector;
+import com.kuka.roboticsAPI.motionModel.IMotion;
+import com.kuka.roboticsAPI.motionModel.IMotionContainer;
+import com.kuka.roboticsAPI.motionModel.PTP;
+import com.kuka.roboticsAPI.motionModel.PositionHold;
+import com.kuka.roboticsAPI.motionModel.SPL;
+import com.kuka.roboticsAPI.motionModel.Spline;
+import com.kuka.roboticsAPI.motionModel.controlModeModel.CartesianImpedanceControlMode;
+import com.kuka.roboticsAPI.sensorModel.DataRecorder;
+import com.kuka.roboticsAPI.uiModel.ApplicationDialogType;
+import com.kuka.roboticsAPI.uiModel.IApplicationUI;
+import com.kuka.task.ITaskLogger;
+
+/**
+ * {@link RobotCell} backed by the LBR iiwa on the Sunrise cabinet.
+ * <p>
+ * Segments are translated into PTP and Spline motions right before they are sent to
+ * the controller, unless they have been prepared in advance. Impedance settings are
+ * translated into a {@link CartesianImpedanceControlMode} once and reused afterwards.
+ */
+public class SunriseCell implements RobotCell {
+
+	private final LBR lbr;
+	private final ObserverManager observerManager;
+	private final IApplicationUI applicationUI;
+	private final ITaskLogger logger;
+	private final Map<Impedance, CartesianImpedanceControlMode> controlModes =
+			new IdentityHashMap<Impedance, CartesianImpedanceControlMode>();
+	private final Map<Segment, IMotion> prepared =
+			Collections.synchronizedMap(new IdentityHashMap<Segment, IMotion>());
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+	private int scheduled;
+
+	public SunriseCell(LBR lbr, ObserverManager observerManager, IApplicationUI applicationUI,
+			ITaskLogger logger) {
+		this.lbr = lbr;
+		this.observerManager = observerManager;
+		this.applicationUI = applicationUI;
+		this.logger = logger;
+	}
+
+	/**
+	 * Splines are prepared with the orientation of the kinematic model at their planned
+	 * start. Taught splines and splines with coordinates left open are built from the
+	 * current flange when they are sent, as before.
+	 */
+	@Override
+	public void prepare(Segment segment) {
+		if (!segment.isCartesian()) {
+			prepared.put(segment, toMotion(segment, null));
+			return;
+		}
+		if (segment.getStartJoints() == null || segment.isTaught()) {
+			return;
+		}
+		for (double[] point : segment.getPath()) {
+			if (Double.isNaN(point[0]) || Double.isNaN(point[1]) || Double.isNaN(point[2])) {
+				return;
+			}
+		}
+		prepared.put(segment, toMotion(segment, segment.getStartJoints()));
+	}
+
+	@Override
+	public void move(Segment segment) {
+		lbr.move(motion(segment));
+	}
+
+	@Override
+	public MotionHandle moveAsync(Segment segment) {
+		return new Container(lbr.moveAsync(motion(segment)));
+	}
+
+	@Override
+	public MotionHandle holdPosition(Impedance mode) {
+		return new Container(lbr.moveAsync(new PositionHold(controlMode(mode), -1, null)));
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, final ForceListener listener) {
+		ForceCondition condition = ForceCondition.createSpatialForceCondition(lbr.getFlange(), threshold);
+		IRisingEdgeListener edgeListener = new IRisingEdgeListener() {
+
+			@Override
+			public void onRisingEdge(ConditionObserver conditionObserver, Date time, int missedEvents) {
+				long age = System.currentTimeMillis() - time.getTime();
+				listener.onForce(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(age), missedEvents);
+			}
+		};
+		final ConditionObserver observer = observerManager.createConditionObserver(condition,
+				NotificationType.MissedEvents, edgeListener);
+		return new ForceWatch() {
+
+			@Override
+			public void enable() {
+				observer.enable();
+			}
+
+			@Override
+			public void disable() {
+				observer.disable();
+			}
+		};
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		final DataRecorder recorder = new DataRecorder(name, timeout, unit, sampleInterval);
+		return new Recorder() {
+
+			@Override
+			public void addChannel(Channel channel) {
+				switch (channel) {
+				case CARTESIAN_FORCE:
+					recorder.addCartesianForce(lbr.getFlange(), null);
+					break;
+				case CARTESIAN_TORQUE:
+					recorder.addCartesianTorque(lbr.getFlange(), null);
+					break;
+				case INTERNAL_JOINT_TORQUE:
+					recorder.addInternalJointTorque(lbr);
+					break;
+				case EXTERNAL_JOINT_TORQUE:
+					recorder.addExternalJointTorque(lbr);
+					break;
+				case COMMANDED_XYZ:
+					recorder.addCommandedCartesianPositionXYZ(lbr.getFlange(), lbr.getRootFrame());
+					break;
+				case CURRENT_XYZ:
+					recorder.addCurrentCartesianPositionXYZ(lbr.getFlange(), lbr.getRootFrame());
+					break;
+				}
+			}
+
+			@Override
+			public void enable() {
+				recorder.enable();
+			}
+
+			@Override
+			public void startRecording() {
+				recorder.startRecording();
+			}
+
+			@Override
+			public void stopRecording() {
+				recorder.stopRecording();
+			}
+
+			@Override
+			public URL getURL() {
+				return recorder.getURL();
+			}
+		};
+	}
+
+	/**
+	 * Every task runs on a thread of its own, so that a slow task, e.g. a recorder
+	 * sampling many channels, cannot delay the contact and torque guards of an
+	 * {@link ObserverHub} or a {@link ContactDetector}. The thread ends with the task.
+	 * An exception of one run is logged and the task keeps running, the executor would
+	 * silently drop it otherwise.
+	 */
+	@Override
+	public synchronized ScheduledTask schedule(final Runnable task, long period, TimeUnit unit) {
+		final String name = "SunriseCell task " + (++scheduled);
+		final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MAX_PRIORITY);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					logger.error(name + " failed: " + e);
+				}
+			}
+		}, 0, period, unit);
+		return new ScheduledTask() {
+
+			@Override
+			public void cancel() {
+				scheduler.shutdown();
+			}
+		};
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		switch (channel) {
+		case CARTESIAN_FORCE:
+			copy(lbr.getExternalForceTorque(lbr.getFlange()).getForce(), values, offset);
+			break;
+		case CARTESIAN_TORQUE:
+			copy(lbr.getExternalForceTorque(lbr.getFlange()).getTorque(), values, offset);
+			break;
+		case INTERNAL_JOINT_TORQUE:
+			System.arraycopy(lbr.getMeasuredTorque().getTorqueValues(), 0, values, offset, 7);
+			break;
+		case EXTERNAL_JOINT_TORQUE:
+			System.arraycopy(lbr.getExternalTorque().getTorqueValues(), 0, values, offset, 7);
+			break;
+		case COMMANDED_XYZ:
+			copy(lbr.getCommandedCartesianPosition(lbr.getFlange(), lbr.getRootFrame()), values, offset);
+			break;
+		case CURRENT_XYZ:
+			copy(lbr.getCurrentCartesianPosition(lbr.getFlange(), lbr.getRootFrame()), values, offset);
+			break;
+		}
+	}
+
+	@Override
+	public void displayDialog(String message) {
+		applicationUI.displayModalDialog(ApplicationDialogType.INFORMATION, message, "OK");
+	}
+
+	@Override
+	public void log(String message) {
+		logger.info(message);
+	}
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @return the prepared motion of a segment with its current blending, or a new one
+	 */
+	private IMotion motion(Segment segment) {
+		IMotion motion = prepared.get(segment);
+		if (motion == null) {
+			return toMotion(segment, null);
+		}
+		if (motion instanceof PTP) {
+			((PTP) motion).setBlendingRel(segment.getBlendingRel());
+		}
+		return motion;
+	}
+
+	/**
+	 * Builds the Sunrise motion for a segment. The orientation of a spline is that of the
+	 * flange at the given start or, without one, of the current flange, whose position
+	 * also completes open coordinates. In that case this has to be called right before
+	 * the motion is sent. The spline frames are relative to the root frame, like the
+	 * points of the segment and the kinematic model, or to the world frame for a taught
+	 * spline.
+	 *
+	 * @param start joints at the start of a spline, {@code null} for the current flange
+	 */
+	private IMotion toMotion(Segment segment, double[] start) {
+		if (!segment.isCartesian()) {
+			PTP motion = ptp(segment.getJoints());
+			motion.setJointVelocityRel(segment.getJointVelocityRel());
+			motion.setJointAccelerationRel(segment.getJointAccelerationRel());
+			motion.setJointJerkRel(segment.getJointJerkRel());
+			motion.setBlendingRel(segment.getBlendingRel());
+			if (segment.getMode() != null) {
+				motion.setMode(controlMode(segment.getMode()));
+			}
+			return motion;
+		}
+		Frame startFrame;
+		if (segment.isTaught()) {
+			startFrame = lbr.getCurrentCartesianPosition(lbr.getFlange());
+		} else if (start == null) {
+			startFrame = lbr.getCurrentCartesianPosition(lbr.getFlange(), lbr.getRootFrame());
+		} else {
+			startFrame = plannedFrame(start);
+		}
+		double[][] path = segment.getPath();
+		SPL[] points = new SPL[path.length];
+		for (int i = 0; i < path.length; i++) {
+			Frame frame = new Frame(startFrame);
+			if (!Double.isNaN(path[i][0])) {
+				frame.setX(path[i][0]);
+			}
+			if (!Double.isNaN(path[i][1])) {
+				frame.setY(path[i][1]);
+			}
+			if (!Double.isNaN(path[i][2])) {
+				frame.setZ(path[i][2]);
+			}
+			points[i] = spl(frame);
+		}
+		Spline motion = new Spline(points);
+		motion.setJointVelocityRel(segment.getJointVelocityRel());
+		motion.setJointJerkRel(segment.getJointJerkRel());
+		if (!Double.isNaN(segment.getCartVelocity())) {
+			motion.setCartVelocity(segment.getCartVelocity());
+		}
+		if (segment.getMode() != null) {
+			motion.setMode(controlMode(segment.getMode()));
+		}
+		return motion;
+	}
+
+	/**
+	 * @return flange frame of the kinematic model at the given joints in the root frame,
+	 *         orientation as Z-Y-X Euler angles like the Sunrise frames
+	 */
+	private Frame plannedFrame(double[] joints) {
+		kinematics.forward(joints, pose);
+		Frame frame = new Frame(lbr.getRootFrame());
+		frame.setX(pose[0]);
+		frame.setY(pose[1]);
+		frame.setZ(pose[2]);
+		frame.setAlphaRad(Math.atan2(pose[6], pose[3]));
+		frame.setBetaRad(Math.atan2(-pose[9], Math.sqrt(pose[3] * pose[3] + pose[6] * pose[6])));
+		frame.setGammaRad(Math.atan2(pose[10], pose[11]));
+		return frame;
+	}
+
+	private CartesianImpedanceControlMode controlMode(Impedance mode) {
+		CartesianImpedanceControlMode controlMode = controlModes.get(mode);
+		if (controlMode == null) {
+			controlMode = new CartesianImpedanceControlMode();
+			controlMode.parametrize(CartDOF.X).setStiffness(mode.getStiffnessX());
+			controlMode.parametrize(CartDOF.Y).setStiffness(mode.getStiffnessY());
+			controlMode.parametrize(CartDOF.Z).setStiffness(mode.getStiffnessZ());
+			controlMode.parametrize(CartDOF.X, CartDOF.Y, CartDOF.Z).setDamping(mode.getDamping());
+			controlModes.put(mode, controlMode);
+		}
+		return controlMode;
+	}
+
+	private static void copy(Vector vector, double[] values, int offset) {
+		values[offset] = vector.getX();
+		values[offset + 1] = vector.getY();
+		values[offset + 2] = vector.getZ();
+	}
+
+	private static void copy(Frame frame, double[] values, int offset) {
+		values[offset] = frame.getX();
+		values[offset + 1] = frame.getY();
+		values[offset + 2] = frame.getZ();
+	}
+
+	/**
+	 * Motion handle wrapping a Sunrise motion container.
+	 */
+	private static class Container implements MotionHandle {
+
+		private final IMotionContainer container;
+
+		Container(IMotionContainer container) {
+			this.container = container;
+		}
+
+		@Override
+		public void await() {
+			container.await();
+		}
+
+		@Override
+		public void cancel() {
+			container.cancel();
+		}
+
+		@Override
+		public boolean isFinished() {
+			return container.isFinished();
+		}
+	}
+}
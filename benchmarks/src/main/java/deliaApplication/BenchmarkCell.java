@@ -0,0 +1,233 @@
+package deliaApplication;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in cell for the benchmarks, nothing moves and no time passes by itself.
+ * <p>
+ * Motions are prepared and finished at once, channels read the values last set and
+ * a scheduled task only runs when the benchmark calls {@link #tick()}, which also
+ * advances the clock by the period of the task. Force watches and recorders are served
+ * by the ticks as well: watches call their listener on the rising edge, recorders read
+ * their channels and write nothing. This leaves the work of the code
+ * under test, without the threads and waiting of a {@link SimulatedCell}.
+ */
+public class BenchmarkCell implements RobotCell {
+
+	private static final MotionHandle finished = new MotionHandle() {
+
+		@Override
+		public void await() {
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public boolean isFinished() {
+			return true;
+		}
+	};
+
+	private final double[][] channels = new double[Channel.values().length][];
+	private final List<Watch> watches = new ArrayList<Watch>();
+	private final List<CountingRecorder> recorders = new ArrayList<CountingRecorder>();
+	private Runnable task;
+	private long period;
+	private long time;
+
+	public BenchmarkCell() {
+		for (Channel channel : Channel.values()) {
+			channels[channel.ordinal()] = new double[channel.getWidth()];
+		}
+	}
+
+	/**
+	 * Sets the values the channel reads from now on.
+	 */
+	public void set(Channel channel, double... values) {
+		System.arraycopy(values, 0, channels[channel.ordinal()], 0, values.length);
+	}
+
+	/**
+	 * Advances the clock by the period of the scheduled task, checks the force watches,
+	 * samples the recorders and runs the task once, if there is one.
+	 */
+	public void tick() {
+		time += period;
+		for (int i = 0; i < watches.size(); i++) {
+			watches.get(i).check();
+		}
+		for (int i = 0; i < recorders.size(); i++) {
+			recorders.get(i).sample();
+		}
+		if (task != null) {
+			task.run();
+		}
+	}
+
+	@Override
+	public void move(Segment segment) {
+	}
+
+	@Override
+	public void prepare(Segment segment) {
+	}
+
+	@Override
+	public MotionHandle moveAsync(Segment segment) {
+		return finished;
+	}
+
+	@Override
+	public MotionHandle holdPosition(Impedance mode) {
+		return finished;
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, ForceListener listener) {
+		return new Watch(threshold, listener);
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		return new CountingRecorder(name);
+	}
+
+	@Override
+	public ScheduledTask schedule(Runnable task, long period, TimeUnit unit) {
+		if (this.task != null) {
+			throw new IllegalStateException("Only one task can be scheduled");
+		}
+		this.task = task;
+		this.period = unit.toNanos(period);
+		return new ScheduledTask() {
+
+			@Override
+			public void cancel() {
+				BenchmarkCell.this.task = null;
+			}
+		};
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		double[] current = channels[channel.ordinal()];
+		System.arraycopy(current, 0, values, offset, current.length);
+	}
+
+	@Override
+	public void displayDialog(String message) {
+	}
+
+	@Override
+	public void log(String message) {
+	}
+
+	@Override
+	public long nanoTime() {
+		return time;
+	}
+
+	private double forceMagnitude() {
+		double[] force = channels[Channel.CARTESIAN_FORCE.ordinal()];
+		return Math.sqrt(force[0] * force[0] + force[1] * force[1] + force[2] * force[2]);
+	}
+
+	private class Watch implements ForceWatch {
+
+		final double threshold;
+		final ForceListener listener;
+		boolean above;
+
+		Watch(double threshold, ForceListener listener) {
+			this.threshold = threshold;
+			this.listener = listener;
+		}
+
+		@Override
+		public void enable() {
+			if (!watches.contains(this)) {
+				// only edges after enabling are reported
+				above = forceMagnitude() >= threshold;
+				watches.add(this);
+			}
+		}
+
+		@Override
+		public void disable() {
+			watches.remove(this);
+		}
+
+		void check() {
+			boolean wasAbove = above;
+			above = forceMagnitude() >= threshold;
+			if (above && !wasAbove) {
+				listener.onForce(time, 0);
+			}
+		}
+	}
+
+	/**
+	 * Reads its channels on every tick while recording, without keeping the values.
+	 */
+	private class CountingRecorder implements Recorder {
+
+		final String name;
+		final List<Channel> channelList = new ArrayList<Channel>();
+		double[] sample;
+
+		CountingRecorder(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void addChannel(Channel channel) {
+			channelList.add(channel);
+		}
+
+		@Override
+		public void enable() {
+			int width = 0;
+			for (Channel channel : channelList) {
+				width += channel.getWidth();
+			}
+			sample = new double[width];
+		}
+
+		@Override
+		public void startRecording() {
+			if (sample == null) {
+				throw new IllegalStateException("Recorder " + name + " is not enabled");
+			}
+			if (!recorders.contains(this)) {
+				recorders.add(this);
+			}
+		}
+
+		@Override
+		public void stopRecording() {
+			recorders.remove(this);
+		}
+
+		void sample() {
+			int offset = 0;
+			for (Channel channel : channelList) {
+				read(channel, sample, offset);
+				offset += channel.getWidth();
+			}
+		}
+
+		/**
+		 * @return {@code null}, nothing is written
+		 */
+		@Override
+		public URL getURL() {
+			return null;
+		}
+	}
+}
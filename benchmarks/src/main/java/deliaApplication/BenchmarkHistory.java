@@ -0,0 +1,157 @@
+package deliaApplication;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the benchmark results of every commit in one CSV file and reports regressions.
+ * <p>
+ * Usage: {@code BenchmarkHistory <history.csv> <commit> <results.csv> [tolerance]}.
+ * The results of a JMH run ({@code -rf csv}) are appended to the history under the
+ * commit, one line per benchmark, and every benchmark is compared with its result of
+ * the last other commit in the history. A benchmark regressed if it got worse by more
+ * than the tolerance, 10 % by default, and by more than the error of both results. The
+ * program exits with status 1 if one did, so a build can stop before deployment.
+ */
+public class BenchmarkHistory {
+
+	private static final String header = "commit,benchmark,mode,score,error,unit";
+	private static final double defaultTolerance = 0.1;
+
+	private static class Result {
+
+		final String commit;
+		final String benchmark;
+		final String mode;
+		final double score;
+		final double error;
+		final String unit;
+
+		Result(String commit, String benchmark, String mode, double score, double error, String unit) {
+			this.commit = commit;
+			this.benchmark = benchmark;
+			this.mode = mode;
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+
+		/**
+		 * @return relative change from the earlier result, positive if this one is worse
+		 */
+		double worseThan(Result earlier) {
+			double change = (score - earlier.score) / earlier.score;
+			return mode.equals("thrpt") ? -change : change;
+		}
+
+		boolean isSignificant(Result earlier) {
+			return Math.abs(score - earlier.score) > error + earlier.error;
+		}
+
+		@Override
+		public String toString() {
+			return commit + "," + benchmark + "," + mode + "," + score + "," + error + "," + unit;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: BenchmarkHistory <history.csv> <commit> <results.csv> [tolerance]");
+			System.exit(2);
+		}
+		File historyFile = new File(args[0]);
+		String commit = args[1];
+		double tolerance = args.length > 3 ? Double.parseDouble(args[3]) : defaultTolerance;
+		List<Result> history = historyFile.exists() ? readHistory(historyFile) : new ArrayList<Result>();
+		List<Result> results = readResults(new File(args[2]), commit);
+
+		Map<String, Result> previous = new LinkedHashMap<String, Result>();
+		for (Result result : history) {
+			if (!result.commit.equals(commit)) {
+				previous.put(result.benchmark, result);
+			}
+		}
+		int regressions = 0;
+		for (Result result : results) {
+			Result earlier = previous.get(result.benchmark);
+			if (earlier == null || !earlier.unit.equals(result.unit)) {
+				System.out.println(String.format("%-60s %12.3f %-8s new", result.benchmark, result.score, result.unit));
+				continue;
+			}
+			double worse = result.worseThan(earlier);
+			boolean regressed = worse > tolerance && result.isSignificant(earlier);
+			if (regressed) {
+				regressions++;
+			}
+			System.out.println(String.format("%-60s %12.3f %-8s %+6.1f %% against %s%s", result.benchmark,
+					result.score, result.unit, 100 * worse, earlier.commit, regressed ? "  REGRESSION" : ""));
+		}
+
+		boolean created = !historyFile.exists();
+		Writer writer = new FileWriter(historyFile, true);
+		try {
+			if (created) {
+				writer.write(header + "\n");
+			}
+			for (Result result : results) {
+				writer.write(result + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " of " + results.size() + " benchmarks regressed by more than "
+					+ Math.round(100 * tolerance) + " %");
+			System.exit(1);
+		}
+	}
+
+	private static List<Result> readHistory(File file) throws IOException {
+		List<Result> history = new ArrayList<Result>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			if (!header.equals(line)) {
+				throw new IOException(file + " is not a benchmark history");
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(",");
+				history.add(new Result(fields[0], fields[1], fields[2], Double.parseDouble(fields[3]),
+						Double.parseDouble(fields[4]), fields[5]));
+			}
+		} finally {
+			reader.close();
+		}
+		return history;
+	}
+
+	/**
+	 * Reads the CSV results of JMH: benchmark, mode, threads, samples, score, error, unit.
+	 */
+	private static List<Result> readResults(File file, String commit) throws IOException {
+		List<Result> results = new ArrayList<Result>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.startsWith("\"Benchmark\"")) {
+				throw new IOException(file + " is not a CSV result of JMH");
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.replace("\"", "").split(",");
+				double error = fields[5].equals("NaN") ? 0 : Double.parseDouble(fields[5]);
+				results.add(new Result(commit, fields[0], fields[1], Double.parseDouble(fields[4]), error, fields[6]));
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+}
@@ -0,0 +1,140 @@
+package deliaApplication;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Processing force samples: per sample while the arm approaches a contact, and per
+ * insertion when its profile is classified.
+ * <p>
+ * The samples are an approach of one second at 1 kHz, sensor noise of 0.3 N on every
+ * axis and a contact ramping up to 15 N along z in the last 200 ms. The per sample
+ * benchmarks run through the whole approach in each invocation and report the time of
+ * one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceBenchmark {
+
+	private static final int samples = 1000;
+	private static final long period = 1000000; // ns
+	private static final double noise = 0.3; // N
+	private static final int libraryTraces = 1000;
+	private static final int profilePoints = 64;
+
+	private final double[][] forces = new double[samples][3];
+	private final ContactDetector detector = new ContactDetector();
+	private BenchmarkCell cell;
+	private ObserverHub hub;
+	private ForceWatch contact;
+	private TraceLibrary library;
+	private double[] insertion;
+	private long contacts;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(1);
+		for (int i = 0; i < samples; i++) {
+			for (int k = 0; k < 3; k++) {
+				forces[i][k] = noise * random.nextGaussian();
+			}
+			forces[i][2] += Math.max(0, i - 800) * 15.0 / 200;
+		}
+
+		// the contact and the torque guards of pickAndPlace on one loop
+		cell = new BenchmarkCell();
+		hub = new ObserverHub(cell);
+		ForceListener listener = new ForceListener() {
+
+			@Override
+			public void onForce(long time, int missedEvents) {
+				contacts++;
+			}
+		};
+		contact = hub.watch(ObserverHub.contact(new ContactDetector()), listener);
+		double[] torqueLimits = {40, 40, 30, 30, 15, 15, 10};
+		for (int j = 0; j < torqueLimits.length; j++) {
+			hub.watch(ObserverHub.jointTorque(j, torqueLimits[j]), listener).enable();
+		}
+		hub.start();
+
+		library = new TraceLibrary(profilePoints, 0.05);
+		for (int n = 0; n < libraryTraces; n++) {
+			library.add(n % 10 == 0 ? "bad" : "good", insertion(random));
+		}
+		insertion = insertion(random);
+	}
+
+	/**
+	 * @return force profile of an insertion, a half sine of about 10 N
+	 */
+	private static double[] insertion(Random random) {
+		double[] trace = new double[500];
+		double scale = 10 * (1 + 0.2 * random.nextGaussian());
+		for (int i = 0; i < trace.length; i++) {
+			trace[i] = scale * Math.sin(Math.PI * i / trace.length) + noise * random.nextGaussian();
+		}
+		return trace;
+	}
+
+	@TearDown
+	public void tearDown() {
+		hub.close();
+		library.close();
+	}
+
+	/**
+	 * The filtered contact detector of the batch mode, one sample.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(samples)
+	public int contactDetector() {
+		detector.reset();
+		for (int i = 0; i < samples; i++) {
+			detector.update(i * period, forces[i][0], forces[i][1], forces[i][2]);
+		}
+		return detector.getDetections();
+	}
+
+	/**
+	 * One run of the loop of an {@link ObserverHub} with the contact and seven torque guards.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(samples)
+	public long observerHub() {
+		contact.disable();
+		cell.tick();
+		contact.enable();
+		for (int i = 0; i < samples; i++) {
+			cell.set(Channel.CARTESIAN_FORCE, forces[i]);
+			cell.tick();
+		}
+		return contacts;
+	}
+
+	/**
+	 * Classifying one insertion against a library of a thousand, as every cycle of pickAndPlace does.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String classifyInsertion() throws InterruptedException {
+		return TraceLibrary.vote(library.search(insertion, 3));
+	}
+}
@@ -0,0 +1,59 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The kinematic model the planner evaluates for every pose and every spline step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KinematicsBenchmark {
+
+	private static final double[] pushInNew = {Math.toRadians(-57.5), Math.toRadians(74.84), Math.toRadians(3.39),
+			Math.toRadians(-115.65), Math.toRadians(-18.53), Math.toRadians(-99.41), Math.toRadians(115.85)};
+
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+	private final double[] target = new double[LbrKinematics.poseSize];
+	private final double[] joints = new double[7];
+
+	@Setup
+	public void setUp() {
+		kinematics.forward(pushInNew, target);
+		target[2] -= 5; // one step of the planner down the insertion
+	}
+
+	@Benchmark
+	public double[] forward() {
+		kinematics.forward(pushInNew, pose);
+		return pose;
+	}
+
+	@Benchmark
+	public double armAngle() {
+		return kinematics.armAngle(pushInNew);
+	}
+
+	/**
+	 * The next step of a spline with the arm angle and status of the previous one.
+	 */
+	@Benchmark
+	public boolean inverse() {
+		return kinematics.inverse(target, pushInNew, joints);
+	}
+}
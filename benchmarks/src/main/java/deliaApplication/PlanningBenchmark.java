@@ -0,0 +1,99 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building and planning the motions of the applications, what their
+ * {@code initialize()} does before the arm moves.
+ * <p>
+ * The stand-in cell prepares nothing, so the Sunrise side of preparing a motion, the
+ * PTP, Spline and CartesianImpedanceControlMode objects, is not included; what is
+ * measured is building the segments, applying the velocity schedule and validating
+ * every pose and spline step against the kinematic model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanningBenchmark {
+
+	private static final double[] pushInNew = {Math.toRadians(-57.5), Math.toRadians(74.84), Math.toRadians(3.39),
+			Math.toRadians(-115.65), Math.toRadians(-18.53), Math.toRadians(-99.41), Math.toRadians(115.85)};
+
+	private final BenchmarkCell cell = new BenchmarkCell();
+	private VelocitySchedule schedule;
+	private double[][] line;
+	private ImpedanceSweep sweep;
+	private RivetLayout layout;
+
+	@Setup
+	public void setUp() {
+		schedule = VelocitySchedule.load();
+		line = PickAndPlaceCycle.insertionLine();
+		sweep = ImpedanceSweep.grid(new double[][]{{2500, 2500, 300}, {1500, 700, 2500}}, new double[]{0.3, 0.7},
+				new double[]{100, 250}, new double[]{0.5});
+		layout = new RivetLayout(new double[][]{{0, 0, 0}},
+				RivetLayout.grid(2, 2, new double[]{0, 0, -20}, new double[]{-12.4, -15.6, 0}));
+	}
+
+	/**
+	 * One taught point-to-point motion with the limits of its zone.
+	 */
+	@Benchmark
+	public Segment ptp() {
+		return schedule.apply(Segment.ptp(pushInNew).setName("pushInNew"), null);
+	}
+
+	/**
+	 * The home motion and straight line of {@code straightLineTraj}, built and planned.
+	 */
+	@Benchmark
+	public StraightLineProgram straightLineTrajectory() {
+		StraightLineProgram program = StraightLineProgram.straightLineTraj(cell);
+		program.prepare();
+		return program;
+	}
+
+	/**
+	 * A jerk-limited line from the approach to the insertion pose of a rivet, turned into a spline.
+	 */
+	@Benchmark
+	public Segment trajectorySpline() {
+		return CartesianTrajectory.line(line[0], line[1], 250, 1000, 10000).toSegment(2);
+	}
+
+	/**
+	 * Impedance settings of eight trials and the straight line of each, like the
+	 * ComplianceSweep application.
+	 */
+	@Benchmark
+	public StraightLineProgram impedanceSweep() {
+		StraightLineProgram program = StraightLineProgram.compliance(cell);
+		program.prepare(sweep);
+		return program;
+	}
+
+	/**
+	 * Every motion of a batch of four rivets, via-points merged by the path optimizer.
+	 */
+	@Benchmark
+	public PickAndPlaceCycle pickAndPlace() {
+		PickAndPlaceCycle cycle = new PickAndPlaceCycle(cell, 0.2, null, schedule);
+		cycle.setPathOptimizer(new PathOptimizer(30, 0.2));
+		cycle.prepare(layout);
+		return cycle;
+	}
+}
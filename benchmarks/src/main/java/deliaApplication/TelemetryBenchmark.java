@@ -0,0 +1,116 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Telemetry of the streamed pickAndInstall recording, force and flange position, per
+ * sample: handing it from the controller thread to the writer through the ring,
+ * encoding it into a compressed log and decoding it again.
+ * <p>
+ * The samples follow a slow motion with 0.3 N of force noise, like a recording of a
+ * cycle. Encoding writes a file of {@value #rows} samples per invocation, opening and
+ * closing it included; decoding reads every column of such a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelemetryBenchmark {
+
+	private static final int rows = 20000;
+	private static final long period = 1000000; // ns
+	private static final double resolution = 0.001; // N and mm, like the recording of pickAndPlace
+	private static final String[] columnNames = {"CARTESIAN_FORCE_X", "CARTESIAN_FORCE_Y", "CARTESIAN_FORCE_Z",
+			"CURRENT_XYZ_X", "CURRENT_XYZ_Y", "CURRENT_XYZ_Z"};
+
+	private final double[] samples = new double[rows * columnNames.length];
+	private final double[] sample = new double[columnNames.length];
+	private final double[] column = new double[rows];
+	private final TelemetryRing ring = new TelemetryRing(1023, columnNames.length);
+	private File encoded;
+	private File decoded;
+	private CompressedLogReader reader;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(1);
+		for (int i = 0; i < rows; i++) {
+			double t = i * period / 1e9;
+			int row = i * columnNames.length;
+			for (int k = 0; k < 3; k++) {
+				samples[row + k] = 0.3 * random.nextGaussian();
+			}
+			samples[row + 3] = -450 + 100 * Math.sin(0.2 * t);
+			samples[row + 4] = 120 * Math.cos(0.2 * t);
+			samples[row + 5] = 300 - 5 * t;
+		}
+		encoded = File.createTempFile("encoded", ".glg");
+		decoded = File.createTempFile("decoded", ".glg");
+		write(decoded);
+		reader = new CompressedLogReader(decoded);
+	}
+
+	@TearDown
+	public void tearDown() {
+		encoded.delete();
+		decoded.delete();
+	}
+
+	/**
+	 * Appending a sample to the ring and reading it back, as the recorder and its writer do.
+	 */
+	@Benchmark
+	public double[] ring() {
+		long sequence = ring.getWritten();
+		ring.append(sequence * period, samples);
+		ring.read(sequence, sample, 0);
+		return sample;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(rows)
+	public File encode() throws IOException {
+		write(encoded);
+		return encoded;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(rows)
+	public double decode() {
+		double sum = 0;
+		for (int c = 0; c < columnNames.length; c++) {
+			reader.read(c, 0, column, 0, rows);
+			sum += column[rows - 1];
+		}
+		return sum;
+	}
+
+	private void write(File target) throws IOException {
+		CompressedLogWriter writer = new CompressedLogWriter(target, columnNames, 4096, resolution);
+		try {
+			for (int i = 0; i < rows; i++) {
+				writer.append(i * period, samples, i * columnNames.length);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
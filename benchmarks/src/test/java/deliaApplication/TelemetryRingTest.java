@@ -0,0 +1,84 @@
+package deliaApplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TelemetryRingTest {
+
+	@Test
+	public void keepsAtLeastTheCapacity() {
+		assertEquals(7, new TelemetryRing(5, 1).getCapacity());
+		assertEquals(7, new TelemetryRing(7, 1).getCapacity());
+		assertEquals(15, new TelemetryRing(8, 1).getCapacity());
+	}
+
+	@Test
+	public void samplesBehindTheCapacityAreLost() {
+		TelemetryRing ring = new TelemetryRing(3, 1);
+		for (long sequence = 0; sequence < 10; sequence++) {
+			ring.append(sequence, new double[]{sequence});
+		}
+		assertFalse(ring.isAvailable(6));
+		assertTrue(ring.isAvailable(7));
+		assertTrue(ring.isAvailable(9));
+		assertFalse(ring.isAvailable(10));
+		double[] sample = new double[1];
+		ring.read(7, sample, 0);
+		assertEquals(7, sample[0], 0);
+	}
+
+	/**
+	 * A writer fills every value of a sample with its sequence number while a reader
+	 * copies samples across the whole ring, down to the ones about to be overwritten;
+	 * every copy which passes the check has to be whole.
+	 */
+	@Test(timeout = 10000)
+	public void readerNeverAcceptsATornSample() throws InterruptedException {
+		final int width = 64;
+		final TelemetryRing ring = new TelemetryRing(3, width);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				double[] sample = new double[width];
+				for (long sequence = 0; running.get(); sequence++) {
+					for (int i = 0; i < width; i++) {
+						sample[i] = sequence;
+					}
+					ring.append(sequence, sample);
+				}
+			}
+		});
+		writer.start();
+		double[] sample = new double[width];
+		long accepted = 0;
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+			for (int n = 0; System.nanoTime() < deadline; n++) {
+				long end = ring.getWritten();
+				long sequence = Math.max(0, end - 1 - n % ring.getCapacity());
+				long time = ring.getTime(sequence);
+				ring.read(sequence, sample, 0);
+				if (!ring.isAvailable(sequence)) {
+					continue;
+				}
+				accepted++;
+				assertEquals(sequence, time);
+				for (int i = 0; i < width; i++) {
+					assertEquals("value " + i + " of sample " + sequence, sequence, sample[i], 0);
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+		assertTrue(accepted > 0);
+	}
+}
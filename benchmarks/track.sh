@@ -0,0 +1,13 @@
+#!/bin/sh
+# Runs the benchmarks on the checked out commit, appends the results to history.csv and
+# compares them with the last other commit recorded there, failing if one regressed.
+# Arguments are passed to JMH, e.g. ./track.sh ForceBenchmark -f 3
+set -e
+cd "$(dirname "$0")"
+commit=$(git rev-parse --short HEAD)
+if [ -n "$(git status --porcelain -- .. ':(exclude)history.csv')" ]; then
+	commit="$commit-dirty"
+fi
+mvn -B -q package
+java -jar target/benchmarks.jar -rf csv -rff target/results.csv "$@"
+java -cp target/benchmarks.jar deliaApplication.BenchmarkHistory history.csv "$commit" target/results.csv
@@ -1,27 +1,13 @@
 package deliaApplication;
 
-import java.util.Date;
-import java.util.concurrent.TimeUnit;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 
 import com.kuka.roboticsAPI.applicationModel.RoboticsAPIApplication;
-import static com.kuka.roboticsAPI.motionModel.BasicMotions.*;
-
 import com.kuka.roboticsAPI.controllerModel.Controller;
 import com.kuka.roboticsAPI.deviceModel.LBR;
-import com.kuka.roboticsAPI.geometricModel.CartDOF;
-import com.kuka.roboticsAPI.geometricModel.Frame;
-import com.kuka.roboticsAPI.motionModel.IMotionContainer;
-import com.kuka.roboticsAPI.motionModel.PTP;
-import com.kuka.roboticsAPI.motionModel.PositionHold;
-import com.kuka.roboticsAPI.motionModel.Spline;
-import com.kuka.roboticsAPI.motionModel.controlModeModel.CartesianImpedanceControlMode;
-import com.kuka.roboticsAPI.sensorModel.DataRecorder;
-import com.kuka.roboticsAPI.uiModel.ApplicationDialogType;
-import com.kuka.roboticsAPI.conditionModel.ForceCondition;
-import com.kuka.roboticsAPI.conditionModel.ConditionObserver;
-import com.kuka.roboticsAPI.conditionModel.IConditionListener;
-import com.kuka.roboticsAPI.conditionModel.IRisingEdgeListener;
-import com.kuka.roboticsAPI.conditionModel.NotificationType;
 
 /**
  * Implementation of a robot application.
@@ -44,140 +30,166 @@ public class pickAndPlace extends RoboticsAPIApplication {
 	
 	private Controller kuka_Sunrise_Cabinet_1;
 	private LBR lbr;
-	private static final int stiffnessZ = 2500; // isolate freedom along z-axis only
-	private static final int stiffnessY = 2500;
-	private static final int stiffnessX = 2500;
-	
-	private static double[] homePosition=new double[]{Math.toRadians(-90),Math.toRadians(38.47),0,Math.toRadians(-109.08),
-		0,Math.toRadians(-53.02),Math.toRadians(142.93)};
-	
-	private static double[] pickPosition1=new double[]{Math.toRadians(-46.43),Math.toRadians(68.68),Math.toRadians(0.25),
-		Math.toRadians(-99.65),Math.toRadians(-4.65),Math.toRadians(-72.64),Math.toRadians(129.77)};
-	
-	private static double[] pickPosition2=new double[]{Math.toRadians(-46.43),Math.toRadians(70.51),Math.toRadians(0.25),
-		Math.toRadians(-98.29),Math.toRadians(-4.92),Math.toRadians(-72.70),Math.toRadians(129.77)};
-	
-	private static double[] lift=new double[]{Math.toRadians(-46.43),Math.toRadians(70.76),Math.toRadians(0),
-		Math.toRadians(-99.15),Math.toRadians(-4.64),Math.toRadians(-77.90),Math.toRadians(129.77)};
-	
-	private static double[] placeApproach=new double[]{Math.toRadians(-56.07),Math.toRadians(69.07), Math.toRadians(1.95),
-		Math.toRadians(-119.99),Math.toRadians(-16.19),Math.toRadians(-106.64),Math.toRadians(117.21)};
-	
-	private static double[] placeApproachCloser=new double[]{Math.toRadians(-57.46),Math.toRadians(69.07), Math.toRadians(4.75),
-		Math.toRadians(-118.31),Math.toRadians(-14.74),Math.toRadians(-93.25),Math.toRadians(115.96)};
-
-	private static double[] pushIn=new double[]{Math.toRadians(-56.07),Math.toRadians(69.07), Math.toRadians(1.95),
-		Math.toRadians(-117.76),Math.toRadians(-17.54),Math.toRadians(-85),Math.toRadians(117.21)};
-	
-	private static double[] pushInNew=new double[]{Math.toRadians(-57.5),Math.toRadians(74.84), Math.toRadians(3.39),
-		Math.toRadians(-115.65),Math.toRadians(-18.53),Math.toRadians(-99.41),Math.toRadians(115.85)};
-	
-	private static double[] revisedPick=new double[]{Math.toRadians(-162.65),Math.toRadians(81.97), Math.toRadians(36.51),
-		Math.toRadians(-113.47),Math.toRadians(-66.78),Math.toRadians(-55.44),Math.toRadians(101)};
-	
-	private static double[] suction=new double[]{Math.toRadians(-162.65),Math.toRadians(82.77), Math.toRadians(37.34),
-		Math.toRadians(-113.20),Math.toRadians(-66.22),Math.toRadians(-53.01),Math.toRadians(100.92)};
-	
-	private static double[] waypoint=new double[]{Math.toRadians(-142.11),Math.toRadians(53.70), Math.toRadians(30.87),
-		Math.toRadians(-115.07),Math.toRadians(-55.18),Math.toRadians(-62.08),Math.toRadians(104.74)};
+	private Recorder blackBox;
+	private RivetLayout rivets;
+	private PickAndPlaceCycle cycle;
+	private InstrumentedCell instrumentation;
+	private TorqueMonitor torqueMonitor;
+	private TelemetryPublisher publisher;
+	private TraceLibrary insertionLibrary;
+	private TraceLibrary capturedInsertions;
+	// every feature below is off by default, which runs the cycle as it was recorded; enable them one at a time
+	private static final boolean batchMode = false; // blend via-points, stop exactly only at contact poses
+	private static final double blendingRel = 0.2;
+	private static final boolean scheduledVelocities = false; // velocitySchedule.properties by zone instead of 10 % everywhere
+	private static final double fixedVelocityRel = 0.1;
+	// end the hold at suction once the cup presses on the feeder instead of the operator's dialog; a missed pick goes unnoticed
+	private static final boolean pressOnInsteadOfDialog = false;
+	private static final double pressOnForce = 5; // N
+	private static final boolean onlineContactDetection = false; // filtered rate/CUSUM detector instead of the 10 N condition
+	// external torque per joint which stops the approach or insertion and retreats, watched with the contact on one loop
+	private static final boolean torqueGuards = false;
+	private static final double[] torqueLimits = {40, 40, 30, 30, 15, 15, 10}; // Nm, A1 to A7
+	// learn the joint torques of every segment over the first cycles, then log drift and stop the batch on an overload
+	private static final boolean torqueMonitoring = false;
+	private static final File torqueBaselineFile = new File("C:/KRC/Roboter/Log/DataRecorder/torqueBaselines.tqb");
+	private static final boolean searchInsertion = false; // spiral search for the hole around pushInNew, retried, instead of one push
+	private static final boolean optimizePath = false; // merge via-points which shape the path by less than the tolerance
+	private static final double pathTolerance = 30; // mm
+	private static final boolean continuousRecording = false; // stream telemetry instead of the DataRecorder, which stops after 45 s per rivet
+	private static final File telemetryDirectory = new File("C:/KRC/Roboter/Log/DataRecorder/streaming");
+	private static final int telemetryPort = 0; // live telemetry of the streamed recording, e.g. 30300, see TelemetryConsumer; 0 disables it
+	private static final boolean instrumented = false; // time every motion, hold, dialog and contact reaction
+	private static final File breakdownFile = new File("C:/KRC/Roboter/Log/DataRecorder/cycleBreakdown.csv");
+	// classify every insertion against labelled good and bad ones, curated from the captured ones with TraceLibrary; needs continuousRecording
+	private static final boolean classifyInsertions = false;
+	private static final File insertionLibraryFile = new File("C:/KRC/Roboter/Log/DataRecorder/insertionLibrary.trl");
+	private static final File capturedInsertionsFile = new File("C:/KRC/Roboter/Log/DataRecorder/insertions.trl");
+	private static final int insertionPoints = 64; // force profile of an insertion resampled to this many points
+	private static final double insertionBand = 0.05; // warping band relative to the profile
+	// rivets per run, a grid in the plate starting at the taught pushInNew pose; the feeder always presents the next one at suction
+	private static final int rivetRows = 1;
+	private static final int rivetColumns = 1;
+	private static final double[] rowPitch = {0, 0, -20}; // mm in the root frame, down the plate
+	private static final double[] columnPitch = {-12.4, -15.6, 0}; // 20 mm along the plate, the other way A4 exceeds its limit at placeApproach
 
 	public void initialize() {
 		kuka_Sunrise_Cabinet_1 = getController("KUKA_Sunrise_Cabinet_1");
 		lbr = (LBR) getDevice(kuka_Sunrise_Cabinet_1,
 				"LBR_iiwa_14_R820_1");
+
+		// every motion of the batch is planned and validated before the arm moves
+		RobotCell cell = new SunriseCell(lbr, getObserverManager(), getApplicationUI(), getLogger());
+		if (instrumented) {
+			instrumentation = new InstrumentedCell(cell);
+			cell = instrumentation;
+		}
+		if (torqueMonitoring) {
+			torqueMonitor = new TorqueMonitor(cell);
+			cell = torqueMonitor;
+			try {
+				torqueMonitor.load(torqueBaselineFile);
+			} catch (IOException e) {
+				getLogger().warn("Joint torques are learned again: " + e.getMessage());
+			}
+		}
+		rivets = new RivetLayout(new double[][]{{0, 0, 0}},
+				RivetLayout.grid(rivetRows, rivetColumns, rowPitch, columnPitch));
+		blackBox = PickAndPlaceCycle.createRecorder(cell, continuousRecording ? telemetryDirectory : null, rivets);
+		if (blackBox instanceof StreamingRecorder && telemetryPort != 0) {
+			publisher = new TelemetryPublisher((StreamingRecorder) blackBox, telemetryPort);
+			try {
+				publisher.start();
+			} catch (IOException e) {
+				getLogger().warn("No live telemetry on port " + telemetryPort + ": " + e.getMessage());
+				publisher = null;
+			}
+		}
+		cycle = new PickAndPlaceCycle(cell, batchMode ? blendingRel : 0, blackBox,
+				scheduledVelocities ? VelocitySchedule.load() : VelocitySchedule.fixed(fixedVelocityRel));
+		cycle.setGripConfirmation(pressOnInsteadOfDialog ? GripConfirmation.byPressOn(cell, pressOnForce) : null);
+		cycle.setContactDetector(onlineContactDetection ? new ContactDetector() : null);
+		cycle.setTorqueLimits(torqueGuards ? torqueLimits : null);
+		cycle.setInsertionSearch(searchInsertion ? new InsertionSearch() : null);
+		cycle.setTorqueMonitor(torqueMonitor);
+		cycle.setPathOptimizer(optimizePath ? new PathOptimizer(pathTolerance, blendingRel) : null);
+		if (classifyInsertions && blackBox instanceof StreamingRecorder) {
+			try {
+				insertionLibrary = TraceLibrary.load(insertionLibraryFile, insertionPoints, insertionBand);
+				capturedInsertions = TraceLibrary.load(capturedInsertionsFile, insertionPoints, insertionBand);
+				cycle.setInsertionLibrary(insertionLibrary, capturedInsertions);
+			} catch (IOException e) {
+				getLogger().warn("Insertions are not classified: " + e.getMessage());
+			}
+		}
+		cycle.prepare(rivets);
 	}
 
 	public void run() {
-		/*
-		 * Defining the impedance controlled based on initialised stiffness values
-		 */
-		CartesianImpedanceControlMode impedanceControlMode = 	new CartesianImpedanceControlMode();
-		impedanceControlMode.parametrize(CartDOF.X).setStiffness(stiffnessX);
-		impedanceControlMode.parametrize(CartDOF.Y).setStiffness(stiffnessY);
-		impedanceControlMode.parametrize(CartDOF.Z).setStiffness(stiffnessZ);
-		
-		DataRecorder blackBox = new DataRecorder("pickAndInstall",45,TimeUnit.SECONDS,100);
-		blackBox.addCartesianForce(lbr.getFlange(),null); // records end-effector force in x,y,z
-		blackBox.enable();
-		
-
-		getLogger().info("Starting at home.");
-		PTP returnHome = ptp(homePosition);
-		returnHome.setJointVelocityRel(0.1);
-		lbr.move(returnHome);
-		
-		getLogger().info("Start recording");
-		blackBox.startRecording();
-		
-		getLogger().info("On the way...");
-		PTP stopover = ptp(waypoint);
-		stopover.setJointVelocityRel(0.1);
-		lbr.move(stopover);
-		
-		getLogger().info("Approaching...");
-		PTP pick = ptp(revisedPick);
-		pick.setJointVelocityRel(0.1);
-		lbr.move(pick); 
-		
-		getLogger().info("Fetching rivet...");
-		PTP pickUp = ptp(suction);
-		pickUp.setJointVelocityRel(0.1);
-		lbr.move(pickUp); 
-		
-		IMotionContainer positionHoldContainer = lbr.moveAsync((new PositionHold(impedanceControlMode, -1, null)));
+		try {
+			cycle.runBatch(rivets);
+		} finally {
+			if (torqueMonitor != null) {
+				saveTorqueBaselines();
+			}
+			if (publisher != null) {
+				publisher.close();
+			}
+			if (blackBox instanceof StreamingRecorder) {
+				((StreamingRecorder) blackBox).close();
+			}
+			if (instrumentation != null) {
+				writeBreakdown();
+			}
+			if (capturedInsertions != null) {
+				saveInsertions();
+			}
+		}
+	}
 
-		getApplicationUI().displayModalDialog(ApplicationDialogType.INFORMATION, "Press ok once rivet attached.", "OK");
+	/**
+	 * Keeps what the torque monitor learned for the next run.
+	 */
+	private void saveTorqueBaselines() {
+		torqueMonitor.close();
+		try {
+			torqueMonitor.save(torqueBaselineFile);
+		} catch (IOException e) {
+			getLogger().warn("Could not write " + torqueBaselineFile + ": " + e.getMessage());
+		}
+	}
 
-		// As soon as the modal dialog returns, the motion container will be cancelled. This finishes the position hold. 
-		positionHoldContainer.cancel();	
-		
-		getLogger().info("Got the rivet...");
-		PTP liftUp = ptp(revisedPick);
-		liftUp.setJointVelocityRel(0.1);
-		lbr.move(liftUp); 
-		
-		ForceCondition pushAchieved = ForceCondition.createSpatialForceCondition(lbr.getFlange(),10);
-		
-		IRisingEdgeListener pushListener = new IRisingEdgeListener() {
+	/**
+	 * Writes the captured insertions, those of earlier runs and this one's.
+	 */
+	private void saveInsertions() {
+		insertionLibrary.close();
+		try {
+			capturedInsertions.save(capturedInsertionsFile);
+		} catch (IOException e) {
+			getLogger().warn("Could not write " + capturedInsertionsFile + ": " + e.getMessage());
+		}
+	}
 
-			@Override
-			public void onRisingEdge(ConditionObserver conditionObserver,
-					Date time, int missedEvents) {
-				getLogger().info("Rivet successfully installed!");
-				PTP fetchNext = ptp(placeApproach);
-				fetchNext.setJointVelocityRel(0.1);
-				lbr.move(fetchNext);
-				
+	/**
+	 * Logs where the time of the batch went and writes the breakdown of every motion.
+	 */
+	private void writeBreakdown() {
+		instrumentation.nextCycle();
+		instrumentation.close();
+		instrumentation.report();
+		try {
+			Writer writer = new FileWriter(breakdownFile);
+			try {
+				instrumentation.writeBreakdown(writer);
+			} finally {
+				writer.close();
 			}
-		};
-		
-		ConditionObserver pushObserver = getObserverManager().createConditionObserver(pushAchieved, 
-				NotificationType.MissedEvents, pushListener);
-		pushObserver.enable();
-		
-		getLogger().info("In transit...");
-		PTP stepOne = ptp(waypoint);
-		stepOne.setJointVelocityRel(0.1);
-		lbr.move(stepOne);
-
-		getLogger().info("Getting close...");
-		PTP place = ptp(placeApproach);
-		place.setJointVelocityRel(0.1);
-		lbr.move(place.setMode(impedanceControlMode));
-		
-		PTP near = ptp(placeApproachCloser);
-		near.setJointVelocityRel(0.1);
-		lbr.move(near.setMode(impedanceControlMode));
-
-		getLogger().info("Installing rivet");
-		PTP install = ptp(pushInNew);
-		install.setJointVelocityRel(0.1);
-		lbr.move(install.setMode(impedanceControlMode));
-		
-		getLogger().info("Stop recording");
-		blackBox.stopRecording();
+		} catch (IOException e) {
+			getLogger().warn("Could not write " + breakdownFile + ": " + e.getMessage());
+		}
 	}
-		
+
 	/**
 	 * Auto-generated method stub. Do not modify the contents of this method.
 	 */
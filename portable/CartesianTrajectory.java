@@ -0,0 +1,366 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jerk limited flange trajectory along a line or a circular arc, sampled in time.
+ * <p>
+ * The path length follows the time-optimal rest-to-rest profile under the velocity,
+ * acceleration and jerk limits: the jerk is at its limit while the acceleration builds
+ * up and down, the acceleration while the velocity changes and the velocity while
+ * cruising. Paths too short to reach the velocity limit get the highest velocity they
+ * can stop from. On an arc the velocity is also limited so that the centripetal
+ * acceleration stays within the acceleration limit.
+ * <p>
+ * Positions are X/Y/Z in the robot root frame [mm], like the points of a
+ * {@link Segment#spline(double[]...)}. The profile is computed once when the trajectory
+ * is created; sampling writes into arrays of the caller and does not allocate, so a
+ * trajectory can be sampled at the control rate, streamed with
+ * {@link #stream(RobotCell, long, TimeUnit, Setpoints)} or turned into a spline with
+ * {@link #toSegment(double)}.
+ */
+public class CartesianTrajectory {
+
+	/**
+	 * Receives the sampled setpoints of a trajectory.
+	 */
+	public interface Setpoints {
+
+		/**
+		 * @param time time since the start of the trajectory [s]
+		 * @param xyz flange position, only valid during the call
+		 */
+		void setpoint(double time, double[] xyz);
+	}
+
+	private final double[] start;
+	private final double[] center; // null for a line
+	private final double[] u = new double[3]; // line direction, or first axis of the arc plane
+	private final double[] v = new double[3]; // second axis of the arc plane
+	private final double radius;
+	private final double length;
+
+	private final double jerk;
+	private final double peakVelocity;
+	private final double peakAcceleration;
+	private final double jerkTime; // duration of each jerk phase
+	private final double accelTime; // duration of the acceleration, jerk phases included
+	private final double accelDistance;
+	private final double duration;
+	private final double[] sample = new double[3];
+
+	private CartesianTrajectory(double[] start, double[] center, double radius, double length, double velocity,
+			double acceleration, double jerk) {
+		if (velocity <= 0 || acceleration <= 0 || jerk <= 0) {
+			throw new IllegalArgumentException("Limits must be positive");
+		}
+		this.start = start.clone();
+		this.center = center;
+		this.radius = radius;
+		this.length = length;
+		this.jerk = jerk;
+		if (center != null) {
+			velocity = Math.min(velocity, Math.sqrt(acceleration * radius));
+		}
+		if (2 * accelDistance(velocity, acceleration, jerk) > length) {
+			// the velocity limit is not reached, bisect for the highest velocity which stops in time
+			double lower = 0;
+			double upper = velocity;
+			for (int i = 0; i < 60; i++) {
+				double middle = (lower + upper) / 2;
+				if (2 * accelDistance(middle, acceleration, jerk) > length) {
+					upper = middle;
+				} else {
+					lower = middle;
+				}
+			}
+			velocity = lower;
+		}
+		peakVelocity = velocity;
+		if (velocity * jerk >= acceleration * acceleration) {
+			jerkTime = acceleration / jerk;
+			accelTime = jerkTime + velocity / acceleration;
+		} else {
+			jerkTime = Math.sqrt(velocity / jerk);
+			accelTime = 2 * jerkTime;
+		}
+		peakAcceleration = jerk * jerkTime;
+		accelDistance = velocity * accelTime / 2;
+		duration = velocity == 0 ? 0 : 2 * accelTime + (length - 2 * accelDistance) / velocity;
+	}
+
+	/**
+	 * Straight line from one flange position to another.
+	 *
+	 * @param velocity velocity limit [mm/s]
+	 * @param acceleration acceleration limit [mm/s^2]
+	 * @param jerk jerk limit [mm/s^3]
+	 */
+	public static CartesianTrajectory line(double[] from, double[] to, double velocity, double acceleration,
+			double jerk) {
+		double length = Math.sqrt(square(to[0] - from[0]) + square(to[1] - from[1]) + square(to[2] - from[2]));
+		CartesianTrajectory line = new CartesianTrajectory(from, null, 0, length, velocity, acceleration, jerk);
+		for (int k = 0; k < 3; k++) {
+			line.u[k] = length == 0 ? 0 : (to[k] - from[k]) / length;
+		}
+		return line;
+	}
+
+	/**
+	 * Circular arc from one flange position through a second one to a third.
+	 *
+	 * @throws IllegalArgumentException if the three positions are on a line
+	 */
+	public static CartesianTrajectory arc(double[] from, double[] via, double[] to, double velocity,
+			double acceleration, double jerk) {
+		double[] ab = difference(via, from);
+		double[] ac = difference(to, from);
+		double[] normal = cross(ab, ac);
+		double normalSquared = dot(normal, normal);
+		if (normalSquared < 1e-12 * dot(ab, ab) * dot(ac, ac)) {
+			throw new IllegalArgumentException("The points of an arc must not be on a line");
+		}
+		double[] toCenterA = cross(normal, ab);
+		double[] toCenterB = cross(ac, normal);
+		double[] center = new double[3];
+		for (int k = 0; k < 3; k++) {
+			center[k] = from[k] + (dot(ac, ac) * toCenterA[k] + dot(ab, ab) * toCenterB[k]) / (2 * normalSquared);
+		}
+		double[] radial = difference(from, center);
+		double radius = Math.sqrt(dot(radial, radial));
+		double[] axis = new double[3];
+		for (int k = 0; k < 3; k++) {
+			radial[k] /= radius;
+			axis[k] = normal[k] / Math.sqrt(normalSquared);
+		}
+		// the points follow each other counter-clockwise about the normal
+		double[] tangent = cross(axis, radial);
+		double[] end = difference(to, center);
+		double angle = Math.atan2(dot(end, tangent), dot(end, radial));
+		if (angle <= 0) {
+			angle += 2 * Math.PI;
+		}
+		CartesianTrajectory arc = new CartesianTrajectory(from, center, radius, radius * angle, velocity,
+				acceleration, jerk);
+		System.arraycopy(radial, 0, arc.u, 0, 3);
+		System.arraycopy(tangent, 0, arc.v, 0, 3);
+		return arc;
+	}
+
+	/**
+	 * Line ending on the target, coming from the given distance against the direction.
+	 *
+	 * @param direction direction of the approach, e.g. {0, 0, -1} from above
+	 */
+	public static CartesianTrajectory approach(double[] target, double[] direction, double distance,
+			double velocity, double acceleration, double jerk) {
+		double norm = Math.sqrt(dot(direction, direction));
+		double[] from = new double[3];
+		for (int k = 0; k < 3; k++) {
+			from[k] = target[k] - distance * direction[k] / norm;
+		}
+		return line(from, target, velocity, acceleration, jerk);
+	}
+
+	/**
+	 * Line leaving the start in the given direction, e.g. {0, 0, 1} straight up.
+	 */
+	public static CartesianTrajectory retract(double[] start, double[] direction, double distance,
+			double velocity, double acceleration, double jerk) {
+		double norm = Math.sqrt(dot(direction, direction));
+		double[] to = new double[3];
+		for (int k = 0; k < 3; k++) {
+			to[k] = start[k] + distance * direction[k] / norm;
+		}
+		return line(start, to, velocity, acceleration, jerk);
+	}
+
+	/**
+	 * @return duration of the trajectory [s]
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return length of the path [mm]
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * @return highest velocity reached [mm/s]
+	 */
+	public double getPeakVelocity() {
+		return peakVelocity;
+	}
+
+	/**
+	 * @return highest acceleration reached [mm/s^2]
+	 */
+	public double getPeakAcceleration() {
+		return peakAcceleration;
+	}
+
+	/**
+	 * @param time time since the start [s], clamped to the trajectory
+	 * @return distance travelled along the path [mm]
+	 */
+	public double distance(double time) {
+		if (time <= 0) {
+			return 0;
+		}
+		if (time >= duration) {
+			return length;
+		}
+		if (time < accelTime) {
+			return accelerating(time);
+		}
+		if (time <= duration - accelTime) {
+			return accelDistance + peakVelocity * (time - accelTime);
+		}
+		return length - accelerating(duration - time);
+	}
+
+	/**
+	 * Writes the flange position at the given time into xyz.
+	 *
+	 * @param time time since the start [s], clamped to the trajectory
+	 */
+	public void position(double time, double[] xyz) {
+		double s = distance(time);
+		if (center == null) {
+			for (int k = 0; k < 3; k++) {
+				xyz[k] = start[k] + s * u[k];
+			}
+			return;
+		}
+		double angle = s / radius;
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		for (int k = 0; k < 3; k++) {
+			xyz[k] = center[k] + radius * (cos * u[k] + sin * v[k]);
+		}
+	}
+
+	/**
+	 * Samples the whole trajectory at a fixed period, the last sample at its end. Uses a
+	 * buffer of the trajectory, so one trajectory must not be sampled by two threads.
+	 *
+	 * @param period [s]
+	 */
+	public void generate(double period, Setpoints setpoints) {
+		int samples = (int) Math.ceil(duration / period);
+		for (int i = 0; i <= samples; i++) {
+			double time = Math.min(i * period, duration);
+			position(time, sample);
+			setpoints.setpoint(time, sample);
+		}
+	}
+
+	/**
+	 * Hands one setpoint per period of the cell clock to the receiver, starting with the
+	 * first run of the task and ending with the end position. The returned task has to be
+	 * cancelled once the trajectory has been streamed.
+	 */
+	public ScheduledTask stream(final RobotCell cell, long period, TimeUnit unit, final Setpoints setpoints) {
+		return cell.schedule(new Runnable() {
+
+			private long startTime = -1;
+			private boolean finished;
+
+			@Override
+			public void run() {
+				if (finished) {
+					return;
+				}
+				long now = cell.nanoTime();
+				if (startTime < 0) {
+					startTime = now;
+				}
+				double time = Math.min((now - startTime) / 1e9, duration);
+				finished = time >= duration;
+				position(time, sample);
+				setpoints.setpoint(time, sample);
+			}
+		}, period, unit);
+	}
+
+	/**
+	 * Spline through points of the path at most {@code spacing} apart, at the peak
+	 * velocity of the profile. The controller plans its own profile along the spline
+	 * within the joint limits of the segment.
+	 *
+	 * @param spacing [mm]
+	 */
+	public Segment toSegment(double spacing) {
+		int pieces = Math.max(1, (int) Math.ceil(length / spacing));
+		double[][] points = new double[pieces][3];
+		for (int i = 1; i <= pieces; i++) {
+			// equidistant along the path, whatever the profile
+			position(timeAt(length * i / pieces), points[i - 1]);
+		}
+		return Segment.spline(points).setCartVelocity(peakVelocity);
+	}
+
+	/**
+	 * @return time at which the distance is reached [s]
+	 */
+	private double timeAt(double s) {
+		double lower = 0;
+		double upper = duration;
+		for (int i = 0; i < 60; i++) {
+			double middle = (lower + upper) / 2;
+			if (distance(middle) < s) {
+				lower = middle;
+			} else {
+				upper = middle;
+			}
+		}
+		return upper;
+	}
+
+	/**
+	 * @return distance travelled while accelerating from rest [mm], time within the acceleration
+	 */
+	private double accelerating(double time) {
+		if (time <= jerkTime) {
+			return jerk * time * time * time / 6;
+		}
+		if (time <= accelTime - jerkTime) {
+			double t = time - jerkTime;
+			return jerk * jerkTime * jerkTime * jerkTime / 6 + jerk * jerkTime * jerkTime / 2 * t
+					+ peakAcceleration * t * t / 2;
+		}
+		// the velocity rises point-symmetrically about the middle of the acceleration
+		double rest = accelTime - time;
+		return peakVelocity * time - accelDistance + jerk * rest * rest * rest / 6;
+	}
+
+	/**
+	 * @return distance needed to accelerate from rest to the velocity [mm]
+	 */
+	private static double accelDistance(double velocity, double acceleration, double jerk) {
+		if (velocity * jerk >= acceleration * acceleration) {
+			return velocity * (acceleration / jerk + velocity / acceleration) / 2;
+		}
+		return velocity * Math.sqrt(velocity / jerk);
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+	}
+
+	private static double[] difference(double[] a, double[] b) {
+		return new double[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+	}
+
+	private static double[] cross(double[] a, double[] b) {
+		return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+	}
+}
@@ -0,0 +1,37 @@
+package deliaApplication;
+
+/**
+ * Signals which can be recorded from the arm. Cartesian values refer to the flange,
+ * positions are given in the robot root frame.
+ */
+public enum Channel {
+
+	CARTESIAN_FORCE(3),
+	CARTESIAN_TORQUE(3),
+	INTERNAL_JOINT_TORQUE(7),
+	EXTERNAL_JOINT_TORQUE(7),
+	COMMANDED_XYZ(3),
+	CURRENT_XYZ(3);
+
+	private static final String[] axes = {"X", "Y", "Z"};
+
+	private final int width;
+
+	private Channel(int width) {
+		this.width = width;
+	}
+
+	/**
+	 * @return number of values sampled for this channel
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return column name of the i-th value, e.g. CARTESIAN_FORCE_X or EXTERNAL_JOINT_TORQUE_A3
+	 */
+	public String columnName(int i) {
+		return name() + "_" + (width == 3 ? axes[i] : "A" + (i + 1));
+	}
+}
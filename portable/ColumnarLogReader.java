@@ -0,0 +1,232 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped reader for files written by {@link ColumnarLogWriter}.
+ * <p>
+ * Rows are addressed by their index in the file. {@link #findRow(long)} locates a time
+ * stamp with a binary search over the block index followed by one inside the block, and
+ * {@link #findFirstAbove(int, double, long)} skips every block whose recorded maximum
+ * stays below the threshold, so neither touches more than one block of data. Reading
+ * does not allocate. Files have to be smaller than 2 GB.
+ */
+public class ColumnarLogReader {
+
+	private final MappedByteBuffer data;
+	private final String[] columnNames;
+	private final int blockRows;
+	private final long rowCount;
+	private final int blockCount;
+	private final long[] blockOffsets;
+	private final int[] blockSizes;
+	private final long[] firstTimes;
+	private final long[] lastTimes;
+	private final double[] ranges;
+
+	public ColumnarLogReader(File source) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(source + " is too large to be mapped");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.getInt(0) != ColumnarLogWriter.magic || data.getInt(4) != ColumnarLogWriter.version) {
+			throw new IOException(source + " is not a columnar log");
+		}
+		int columns = data.getInt(8);
+		blockRows = data.getInt(12);
+		rowCount = data.getLong(16);
+		long indexOffset = data.getLong(24);
+		blockCount = data.getInt(32);
+		if (indexOffset == 0) {
+			throw new IOException(source + " has not been closed");
+		}
+
+		columnNames = new String[columns];
+		int position = 36;
+		for (int c = 0; c < columns; c++) {
+			int length = data.getShort(position) & 0xFFFF;
+			byte[] name = new byte[length];
+			data.position(position + 2);
+			data.get(name);
+			columnNames[c] = new String(name, ColumnarLogWriter.utf8);
+			position += 2 + length;
+		}
+
+		blockOffsets = new long[blockCount];
+		blockSizes = new int[blockCount];
+		firstTimes = new long[blockCount];
+		lastTimes = new long[blockCount];
+		ranges = new double[2 * columns * blockCount];
+		position = (int) indexOffset;
+		for (int b = 0; b < blockCount; b++) {
+			blockOffsets[b] = data.getLong(position);
+			blockSizes[b] = data.getInt(position + 8);
+			firstTimes[b] = data.getLong(position + 12);
+			lastTimes[b] = data.getLong(position + 20);
+			position += 28;
+			for (int c = 0; c < 2 * columns; c++) {
+				ranges[b * 2 * columns + c] = data.getDouble(position);
+				position += 8;
+			}
+		}
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	/**
+	 * @return index of the column, or -1 if there is no column with that name
+	 */
+	public int findColumn(String name) {
+		for (int c = 0; c < columnNames.length; c++) {
+			if (columnNames[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public long getStartTime() {
+		return blockCount == 0 ? 0 : firstTimes[0];
+	}
+
+	public long getEndTime() {
+		return blockCount == 0 ? 0 : lastTimes[blockCount - 1];
+	}
+
+	public long getTime(long row) {
+		int block = (int) (row / blockRows);
+		return data.getLong((int) (blockOffsets[block] + 8 * (row % blockRows)));
+	}
+
+	public double getValue(long row, int column) {
+		int block = (int) (row / blockRows);
+		return data.getDouble(columnOffset(block, column) + 8 * (int) (row % blockRows));
+	}
+
+	/**
+	 * Copies {@code count} consecutive values of a column into {@code values}.
+	 *
+	 * @return number of values copied, less than count at the end of the file
+	 */
+	public int read(int column, long fromRow, double[] values, int offset, int count) {
+		int copied = 0;
+		long row = fromRow;
+		while (copied < count && row < rowCount) {
+			int block = (int) (row / blockRows);
+			int inBlock = (int) (row % blockRows);
+			int n = Math.min(count - copied, blockSizes[block] - inBlock);
+			int position = columnOffset(block, column) + 8 * inBlock;
+			for (int i = 0; i < n; i++) {
+				values[offset + copied + i] = data.getDouble(position + 8 * i);
+			}
+			copied += n;
+			row += n;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return the first row with a time stamp at or after {@code time}, the row count if there is none
+	 */
+	public long findRow(long time) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (lastTimes[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (low == blockCount) {
+			return rowCount;
+		}
+		int base = (int) blockOffsets[low];
+		int first = 0;
+		int last = blockSizes[low] - 1;
+		while (first <= last) {
+			int middle = (first + last) >>> 1;
+			if (data.getLong(base + 8 * middle) < time) {
+				first = middle + 1;
+			} else {
+				last = middle - 1;
+			}
+		}
+		return (long) low * blockRows + first;
+	}
+
+	/**
+	 * Finds the first row at or after {@code fromRow} whose value in the column is at
+	 * least the threshold, e.g. the moment the contact force exceeded 10 N.
+	 *
+	 * @return the row, or -1 if the threshold is never reached
+	 */
+	public long findFirstAbove(int column, double threshold, long fromRow) {
+		int columns = columnNames.length;
+		for (int block = (int) (fromRow / blockRows); block < blockCount; block++) {
+			if (ranges[(block * columns + column) * 2 + 1] < threshold) {
+				continue;
+			}
+			int position = columnOffset(block, column);
+			long start = (long) block * blockRows;
+			for (int i = (int) Math.max(0, fromRow - start); i < blockSizes[block]; i++) {
+				if (data.getDouble(position + 8 * i) >= threshold) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return number of rows in every block but the last
+	 */
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	/**
+	 * @return smallest value of the column in the given block
+	 */
+	public double getBlockMin(int block, int column) {
+		return ranges[(block * columnNames.length + column) * 2];
+	}
+
+	/**
+	 * @return largest value of the column in the given block
+	 */
+	public double getBlockMax(int block, int column) {
+		return ranges[(block * columnNames.length + column) * 2 + 1];
+	}
+
+	private int columnOffset(int block, int column) {
+		return (int) blockOffsets[block] + 8 * blockSizes[block] * (1 + column);
+	}
+}
@@ -0,0 +1,188 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes a recorded run as a columnar binary log, read by {@link ColumnarLogReader}.
+ * <p>
+ * Rows are collected into blocks of a fixed number of rows. Within a block the time
+ * stamps [ns] come first, followed by one contiguous column of doubles per channel
+ * value, so a reader only touches the columns it needs. The block index at the end of
+ * the file holds the offset, the first and last time stamp and the minimum and maximum
+ * of every column of each block, which lets a reader seek to a time or to the first
+ * block in which a force exceeds a threshold without scanning the data.
+ * <p>
+ * Layout, little endian: magic number, version, column count, rows per block, row
+ * count, index offset, block count, the column names as length-prefixed UTF-8, the
+ * blocks, and the index.
+ */
+public class ColumnarLogWriter {
+
+	static final int magic = 0x434C4731; // "CLG1"
+	static final int version = 1;
+	static final int rowCountOffset = 16;
+	static final Charset utf8 = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int columns;
+	private final int blockRows;
+	private final long[] times;
+	private final double[] values;
+	private final double[] min;
+	private final double[] max;
+	private final ByteBuffer block;
+	private int rows;
+	private long rowCount;
+
+	private int blockCount;
+	private long[] blockOffsets = new long[16];
+	private int[] blockSizes = new int[16];
+	private long[] blockTimes = new long[32];
+	private double[] blockRanges;
+
+	/**
+	 * @param columnNames names of the value columns, the time column is implicit
+	 */
+	public ColumnarLogWriter(File target, String[] columnNames) throws IOException {
+		this(target, columnNames, 4096);
+	}
+
+	public ColumnarLogWriter(File target, String[] columnNames, int blockRows) throws IOException {
+		this.columns = columnNames.length;
+		this.blockRows = blockRows;
+		times = new long[blockRows];
+		values = new double[columns * blockRows];
+		min = new double[columns];
+		max = new double[columns];
+		blockRanges = new double[32 * columns];
+		block = ByteBuffer.allocateDirect(8 * blockRows * (columns + 1)).order(ByteOrder.LITTLE_ENDIAN);
+
+		file = new RandomAccessFile(target, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		int headerSize = 36;
+		byte[][] names = new byte[columns][];
+		for (int i = 0; i < columns; i++) {
+			names[i] = columnNames[i].getBytes(utf8);
+			headerSize += 2 + names[i].length;
+		}
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(magic).putInt(version).putInt(columns).putInt(blockRows);
+		header.putLong(0).putLong(0).putInt(0);
+		for (byte[] name : names) {
+			header.putShort((short) name.length).put(name);
+		}
+		header.flip();
+		writeFully(header);
+	}
+
+	/**
+	 * Appends one row, time stamps have to be ascending.
+	 *
+	 * @param row one value per column
+	 */
+	public void append(long time, double[] row) throws IOException {
+		append(time, row, 0);
+	}
+
+	/**
+	 * Appends one row read from {@code row} starting at {@code offset}.
+	 */
+	public void append(long time, double[] row, int offset) throws IOException {
+		if (rows == 0) {
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		}
+		times[rows] = time;
+		for (int c = 0; c < columns; c++) {
+			double value = row[offset + c];
+			values[c * blockRows + rows] = value;
+			if (value < min[c]) {
+				min[c] = value;
+			}
+			if (value > max[c]) {
+				max[c] = value;
+			}
+		}
+		rowCount++;
+		if (++rows == blockRows) {
+			flushBlock();
+		}
+	}
+
+	/**
+	 * Writes the last block and the index and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flushBlock();
+			long indexOffset = channel.position();
+			ByteBuffer index = ByteBuffer.allocate(blockCount * (28 + 16 * columns)).order(ByteOrder.LITTLE_ENDIAN);
+			for (int b = 0; b < blockCount; b++) {
+				index.putLong(blockOffsets[b]).putInt(blockSizes[b]);
+				index.putLong(blockTimes[2 * b]).putLong(blockTimes[2 * b + 1]);
+				for (int c = 0; c < 2 * columns; c++) {
+					index.putDouble(blockRanges[b * 2 * columns + c]);
+				}
+			}
+			index.flip();
+			writeFully(index);
+			ByteBuffer counts = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+			counts.putLong(rowCount).putLong(indexOffset).putInt(blockCount);
+			counts.flip();
+			channel.position(rowCountOffset);
+			writeFully(counts);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void flushBlock() throws IOException {
+		if (rows == 0) {
+			return;
+		}
+		if (blockCount == blockOffsets.length) {
+			blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockCount);
+			blockSizes = Arrays.copyOf(blockSizes, 2 * blockCount);
+			blockTimes = Arrays.copyOf(blockTimes, 4 * blockCount);
+			blockRanges = Arrays.copyOf(blockRanges, 4 * blockCount * columns);
+		}
+		blockOffsets[blockCount] = channel.position();
+		blockSizes[blockCount] = rows;
+		blockTimes[2 * blockCount] = times[0];
+		blockTimes[2 * blockCount + 1] = times[rows - 1];
+		for (int c = 0; c < columns; c++) {
+			blockRanges[(blockCount * columns + c) * 2] = min[c];
+			blockRanges[(blockCount * columns + c) * 2 + 1] = max[c];
+		}
+		blockCount++;
+
+		block.clear();
+		for (int i = 0; i < rows; i++) {
+			block.putLong(times[i]);
+		}
+		for (int c = 0; c < columns; c++) {
+			int start = c * blockRows;
+			for (int i = 0; i < rows; i++) {
+				block.putDouble(values[start + i]);
+			}
+		}
+		block.flip();
+		writeFully(block);
+		rows = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates recorded straight line runs of the {@link Compliance} and
+ * {@link straightLineTraj} applications.
+ * <p>
+ * Usage: {@code ComplianceAnalysis <file or directory>...}, where a directory stands for
+ * all columnar logs ({@code .clg}) in it. The runs are analysed in parallel, one task
+ * per file on a pool with one thread per core, and printed as one CSV line per run in
+ * the order given. Every task streams its file in chunks of fixed size, so the memory
+ * per task does not grow with the length of the recording.
+ * <p>
+ * Per run: the tracking error, current minus commanded flange position, as RMS and
+ * maximum [mm]; the effective stiffness per axis [N/m], the least-squares ratio of force
+ * to deflection over the samples with a noticeable deflection; the settling time after
+ * the commanded position has come to rest, until the error stays within
+ * {@value #settleBand} mm of its final value; and the peak force magnitude [N].
+ */
+public class ComplianceAnalysis {
+
+	private static final int chunk = 4096;
+	private static final double settleBand = 0.5; // mm
+	private static final double minDeflection = 0.05; // mm
+	private static final double restTolerance = 1e-3; // mm per sample
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		List<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				File[] logs = file.listFiles();
+				Arrays.sort(logs);
+				for (File log : logs) {
+					if (log.getName().endsWith(".clg")) {
+						files.add(log);
+					}
+				}
+			} else {
+				files.add(file);
+			}
+		}
+		long start = System.nanoTime();
+		List<Result> results = analyse(files, Runtime.getRuntime().availableProcessors());
+		System.out.println(Result.header);
+		for (Result result : results) {
+			System.out.println(result);
+		}
+		System.err.println(String.format("%d runs in %.2f s", results.size(), (System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Analyses the files on a pool of the given size.
+	 *
+	 * @return one result per file, in the order of the files
+	 */
+	public static List<Result> analyse(List<File> files, int threads) throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(files.size());
+			for (final File file : files) {
+				tasks.add(new Callable<Result>() {
+
+					@Override
+					public Result call() throws IOException {
+						return analyse(file);
+					}
+				});
+			}
+			List<Result> results = new ArrayList<Result>(files.size());
+			for (Future<Result> future : pool.invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Analyses one run.
+	 */
+	public static Result analyse(File file) throws IOException {
+		ColumnarLogReader log = new ColumnarLogReader(file);
+		int[] columns = new int[9];
+		Channel[] channels = {Channel.COMMANDED_XYZ, Channel.CURRENT_XYZ, Channel.CARTESIAN_FORCE};
+		for (int c = 0; c < 3; c++) {
+			for (int k = 0; k < 3; k++) {
+				String name = channels[c].columnName(k);
+				columns[3 * c + k] = log.findColumn(name);
+				if (columns[3 * c + k] < 0) {
+					throw new IOException(file + " has no column " + name);
+				}
+			}
+		}
+		double[][] values = new double[9][chunk];
+		long rows = log.getRowCount();
+
+		Result result = new Result(file);
+		double sumSquares = 0;
+		double[] forceDeflection = new double[3];
+		double[] deflectionSquares = new double[3];
+		double[] previous = new double[3];
+		long restRow = 0;
+		for (long row = 0; row < rows; row += chunk) {
+			int n = read(log, columns, row, values);
+			for (int i = 0; i < n; i++) {
+				double errorSquared = 0;
+				double forceSquared = 0;
+				boolean moving = row + i == 0;
+				for (int k = 0; k < 3; k++) {
+					double commanded = values[k][i];
+					double error = values[3 + k][i] - commanded;
+					double force = values[6 + k][i];
+					errorSquared += error * error;
+					forceSquared += force * force;
+					if (Math.abs(error) >= minDeflection) {
+						forceDeflection[k] += force * error;
+						deflectionSquares[k] += error * error;
+					}
+					moving |= Math.abs(commanded - previous[k]) > restTolerance;
+					previous[k] = commanded;
+				}
+				if (moving) {
+					restRow = row + i;
+				}
+				sumSquares += errorSquared;
+				result.maxError = Math.max(result.maxError, Math.sqrt(errorSquared));
+				double force = Math.sqrt(forceSquared);
+				if (force > result.peakForce) {
+					result.peakForce = force;
+					result.peakForceTime = log.getTime(row + i) - log.getStartTime();
+				}
+			}
+		}
+		result.rows = rows;
+		result.duration = rows == 0 ? 0 : (log.getEndTime() - log.getStartTime()) / 1e9;
+		result.rmsError = rows == 0 ? 0 : Math.sqrt(sumSquares / rows);
+		for (int k = 0; k < 3; k++) {
+			// N/mm to N/m
+			result.stiffness[k] = deflectionSquares[k] == 0 ? Double.NaN : 1000 * forceDeflection[k] / deflectionSquares[k];
+		}
+		result.settlingTime = rows == 0 ? 0 : settlingTime(log, columns, restRow, values);
+		return result;
+	}
+
+	/**
+	 * Time from the row at which the commanded position came to rest until the error
+	 * stays within the band around its final value [s].
+	 */
+	private static double settlingTime(ColumnarLogReader log, int[] columns, long restRow, double[][] values) {
+		long last = log.getRowCount() - 1;
+		double[] finalError = new double[3];
+		for (int k = 0; k < 3; k++) {
+			finalError[k] = log.getValue(last, columns[3 + k]) - log.getValue(last, columns[k]);
+		}
+		long outside = restRow;
+		for (long row = restRow; row <= last; row += chunk) {
+			int n = read(log, columns, row, values);
+			for (int i = 0; i < n; i++) {
+				double distance = 0;
+				for (int k = 0; k < 3; k++) {
+					double d = values[3 + k][i] - values[k][i] - finalError[k];
+					distance += d * d;
+				}
+				if (distance > settleBand * settleBand) {
+					outside = row + i;
+				}
+			}
+		}
+		return (log.getTime(outside) - log.getTime(restRow)) / 1e9;
+	}
+
+	private static int read(ColumnarLogReader log, int[] columns, long row, double[][] values) {
+		int n = 0;
+		for (int c = 0; c < columns.length; c++) {
+			n = log.read(columns[c], row, values[c], 0, chunk);
+		}
+		return n;
+	}
+
+	/**
+	 * Metrics of one run.
+	 */
+	public static class Result {
+
+		static final String header = "file,rows,duration_s,rms_error_mm,max_error_mm,stiffness_x_N/m,"
+				+ "stiffness_y_N/m,stiffness_z_N/m,settling_s,peak_force_N,peak_force_time_s";
+
+		public final File file;
+		public long rows;
+		public double duration;
+		public double rmsError;
+		public double maxError;
+		public final double[] stiffness = new double[3];
+		public double settlingTime;
+		public double peakForce;
+		public long peakForceTime; // ns from the start of the recording
+
+		Result(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s,%d,%.3f,%.3f,%.3f,%.0f,%.0f,%.0f,%.3f,%.2f,%.3f", file.getName(), rows, duration,
+					rmsError, maxError, stiffness[0], stiffness[1], stiffness[2], settlingTime, peakForce,
+					peakForceTime / 1e9);
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped reader for files written by {@link CompressedLogWriter}.
+ * <p>
+ * Offers the methods of a {@link ColumnarLogReader}. Blocks are decoded on demand: the
+ * time stamps of the block last asked for and each column separately, so reading one
+ * column decodes only that column, and {@link #findRow(long)} and
+ * {@link #findFirstAbove(int, double, long)} use the block headers to decode a single
+ * block. Reading sequentially decodes every block once and does not allocate. A file
+ * which was not closed, e.g. by a power loss during a recording, is read up to its last
+ * complete block. Files have to be smaller than 2 GB.
+ */
+public class CompressedLogReader {
+
+	private final MappedByteBuffer data;
+	private final String[] columnNames;
+	private final int blockRows;
+	private final long rowCount;
+	private final int blockCount;
+	private final int[] blockSizes;
+	private final long[] firstTimes;
+	private final long[] lastTimes;
+	private final double[] ranges;
+	private final int[] streamOffsets; // per block the time stream, then every column
+
+	private final long[] times;
+	private final double[][] values;
+	private int timeBlock = -1;
+	private final int[] valueBlocks;
+
+	// position of the stream being decoded
+	private int word;
+	private long current;
+	private int available;
+
+	public CompressedLogReader(File source) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(source + " is too large to be mapped");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.getInt(0) != CompressedLogWriter.magic || data.getInt(4) != CompressedLogWriter.version) {
+			throw new IOException(source + " is not a compressed log");
+		}
+		int columns = data.getInt(8);
+		blockRows = data.getInt(12);
+		long indexOffset = data.getLong(24);
+
+		columnNames = new String[columns];
+		int position = 36;
+		for (int c = 0; c < columns; c++) {
+			int length = data.getShort(position) & 0xFFFF;
+			byte[] name = new byte[length];
+			data.position(position + 2);
+			data.get(name);
+			columnNames[c] = new String(name, ColumnarLogWriter.utf8);
+			position += 2 + length;
+		}
+
+		int headerSize = CompressedLogWriter.blockHeaderSize(columns);
+		int[] offsets;
+		int blocks;
+		if (indexOffset != 0) {
+			blocks = data.getInt(32);
+			offsets = new int[blocks];
+			for (int b = 0; b < blocks; b++) {
+				offsets[b] = (int) data.getLong((int) indexOffset + 8 * b);
+			}
+		} else {
+			// not closed, walk the block headers up to the last complete block
+			offsets = new int[16];
+			blocks = 0;
+			int end = data.capacity();
+			while (position + headerSize <= end) {
+				long size = headerSize;
+				for (int s = 0; s <= columns; s++) {
+					size += 8L * Math.max(0, data.getInt(position + 20 + 4 * s));
+				}
+				int rows = data.getInt(position);
+				if (rows <= 0 || rows > blockRows || position + size > end) {
+					break;
+				}
+				if (blocks == offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * blocks);
+				}
+				offsets[blocks++] = position;
+				position += (int) size;
+			}
+		}
+
+		blockCount = blocks;
+		blockSizes = new int[blocks];
+		firstTimes = new long[blocks];
+		lastTimes = new long[blocks];
+		ranges = new double[2 * columns * blocks];
+		streamOffsets = new int[(columns + 1) * blocks];
+		long rows = 0;
+		for (int b = 0; b < blocks; b++) {
+			position = offsets[b];
+			blockSizes[b] = data.getInt(position);
+			firstTimes[b] = data.getLong(position + 4);
+			lastTimes[b] = data.getLong(position + 12);
+			rows += blockSizes[b];
+			int stream = position + headerSize;
+			for (int s = 0; s <= columns; s++) {
+				streamOffsets[b * (columns + 1) + s] = stream;
+				stream += 8 * data.getInt(position + 20 + 4 * s);
+			}
+			int range = position + 24 + 4 * columns;
+			for (int c = 0; c < 2 * columns; c++) {
+				ranges[b * 2 * columns + c] = data.getDouble(range + 8 * c);
+			}
+		}
+		rowCount = rows;
+
+		times = new long[blockRows];
+		values = new double[columns][blockRows];
+		valueBlocks = new int[columns];
+		Arrays.fill(valueBlocks, -1);
+	}
+
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	/**
+	 * @return index of the column, or -1 if there is no column with that name
+	 */
+	public int findColumn(String name) {
+		for (int c = 0; c < columnNames.length; c++) {
+			if (columnNames[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public long getStartTime() {
+		return blockCount == 0 ? 0 : firstTimes[0];
+	}
+
+	public long getEndTime() {
+		return blockCount == 0 ? 0 : lastTimes[blockCount - 1];
+	}
+
+	public long getTime(long row) {
+		int block = (int) (row / blockRows);
+		return decodeTimes(block)[(int) (row % blockRows)];
+	}
+
+	public double getValue(long row, int column) {
+		int block = (int) (row / blockRows);
+		return decodeValues(block, column)[(int) (row % blockRows)];
+	}
+
+	/**
+	 * Copies {@code count} consecutive values of a column into {@code values}.
+	 *
+	 * @return number of values copied, less than count at the end of the file
+	 */
+	public int read(int column, long fromRow, double[] values, int offset, int count) {
+		int copied = 0;
+		long row = fromRow;
+		while (copied < count && row < rowCount) {
+			int block = (int) (row / blockRows);
+			int inBlock = (int) (row % blockRows);
+			int n = Math.min(count - copied, blockSizes[block] - inBlock);
+			System.arraycopy(decodeValues(block, column), inBlock, values, offset + copied, n);
+			copied += n;
+			row += n;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return the first row with a time stamp at or after {@code time}, the row count if there is none
+	 */
+	public long findRow(long time) {
+		int low = 0;
+		int high = blockCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (lastTimes[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (low == blockCount) {
+			return rowCount;
+		}
+		long[] blockTimes = decodeTimes(low);
+		int first = 0;
+		int last = blockSizes[low] - 1;
+		while (first <= last) {
+			int middle = (first + last) >>> 1;
+			if (blockTimes[middle] < time) {
+				first = middle + 1;
+			} else {
+				last = middle - 1;
+			}
+		}
+		return (long) low * blockRows + first;
+	}
+
+	/**
+	 * Finds the first row at or after {@code fromRow} whose value in the column is at
+	 * least the threshold, decoding only blocks whose maximum reaches it.
+	 *
+	 * @return the row, or -1 if the threshold is never reached
+	 */
+	public long findFirstAbove(int column, double threshold, long fromRow) {
+		int columns = columnNames.length;
+		for (int block = (int) (fromRow / blockRows); block < blockCount; block++) {
+			if (ranges[(block * columns + column) * 2 + 1] < threshold) {
+				continue;
+			}
+			double[] blockValues = decodeValues(block, column);
+			long start = (long) block * blockRows;
+			for (int i = (int) Math.max(0, fromRow - start); i < blockSizes[block]; i++) {
+				if (blockValues[i] >= threshold) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * @return number of rows in every block but the last
+	 */
+	public int getBlockRows() {
+		return blockRows;
+	}
+
+	/**
+	 * @return smallest value of the column in the given block
+	 */
+	public double getBlockMin(int block, int column) {
+		return ranges[(block * columnNames.length + column) * 2];
+	}
+
+	/**
+	 * @return largest value of the column in the given block
+	 */
+	public double getBlockMax(int block, int column) {
+		return ranges[(block * columnNames.length + column) * 2 + 1];
+	}
+
+	/**
+	 * @return the time stamps of the block, decoded unless they are still cached
+	 */
+	private long[] decodeTimes(int block) {
+		if (timeBlock == block) {
+			return times;
+		}
+		open(streamOffsets[block * (columnNames.length + 1)]);
+		long time = firstTimes[block];
+		long delta = 0;
+		times[0] = time;
+		for (int i = 1; i < blockSizes[block]; i++) {
+			if (read(1) != 0) {
+				int bits;
+				if (read(1) == 0) {
+					bits = 7;
+				} else if (read(1) == 0) {
+					bits = 12;
+				} else if (read(1) == 0) {
+					bits = 20;
+				} else {
+					bits = 64;
+				}
+				delta += signed(read(bits), bits);
+			}
+			time += delta;
+			times[i] = time;
+		}
+		timeBlock = block;
+		return times;
+	}
+
+	/**
+	 * @return the values of the column in the block, decoded unless they are still cached
+	 */
+	private double[] decodeValues(int block, int column) {
+		double[] decoded = values[column];
+		if (valueBlocks[column] == block) {
+			return decoded;
+		}
+		open(streamOffsets[block * (columnNames.length + 1) + 1 + column]);
+		long bits = read(64);
+		int leading = 0;
+		int trailing = 0;
+		decoded[0] = Double.longBitsToDouble(bits);
+		for (int i = 1; i < blockSizes[block]; i++) {
+			if (read(1) != 0) {
+				if (read(1) != 0) {
+					leading = (int) read(5);
+					int length = (int) read(6);
+					trailing = 64 - leading - (length == 0 ? 64 : length);
+				}
+				bits ^= read(64 - leading - trailing) << trailing;
+			}
+			decoded[i] = Double.longBitsToDouble(bits);
+		}
+		valueBlocks[column] = block;
+		return decoded;
+	}
+
+	private void open(int position) {
+		word = position;
+		available = 0;
+	}
+
+	/**
+	 * @return the next {@code count} bits of the stream, 1 to 64
+	 */
+	private long read(int count) {
+		if (available == 0) {
+			current = data.getLong(word);
+			word += 8;
+			available = 64;
+		}
+		if (count <= available) {
+			long value = count == 64 ? current : (current >>> (available - count)) & ((1L << count) - 1);
+			available -= count;
+			return value;
+		}
+		int rest = count - available;
+		long high = available == 64 ? current : current & ((1L << available) - 1);
+		current = data.getLong(word);
+		word += 8;
+		available = 64 - rest;
+		return (high << rest) | (current >>> available);
+	}
+
+	private static long signed(long value, int bits) {
+		return bits == 64 ? value : value << (64 - bits) >> (64 - bits);
+	}
+}
@@ -0,0 +1,335 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes a recorded run compressed for long-term storage, read by
+ * {@link CompressedLogReader}.
+ * <p>
+ * Rows are collected into blocks like in a {@link ColumnarLogWriter}, but every column
+ * of a block is a bit stream: time stamps as the difference of consecutive intervals,
+ * which is zero for a steady sampling period and costs one bit, values as the XOR with
+ * the previous value of the column, of which only the bits between the leading and
+ * trailing zeros are stored. Slowly changing or repeated values, like the force outside
+ * a contact, take one to a few bits instead of 64. Each block starts with a header of
+ * its row count, first and last time stamp, stream lengths and the minimum and maximum
+ * of every column, so one block can be decoded without the others and a file which was
+ * not closed can be read up to its last complete block.
+ * <p>
+ * Sensor values carry noise in their low mantissa bits, which XOR coding cannot
+ * remove. With a resolution, values are rounded to the power of two at or below it,
+ * e.g. 1/1024 N for 0.001 N, which zeroes those bits. The rounding is the only loss.
+ * Force and flange position of a simulated pick and place cycle take 53 bits per
+ * sample this way, instead of 448 in a columnar log.
+ * <p>
+ * Layout, little endian: magic number, version, column count, rows per block, row
+ * count, index offset, block count, the column names as length-prefixed UTF-8, the
+ * blocks, and the index of block offsets. A block header holds the row count, the
+ * first and last time stamp, the number of 64-bit words of the time stream and of every
+ * column stream and the minimum and maximum of every column, followed by the streams.
+ */
+public class CompressedLogWriter {
+
+	static final int magic = 0x474C4731; // "GLG1"
+	static final int version = 1;
+	static final int rowCountOffset = 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int columns;
+	private final int blockRows;
+	private final double quantum;
+	private final BitStream[] streams;
+	private final long[] previousBits;
+	private final int[] leading;
+	private final int[] trailing;
+	private final double[] min;
+	private final double[] max;
+	private final ByteBuffer block;
+	private int rows;
+	private long rowCount;
+	private long firstTime;
+	private long previousTime;
+	private long previousDelta;
+
+	private int blockCount;
+	private long[] blockOffsets = new long[16];
+
+	/**
+	 * Writes the values exactly.
+	 *
+	 * @param columnNames names of the value columns, the time column is implicit
+	 */
+	public CompressedLogWriter(File target, String[] columnNames) throws IOException {
+		this(target, columnNames, 4096, 0);
+	}
+
+	/**
+	 * @param resolution values are rounded to the power of two at or below it, 0 keeps them exact
+	 */
+	public CompressedLogWriter(File target, String[] columnNames, int blockRows, double resolution)
+			throws IOException {
+		this.columns = columnNames.length;
+		this.blockRows = blockRows;
+		this.quantum = resolution > 0 ? Math.scalb(1.0, Math.getExponent(resolution)) : 0;
+		streams = new BitStream[columns + 1];
+		// worst case per row: 69 bits for a time stamp, 77 for a value
+		streams[0] = new BitStream(69 * blockRows);
+		for (int c = 1; c <= columns; c++) {
+			streams[c] = new BitStream(77 * blockRows);
+		}
+		previousBits = new long[columns];
+		leading = new int[columns];
+		trailing = new int[columns];
+		min = new double[columns];
+		max = new double[columns];
+		int capacity = blockHeaderSize(columns);
+		for (BitStream stream : streams) {
+			capacity += 8 * stream.words.length;
+		}
+		block = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+
+		file = new RandomAccessFile(target, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		int headerSize = 36;
+		byte[][] names = new byte[columns][];
+		for (int i = 0; i < columns; i++) {
+			names[i] = columnNames[i].getBytes(ColumnarLogWriter.utf8);
+			headerSize += 2 + names[i].length;
+		}
+		ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(magic).putInt(version).putInt(columns).putInt(blockRows);
+		header.putLong(0).putLong(0).putInt(0);
+		for (byte[] name : names) {
+			header.putShort((short) name.length).put(name);
+		}
+		header.flip();
+		writeFully(header);
+	}
+
+	/**
+	 * Appends one row, time stamps have to be ascending.
+	 *
+	 * @param row one value per column
+	 */
+	public void append(long time, double[] row) throws IOException {
+		append(time, row, 0);
+	}
+
+	/**
+	 * Appends one row read from {@code row} starting at {@code offset}. Does not allocate.
+	 */
+	public void append(long time, double[] row, int offset) throws IOException {
+		if (rows == 0) {
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			firstTime = time;
+			previousDelta = 0;
+		} else {
+			long delta = time - previousTime;
+			writeDeltaOfDelta(streams[0], delta - previousDelta);
+			previousDelta = delta;
+		}
+		previousTime = time;
+		for (int c = 0; c < columns; c++) {
+			double value = row[offset + c];
+			if (quantum > 0) {
+				value = Math.rint(value / quantum) * quantum;
+			}
+			if (value < min[c]) {
+				min[c] = value;
+			}
+			if (value > max[c]) {
+				max[c] = value;
+			}
+			writeValue(c, Double.doubleToRawLongBits(value));
+		}
+		rowCount++;
+		if (++rows == blockRows) {
+			flushBlock();
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far, without the open block and the index
+	 */
+	public long getSize() throws IOException {
+		return channel.position();
+	}
+
+	/**
+	 * Writes the last block and the index and closes the file.
+	 */
+	public void close() throws IOException {
+		try {
+			flushBlock();
+			long indexOffset = channel.position();
+			ByteBuffer index = ByteBuffer.allocate(8 * blockCount).order(ByteOrder.LITTLE_ENDIAN);
+			for (int b = 0; b < blockCount; b++) {
+				index.putLong(blockOffsets[b]);
+			}
+			index.flip();
+			writeFully(index);
+			ByteBuffer counts = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+			counts.putLong(rowCount).putLong(indexOffset).putInt(blockCount);
+			counts.flip();
+			channel.position(rowCountOffset);
+			writeFully(counts);
+		} finally {
+			file.close();
+		}
+	}
+
+	static int blockHeaderSize(int columns) {
+		return 20 + 4 * (columns + 1) + 16 * columns;
+	}
+
+	/**
+	 * Prefix codes of the delta of delta: 0 for none, then 10, 110, 1110 for 7, 12 and 20
+	 * bit values and 1111 for the full 64 bits. Nanosecond jitter of a millisecond period
+	 * mostly fits into 12 or 20 bits.
+	 */
+	private static void writeDeltaOfDelta(BitStream stream, long dod) {
+		if (dod == 0) {
+			stream.write(0, 1);
+		} else if (fits(dod, 7)) {
+			stream.write(0x2, 2);
+			stream.write(dod, 7);
+		} else if (fits(dod, 12)) {
+			stream.write(0x6, 3);
+			stream.write(dod, 12);
+		} else if (fits(dod, 20)) {
+			stream.write(0xE, 4);
+			stream.write(dod, 20);
+		} else {
+			stream.write(0xF, 4);
+			stream.write(dod, 64);
+		}
+	}
+
+	private static boolean fits(long value, int bits) {
+		return value >= -(1L << (bits - 1)) && value < 1L << (bits - 1);
+	}
+
+	/**
+	 * The first value of a block is stored in full. Then 0 for an unchanged value, 10 and
+	 * the meaningful bits if they fit into the window of the previous value, or 11, five
+	 * bits of leading zeros, six bits of length and the meaningful bits.
+	 */
+	private void writeValue(int c, long bits) {
+		BitStream stream = streams[c + 1];
+		if (rows == 0) {
+			stream.write(bits, 64);
+			previousBits[c] = bits;
+			leading[c] = 64;
+			trailing[c] = 0;
+			return;
+		}
+		long xor = bits ^ previousBits[c];
+		previousBits[c] = bits;
+		if (xor == 0) {
+			stream.write(0, 1);
+			return;
+		}
+		int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+		int trail = Long.numberOfTrailingZeros(xor);
+		if (lead >= leading[c] && trail >= trailing[c]) {
+			stream.write(0x2, 2);
+			stream.write(xor >>> trailing[c], 64 - leading[c] - trailing[c]);
+			return;
+		}
+		int length = 64 - lead - trail;
+		stream.write(0x3, 2);
+		stream.write(lead, 5);
+		stream.write(length & 63, 6); // 64 does not fit and is stored as 0
+		stream.write(xor >>> trail, length);
+		leading[c] = lead;
+		trailing[c] = trail;
+	}
+
+	private void flushBlock() throws IOException {
+		if (rows == 0) {
+			return;
+		}
+		if (blockCount == blockOffsets.length) {
+			blockOffsets = Arrays.copyOf(blockOffsets, 2 * blockCount);
+		}
+		blockOffsets[blockCount++] = channel.position();
+
+		block.clear();
+		block.putInt(rows).putLong(firstTime).putLong(previousTime);
+		for (BitStream stream : streams) {
+			block.putInt(stream.wordCount());
+		}
+		for (int c = 0; c < columns; c++) {
+			block.putDouble(min[c]).putDouble(max[c]);
+		}
+		for (BitStream stream : streams) {
+			int words = stream.wordCount();
+			for (int i = 0; i < words; i++) {
+				block.putLong(stream.words[i]);
+			}
+			stream.clear();
+		}
+		block.flip();
+		writeFully(block);
+		rows = 0;
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Bits written from the most significant bit of each word on.
+	 */
+	private static class BitStream {
+
+		final long[] words;
+		private long size;
+
+		BitStream(int capacity) {
+			words = new long[(capacity + 63) / 64];
+		}
+
+		/**
+		 * Writes the lowest {@code count} bits of the value.
+		 */
+		void write(long value, int count) {
+			if (count == 0) {
+				return;
+			}
+			if (count < 64) {
+				value &= (1L << count) - 1;
+			}
+			int word = (int) (size >>> 6);
+			int used = (int) (size & 63);
+			int free = 64 - used;
+			if (count <= free) {
+				words[word] |= value << (free - count);
+			} else {
+				words[word] |= value >>> (count - free);
+				words[word + 1] = value << (64 - count + free);
+			}
+			size += count;
+		}
+
+		int wordCount() {
+			return (int) ((size + 63) >>> 6);
+		}
+
+		void clear() {
+			Arrays.fill(words, 0, wordCount(), 0);
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online contact detection on the Cartesian force at the flange.
+ * <p>
+ * Every sample is low-pass filtered per axis and compared to a baseline, the mean force
+ * over a short window after {@link #reset()}, so model errors and a constant load do
+ * not count as contact. Contact is detected by whichever of three rules fires first:
+ * <ul>
+ * <li>level: the deviation from the baseline reaches a force,</li>
+ * <li>rate: the deviation grows faster than a rate for a minimum time, which catches
+ * stiff contacts early,</li>
+ * <li>CUSUM: the deviation in excess of a drift allowance, integrated over time,
+ * reaches a limit, which catches soft contacts long before they reach the level and
+ * ignores short acceleration spikes.</li>
+ * </ul>
+ * A rule is switched off by setting its threshold to {@code NaN}. After a detection the
+ * detector re-arms once the deviation has fallen below the release force.
+ * <p>
+ * {@link #update(long, double, double, double)} runs on fixed-size state and does not
+ * allocate; it can be fed from a recording as well as online through
+ * {@link #watch(RobotCell, ForceListener)}. A detector is used by one thread at a time.
+ */
+public class ContactDetector {
+
+	public enum Rule {
+		LEVEL, RATE, CUSUM
+	}
+
+	private double cutoff = 30; // Hz
+	private long baselineWindow = TimeUnit.MILLISECONDS.toNanos(50);
+	private double level = 10; // N
+	private double rate = 200; // N/s
+	private long rateDuration = TimeUnit.MILLISECONDS.toNanos(5);
+	private double drift = 2; // N
+	private double cusumLimit = 0.05; // N s
+	private double release = 2; // N
+
+	private long lastTime;
+	private long baselineStart;
+	private int baselineSamples;
+	private boolean measuringBaseline;
+	private boolean inContact;
+	private final double[] filtered = new double[3];
+	private final double[] baseline = new double[3];
+	private double deviation;
+	private double cusum;
+	private long risingSince;
+	private long detectionTime;
+	private Rule trigger;
+	private int detections;
+
+	public ContactDetector() {
+		reset();
+	}
+
+	/**
+	 * @param cutoff cut-off frequency of the first order low-pass [Hz], 30 Hz by default
+	 */
+	public ContactDetector setCutoff(double cutoff) {
+		this.cutoff = cutoff;
+		return this;
+	}
+
+	/**
+	 * @param window time over which the baseline is averaged after a reset, 50 ms by default
+	 */
+	public ContactDetector setBaselineWindow(long window, TimeUnit unit) {
+		this.baselineWindow = unit.toNanos(window);
+		return this;
+	}
+
+	/**
+	 * @param level deviation from the baseline which is contact in any case [N], 10 N by default
+	 */
+	public ContactDetector setLevel(double level) {
+		this.level = level;
+		return this;
+	}
+
+	/**
+	 * @param rate growth of the deviation [N/s], 200 N/s by default
+	 * @param duration time the rate has to be exceeded without interruption, 5 ms by default
+	 */
+	public ContactDetector setRate(double rate, long duration, TimeUnit unit) {
+		this.rate = rate;
+		this.rateDuration = unit.toNanos(duration);
+		return this;
+	}
+
+	/**
+	 * @param drift deviation which is not integrated, above the force noise [N], 2 N by default
+	 * @param limit integrated excess deviation which is contact [N s], 0.05 N s by default
+	 */
+	public ContactDetector setCusum(double drift, double limit) {
+		this.drift = drift;
+		this.cusumLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @param release deviation below which the detector re-arms [N], 2 N by default
+	 */
+	public ContactDetector setRelease(double release) {
+		this.release = release;
+		return this;
+	}
+
+	/**
+	 * Forgets the filter state and the baseline, which is measured again from the next samples.
+	 */
+	public void reset() {
+		lastTime = Long.MIN_VALUE;
+		baselineSamples = 0;
+		measuringBaseline = true;
+		inContact = false;
+		cusum = 0;
+		risingSince = -1;
+		deviation = 0;
+	}
+
+	/**
+	 * Processes one force sample.
+	 *
+	 * @param time time stamp [ns], ascending
+	 * @return whether contact was detected with this sample
+	 */
+	public boolean update(long time, double fx, double fy, double fz) {
+		if (lastTime == Long.MIN_VALUE) {
+			filtered[0] = fx;
+			filtered[1] = fy;
+			filtered[2] = fz;
+			baseline[0] = baseline[1] = baseline[2] = 0;
+			baselineStart = time;
+			lastTime = time;
+		}
+		double dt = (time - lastTime) / 1e9;
+		lastTime = time;
+		double alpha = dt / (dt + 1 / (2 * Math.PI * cutoff));
+		filtered[0] += alpha * (fx - filtered[0]);
+		filtered[1] += alpha * (fy - filtered[1]);
+		filtered[2] += alpha * (fz - filtered[2]);
+
+		if (measuringBaseline) {
+			// running mean of the filtered force
+			baselineSamples++;
+			for (int k = 0; k < 3; k++) {
+				baseline[k] += (filtered[k] - baseline[k]) / baselineSamples;
+			}
+			measuringBaseline = time - baselineStart < baselineWindow;
+			return false;
+		}
+
+		double dx = filtered[0] - baseline[0];
+		double dy = filtered[1] - baseline[1];
+		double dz = filtered[2] - baseline[2];
+		double previous = deviation;
+		deviation = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (inContact) {
+			if (deviation < release) {
+				inContact = false;
+				cusum = 0;
+				risingSince = -1;
+			}
+			return false;
+		}
+
+		Rule fired = null;
+		if (deviation >= level) {
+			fired = Rule.LEVEL;
+		}
+		if (dt > 0 && (deviation - previous) / dt >= rate && deviation >= drift) {
+			if (risingSince < 0) {
+				risingSince = time - (long) (dt * 1e9);
+			}
+			if (fired == null && time - risingSince >= rateDuration) {
+				fired = Rule.RATE;
+			}
+		} else {
+			risingSince = -1;
+		}
+		cusum = Math.max(0, cusum + (deviation - drift) * dt);
+		if (fired == null && cusum >= cusumLimit) {
+			fired = Rule.CUSUM;
+		}
+		if (fired == null) {
+			return false;
+		}
+		trigger = fired;
+		detectionTime = time;
+		detections++;
+		inContact = true;
+		return true;
+	}
+
+	/**
+	 * @return filtered deviation from the baseline of the last sample [N]
+	 */
+	public double getDeviation() {
+		return deviation;
+	}
+
+	/**
+	 * @return whether the detector is between a detection and the release
+	 */
+	public boolean isInContact() {
+		return inContact;
+	}
+
+	/**
+	 * @return time stamp of the last detection [ns]
+	 */
+	public long getDetectionTime() {
+		return detectionTime;
+	}
+
+	/**
+	 * @return rule which fired the last detection, {@code null} before the first one
+	 */
+	public Rule getTrigger() {
+		return trigger;
+	}
+
+	/**
+	 * @return number of detections since the detector was created
+	 */
+	public int getDetections() {
+		return detections;
+	}
+
+	/**
+	 * Samples the flange force of the cell every millisecond while enabled and notifies
+	 * the listener of every detection, like the force condition of
+	 * {@link RobotCell#watchForce(double, ForceListener)}. Enabling resets the detector.
+	 * The listener runs on the sampling thread and has to return quickly, e.g. by handing
+	 * the event to a {@link MotionArbiter}.
+	 */
+	public ForceWatch watch(final RobotCell cell, final ForceListener listener) {
+		return new ForceWatch() {
+
+			private final double[] force = new double[3];
+			private ScheduledTask sampler;
+
+			@Override
+			public synchronized void enable() {
+				if (sampler != null) {
+					return;
+				}
+				reset();
+				sampler = cell.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						cell.read(Channel.CARTESIAN_FORCE, force, 0);
+						long time = cell.nanoTime();
+						if (update(time, force[0], force[1], force[2])) {
+							listener.onForce(time, 0);
+						}
+					}
+				}, 1, TimeUnit.MILLISECONDS);
+			}
+
+			@Override
+			public synchronized void disable() {
+				if (sampler != null) {
+					sampler.cancel();
+					sampler = null;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,137 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays recorded runs through a {@link ContactDetector} and reports its detection
+ * latency and false positives next to those of the fixed 10 N force condition.
+ * <p>
+ * Usage: {@code ContactEvaluation <file>...} with columnar logs of
+ * {@link ColumnarLogWriter}; text logs of the DataRecorder are converted with the
+ * {@link LogConverter} first. Recordings are not labelled, so every time the force
+ * magnitude crosses the reference force counts as one contact, and its onset is the last
+ * sample before the crossing at which the force was still within the noise band of the
+ * start of the recording. A detection between the onset and the end of a contact
+ * counts as a hit, any other detection as a false positive. Latencies are measured from
+ * the onset.
+ */
+public class ContactEvaluation {
+
+	private static final double referenceForce = 10; // N, the force condition of the applications
+	private static final double releaseForce = 5; // N
+	private static final long noiseWindow = 1000000000L; // ns at the start of a recording
+	private static final double noiseBand = 3; // standard deviations
+
+	public static void main(String[] args) throws IOException {
+		int contacts = 0;
+		int hits = 0;
+		int falsePositives = 0;
+		double detectorLatency = 0;
+		double referenceLatency = 0;
+		double minutes = 0;
+		for (String arg : args) {
+			ColumnarLogReader log = new ColumnarLogReader(new File(arg));
+			Result result = evaluate(log, new ContactDetector());
+			System.out.println(String.format("%s: %d contacts, %d detected, %d false positives, latency %.1f ms"
+					+ " (fixed %.0f N: %.1f ms)", arg, result.contacts, result.hits, result.falsePositives,
+					result.hits == 0 ? Double.NaN : result.detectorLatency / result.hits / 1e6, referenceForce,
+					result.contacts == 0 ? Double.NaN : result.referenceLatency / result.contacts / 1e6));
+			contacts += result.contacts;
+			hits += result.hits;
+			falsePositives += result.falsePositives;
+			detectorLatency += result.detectorLatency;
+			referenceLatency += result.referenceLatency;
+			minutes += (log.getEndTime() - log.getStartTime()) / 60e9;
+		}
+		if (args.length > 1) {
+			System.out.println(String.format("total: %d contacts, %d detected, %.2f false positives per minute,"
+					+ " latency %.1f ms (fixed %.0f N: %.1f ms)", contacts, hits, falsePositives / minutes,
+					hits == 0 ? Double.NaN : detectorLatency / hits / 1e6, referenceForce,
+					contacts == 0 ? Double.NaN : referenceLatency / contacts / 1e6));
+		}
+	}
+
+	/**
+	 * Outcome of one recording, latencies are summed [ns].
+	 */
+	public static class Result {
+		public int contacts;
+		public int hits;
+		public int falsePositives;
+		public double detectorLatency;
+		public double referenceLatency;
+	}
+
+	/**
+	 * Runs the detector over the force columns of a recording.
+	 */
+	public static Result evaluate(ColumnarLogReader log, ContactDetector detector) throws IOException {
+		int[] columns = new int[3];
+		for (int k = 0; k < 3; k++) {
+			columns[k] = log.findColumn(Channel.CARTESIAN_FORCE.columnName(k));
+			if (columns[k] < 0) {
+				throw new IOException("The recording has no column " + Channel.CARTESIAN_FORCE.columnName(k));
+			}
+		}
+		long rows = log.getRowCount();
+		double[] magnitude = new double[(int) rows];
+		double sum = 0;
+		double sumSquares = 0;
+		int noiseSamples = 0;
+		for (int row = 0; row < rows; row++) {
+			double fx = log.getValue(row, columns[0]);
+			double fy = log.getValue(row, columns[1]);
+			double fz = log.getValue(row, columns[2]);
+			magnitude[row] = Math.sqrt(fx * fx + fy * fy + fz * fz);
+			if (log.getTime(row) - log.getStartTime() < noiseWindow) {
+				sum += magnitude[row];
+				sumSquares += magnitude[row] * magnitude[row];
+				noiseSamples++;
+			}
+		}
+		double mean = noiseSamples == 0 ? 0 : sum / noiseSamples;
+		double deviation = noiseSamples < 2 ? 0 : Math.sqrt(Math.max(0, sumSquares / noiseSamples - mean * mean));
+		double noise = mean + noiseBand * deviation;
+
+		Result result = new Result();
+		detector.reset();
+		long onset = Long.MAX_VALUE; // of the contact in progress
+		boolean detected = false;
+		boolean contact = false;
+		for (int row = 0; row < rows; row++) {
+			long time = log.getTime(row);
+			if (!contact && magnitude[row] >= referenceForce) {
+				contact = true;
+				result.contacts++;
+				int first = row;
+				while (first > 0 && magnitude[first - 1] > noise) {
+					first--;
+				}
+				onset = log.getTime(first > 0 ? first - 1 : 0);
+				result.referenceLatency += time - onset;
+				// an early detection during the rise belongs to this contact
+				if (detector.isInContact() && detector.getDetectionTime() >= onset) {
+					detected = true;
+					result.falsePositives--;
+					result.hits++;
+					result.detectorLatency += detector.getDetectionTime() - onset;
+				}
+			} else if (contact && magnitude[row] < releaseForce) {
+				contact = false;
+				detected = false;
+			}
+			if (detector.update(time, log.getValue(row, columns[0]), log.getValue(row, columns[1]),
+					log.getValue(row, columns[2]))) {
+				if (contact && !detected) {
+					detected = true;
+					result.hits++;
+					result.detectorLatency += time - onset;
+				} else {
+					result.falsePositives++;
+				}
+			}
+		}
+		return result;
+	}
+}
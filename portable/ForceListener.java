@@ -0,0 +1,13 @@
+package deliaApplication;
+
+/**
+ * Receives the rising edges of a {@link ForceWatch}.
+ */
+public interface ForceListener {
+
+	/**
+	 * @param time time at which the condition became true, on the clock of {@link RobotCell#nanoTime()}
+	 * @param missedEvents number of edges which occurred while the previous call was still running
+	 */
+	void onForce(long time, int missedEvents);
+}
@@ -0,0 +1,11 @@
+package deliaApplication;
+
+/**
+ * Force observer created by {@link RobotCell#watchForce(double, ForceListener)}.
+ */
+public interface ForceWatch {
+
+	void enable();
+
+	void disable();
+}
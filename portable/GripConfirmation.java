@@ -0,0 +1,153 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ends the position hold at the suction pose once a signal has been present without
+ * interruption for the dwell time, instead of waiting for the operator to acknowledge
+ * a dialog.
+ * <p>
+ * Only a digital input such as a vacuum switch, see {@link #bySignal(Signal)}, confirms
+ * that a rivet is held. The force on the flange, see {@link #byPressOn(RobotCell, double)},
+ * builds up whenever the cup presses onto the feeder, rivet or not: it tells that the
+ * cup has touched down and cannot catch a missed pick.
+ * <p>
+ * A task scheduled on the cell samples the signal and cancels the hold, so the program
+ * simply waits for the hold to finish. If the signal is not present before the timeout
+ * the hold ends as well and the caller can retry.
+ */
+public class GripConfirmation {
+
+	/**
+	 * Binary grip signal, e.g. a vacuum switch read from the IO group of the gripper.
+	 */
+	public interface Signal {
+		boolean isPresent();
+	}
+
+	private static final long samplePeriod = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private final Signal signal;
+	private long dwell = TimeUnit.MILLISECONDS.toNanos(200);
+	private long timeout = TimeUnit.SECONDS.toNanos(3);
+	private int retries = 2;
+
+	private GripConfirmation(Signal signal) {
+		this.signal = signal;
+	}
+
+	/**
+	 * Ends the hold once the cup presses onto the feeder with at least the threshold.
+	 * This is not a grip confirmation: the force is the same whether or not a rivet is
+	 * there.
+	 *
+	 * @param threshold force magnitude [N]
+	 */
+	public static GripConfirmation byPressOn(final RobotCell cell, final double threshold) {
+		return new GripConfirmation(new Signal() {
+
+			private final double[] force = new double[3];
+
+			@Override
+			public boolean isPresent() {
+				cell.read(Channel.CARTESIAN_FORCE, force, 0);
+				return force[0] * force[0] + force[1] * force[1] + force[2] * force[2] >= threshold * threshold;
+			}
+		});
+	}
+
+	/**
+	 * Confirms the grip by a digital input.
+	 */
+	public static GripConfirmation bySignal(Signal signal) {
+		return new GripConfirmation(signal);
+	}
+
+	/**
+	 * @param dwell time the signal has to be present without interruption, 200 ms by default
+	 */
+	public GripConfirmation setDwell(long dwell, TimeUnit unit) {
+		this.dwell = unit.toNanos(dwell);
+		return this;
+	}
+
+	/**
+	 * @param timeout time after which an attempt fails, 3 s by default
+	 */
+	public GripConfirmation setTimeout(long timeout, TimeUnit unit) {
+		this.timeout = unit.toNanos(timeout);
+		return this;
+	}
+
+	/**
+	 * @param retries attempts after the first one before giving up, 2 by default
+	 */
+	public GripConfirmation setRetries(int retries) {
+		this.retries = retries;
+		return this;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Holds the position in the given mode until the grip is confirmed or the timeout
+	 * has expired.
+	 *
+	 * @return whether the grip was confirmed
+	 */
+	public boolean hold(RobotCell cell, Impedance mode) {
+		MotionHandle hold = cell.holdPosition(mode);
+		Check check = new Check(cell, hold);
+		ScheduledTask task = cell.schedule(check, samplePeriod, TimeUnit.NANOSECONDS);
+		try {
+			hold.await();
+		} finally {
+			task.cancel();
+			hold.cancel();
+		}
+		return check.confirmed;
+	}
+
+	/**
+	 * Samples the signal and ends the hold once the outcome is known.
+	 */
+	private class Check implements Runnable {
+
+		final RobotCell cell;
+		final MotionHandle hold;
+		final long start;
+		long presentSince = -1;
+		volatile boolean confirmed;
+		boolean done;
+
+		Check(RobotCell cell, MotionHandle hold) {
+			this.cell = cell;
+			this.hold = hold;
+			this.start = cell.nanoTime();
+		}
+
+		@Override
+		public void run() {
+			if (done) {
+				return;
+			}
+			long now = cell.nanoTime();
+			if (!signal.isPresent()) {
+				presentSince = -1;
+			} else if (presentSince < 0) {
+				presentSince = now;
+			}
+			if (presentSince >= 0 && now - presentSince >= dwell) {
+				confirmed = true;
+				done = true;
+			} else if (now - start >= timeout) {
+				done = true;
+			}
+			if (done) {
+				hold.cancel();
+			}
+		}
+	}
+}
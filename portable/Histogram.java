@@ -0,0 +1,112 @@
+package deliaApplication;
+
+import java.util.Arrays;
+
+/**
+ * Distribution of durations in fixed log-linear buckets.
+ * <p>
+ * Every power of two is split into {@value #subBuckets} buckets, so a percentile is
+ * accurate to about 6 % of its value over the whole range of a long while the
+ * histogram only takes a few kilobytes. Recording does not allocate. Instances are not
+ * thread-safe, the owner synchronizes.
+ */
+public class Histogram {
+
+	private static final int subBits = 4;
+	private static final int subBuckets = 1 << subBits;
+
+	private final long[] counts = new long[(64 - subBits + 1) * subBuckets];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max = Long.MIN_VALUE;
+
+	/**
+	 * @param value duration [ns], negative values are counted as 0
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return smallest value recorded, 0 if none
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return largest value recorded, 0 if none
+	 */
+	public long getMax() {
+		return count == 0 ? 0 : max;
+	}
+
+	/**
+	 * @return mean of the values recorded, NaN if none
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : (double) sum / count;
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return middle of the bucket holding the percentile, within the recorded range; 0 if none
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				long lower = lowerBound(i);
+				long middle = lower + (lowerBound(i + 1) - 1 - lower) / 2;
+				return Math.min(Math.max(middle, min), max);
+			}
+		}
+		return max;
+	}
+
+	public void clear() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+
+	private static int index(long value) {
+		if (value < subBuckets) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - subBits;
+		return (shift + 1) * subBuckets + (int) ((value >>> shift) & (subBuckets - 1));
+	}
+
+	private static long lowerBound(int index) {
+		if (index < subBuckets) {
+			return index;
+		}
+		int shift = index / subBuckets - 1;
+		if (shift + subBits >= 63) {
+			return Long.MAX_VALUE;
+		}
+		return (long) (subBuckets + index % subBuckets) << shift;
+	}
+}
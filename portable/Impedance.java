@@ -0,0 +1,63 @@
+package deliaApplication;
+
+/**
+ * Translational stiffness and damping of a Cartesian impedance controller.
+ * <p>
+ * Stiffness is given in N/m and damping as Lehr's damping ratio, like the parameters
+ * of the Sunrise CartesianImpedanceControlMode. Instances are immutable so that a
+ * cell can build the corresponding control mode once and reuse it.
+ */
+public class Impedance {
+
+	/**
+	 * Damping ratio of the Sunrise controller if none is set.
+	 */
+	public static final double defaultDamping = 0.7;
+
+	private final double stiffnessX;
+	private final double stiffnessY;
+	private final double stiffnessZ;
+	private final double damping;
+
+	public Impedance(double stiffnessX, double stiffnessY, double stiffnessZ) {
+		this(stiffnessX, stiffnessY, stiffnessZ, defaultDamping);
+	}
+
+	/**
+	 * @param damping damping ratio of all three translations, 0.1 to 1
+	 */
+	public Impedance(double stiffnessX, double stiffnessY, double stiffnessZ, double damping) {
+		if (damping < 0.1 || damping > 1) {
+			throw new IllegalArgumentException("Damping ratio " + damping + " is not within 0.1 and 1");
+		}
+		this.stiffnessX = stiffnessX;
+		this.stiffnessY = stiffnessY;
+		this.stiffnessZ = stiffnessZ;
+		this.damping = damping;
+	}
+
+	public double getStiffnessX() {
+		return stiffnessX;
+	}
+
+	public double getStiffnessY() {
+		return stiffnessY;
+	}
+
+	public double getStiffnessZ() {
+		return stiffnessZ;
+	}
+
+	public double getDamping() {
+		return damping;
+	}
+
+	/**
+	 * @return stiffness per axis and, if not the default, damping in percent, e.g. X2500_Y2500_Z300_D50
+	 */
+	@Override
+	public String toString() {
+		String name = "X" + (int) stiffnessX + "_Y" + (int) stiffnessY + "_Z" + (int) stiffnessZ;
+		return damping == defaultDamping ? name : name + "_D" + Math.round(damping * 100);
+	}
+}
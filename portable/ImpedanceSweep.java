@@ -0,0 +1,103 @@
+package deliaApplication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parameter sets for running the straight line of a {@link StraightLineProgram} several
+ * times in one session, see {@link StraightLineProgram#run(ImpedanceSweep)}.
+ * <p>
+ * A trial combines the impedance controller, stiffness and damping, with the Cartesian
+ * velocity and the joint jerk of the line. Trials are either added one by one or
+ * generated as the full grid of a few values per parameter. Every trial has a tag
+ * naming all its parameters, which is appended to the name of its recording.
+ */
+public class ImpedanceSweep {
+
+	/**
+	 * One parameter set.
+	 */
+	public static class Trial {
+
+		private final Impedance mode;
+		private final double cartVelocity;
+		private final double jointJerkRel;
+
+		/**
+		 * @param cartVelocity Cartesian velocity of the line [mm/s]
+		 * @param jointJerkRel joint jerk relative to the maximum
+		 */
+		public Trial(Impedance mode, double cartVelocity, double jointJerkRel) {
+			this.mode = mode;
+			this.cartVelocity = cartVelocity;
+			this.jointJerkRel = jointJerkRel;
+		}
+
+		public Impedance getMode() {
+			return mode;
+		}
+
+		public double getCartVelocity() {
+			return cartVelocity;
+		}
+
+		public double getJointJerkRel() {
+			return jointJerkRel;
+		}
+
+		/**
+		 * @return the parameters, damping and jerk in percent, e.g. X2500_Y2500_Z300_D70_V250_J50
+		 */
+		public String getTag() {
+			return "X" + (int) mode.getStiffnessX() + "_Y" + (int) mode.getStiffnessY() + "_Z"
+					+ (int) mode.getStiffnessZ() + "_D" + Math.round(mode.getDamping() * 100) + "_V"
+					+ Math.round(cartVelocity) + "_J" + Math.round(jointJerkRel * 100);
+		}
+
+		@Override
+		public String toString() {
+			return getTag();
+		}
+	}
+
+	private final List<Trial> trials = new ArrayList<Trial>();
+
+	/**
+	 * Every combination of the given values, the stiffness varying slowest and the jerk
+	 * fastest.
+	 *
+	 * @param stiffness X/Y/Z stiffness triples [N/m]
+	 * @param damping damping ratios
+	 * @param cartVelocity Cartesian velocities [mm/s]
+	 * @param jointJerkRel relative joint jerks
+	 */
+	public static ImpedanceSweep grid(double[][] stiffness, double[] damping, double[] cartVelocity,
+			double[] jointJerkRel) {
+		ImpedanceSweep sweep = new ImpedanceSweep();
+		for (double[] xyz : stiffness) {
+			for (double ratio : damping) {
+				Impedance mode = new Impedance(xyz[0], xyz[1], xyz[2], ratio);
+				for (double velocity : cartVelocity) {
+					for (double jerk : jointJerkRel) {
+						sweep.add(new Trial(mode, velocity, jerk));
+					}
+				}
+			}
+		}
+		return sweep;
+	}
+
+	public ImpedanceSweep add(Trial trial) {
+		trials.add(trial);
+		return this;
+	}
+
+	public List<Trial> getTrials() {
+		return Collections.unmodifiableList(trials);
+	}
+
+	public int size() {
+		return trials.size();
+	}
+}
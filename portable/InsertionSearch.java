@@ -0,0 +1,411 @@
+package deliaApplication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Force-guided insertion of a rivet into a hole which may be a few millimetres off the
+ * taught pose.
+ * <p>
+ * The flange approaches the taught insertion pose in impedance mode, along the line from
+ * the approach pose, until it touches. Touching within the seat tolerance of the taught
+ * pose means the rivet went straight in. Otherwise it rests on the plate beside the
+ * hole: the search keeps pressing with a set force and moves along a spiral or raster
+ * around the taught pose, perpendicular to the approach, until the flange sinks by the
+ * engagement depth, which is the signature of the rivet dropping into the hole, and then
+ * pushes it home. When the pattern is exhausted without engagement, the flange backs off
+ * and the next attempt searches between the lines of the earlier ones, until the
+ * attempts or the time budget are used up.
+ * <p>
+ * Contact, engagement and the budget are watched on an {@link ObserverHub} whose
+ * listeners only cancel the running motion. The motions are sent to the cell given to
+ * {@link #insert}, e.g. a {@link MotionArbiter}, so that a reaction of the application
+ * can pre-empt them; it should then call {@link #abort()}.
+ */
+public class InsertionSearch {
+
+	public enum Pattern {
+		/** Archimedean spiral outwards from the taught pose */
+		SPIRAL,
+		/** Lines back and forth across a square around the taught pose */
+		RASTER
+	}
+
+	private static final int none = 0;
+	private static final int touched = 1;
+	private static final int engaged = 2;
+
+	private Pattern pattern = Pattern.SPIRAL;
+	private double pitch = 0.8; // mm between turns or lines, less than twice the capture radius of the hole
+	private double radius = 4; // mm, largest expected offset of the hole
+	private double searchVelocity = 15; // mm/s
+	private double approachVelocity = 20; // mm/s
+	private double overtravel = 10; // mm beyond the taught pose the approach looks for the plate
+	private double contactForce = 5; // N along the approach
+	private double pressForce = 10; // N held against the plate while searching and once seated
+	private double engagementDepth = 1.5; // mm
+	private double seatTolerance = 1; // mm short of the taught pose still counted as seated
+	private double backOff = 3; // mm
+	private int attempts = 3;
+	private long budget = TimeUnit.SECONDS.toNanos(10);
+
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+	private final double[] xyz = new double[3];
+
+	// state of the running insertion, shared with the listeners of the hub
+	private volatile MotionHandle motion;
+	private volatile int event;
+	private volatile boolean expired;
+	private volatile boolean aborted;
+
+	// outcome of the last insertion
+	private boolean seated;
+	private int attemptsUsed;
+	private long duration;
+	private double offset = Double.NaN;
+
+	public InsertionSearch setPattern(Pattern pattern) {
+		this.pattern = pattern;
+		return this;
+	}
+
+	/**
+	 * @param pitch distance between the turns of the spiral or the lines of the raster
+	 *            [mm], less than twice the lateral distance from which the rivet drops in
+	 * @param radius largest offset of the hole from the taught pose [mm]
+	 * @param velocity along the search path [mm/s]
+	 */
+	public InsertionSearch setSearch(double pitch, double radius, double velocity) {
+		this.pitch = pitch;
+		this.radius = radius;
+		this.searchVelocity = velocity;
+		return this;
+	}
+
+	/**
+	 * @param velocity of the approach [mm/s]
+	 * @param overtravel distance beyond the taught pose in which the plate is expected [mm]
+	 * @param contactForce force along the approach taken as touching the plate [N]
+	 */
+	public InsertionSearch setApproach(double velocity, double overtravel, double contactForce) {
+		this.approachVelocity = velocity;
+		this.overtravel = overtravel;
+		this.contactForce = contactForce;
+		return this;
+	}
+
+	/**
+	 * @param pressForce held against the plate while searching and once seated [N]
+	 * @param engagementDepth the flange sinks by this much when the rivet drops into the hole [mm]
+	 * @param seatTolerance distance short of the taught pose still counted as seated [mm]
+	 */
+	public InsertionSearch setEngagement(double pressForce, double engagementDepth, double seatTolerance) {
+		this.pressForce = pressForce;
+		this.engagementDepth = engagementDepth;
+		this.seatTolerance = seatTolerance;
+		return this;
+	}
+
+	/**
+	 * @param attempts searches before giving up, each after backing off the plate
+	 * @param backOff distance the flange retracts between attempts [mm]
+	 * @param budget time of the whole insertion, approaches included
+	 */
+	public InsertionSearch setRetries(int attempts, double backOff, long budget, TimeUnit unit) {
+		this.attempts = attempts;
+		this.backOff = backOff;
+		this.budget = unit.toNanos(budget);
+		return this;
+	}
+
+	/**
+	 * Inserts the rivet held by the flange, which has to be at the approach pose.
+	 *
+	 * @param approach joints [rad] from which the rivet is pushed in
+	 * @param target taught joints [rad] of the seated rivet
+	 * @param mode impedance of the insertion
+	 * @return whether the rivet is seated, the flange then presses it with the press
+	 *         force, otherwise it is clear of the plate unless the insertion was aborted
+	 */
+	public boolean insert(RobotCell cell, double[] approach, double[] target, Impedance mode) {
+		long start = cell.nanoTime();
+		kinematics.forward(approach, pose);
+		double[] from = {pose[0], pose[1], pose[2]};
+		kinematics.forward(target, pose);
+		double[] origin = {pose[0], pose[1], pose[2]};
+		double[] axis = unit(origin[0] - from[0], origin[1] - from[1], origin[2] - from[2]);
+		double[] u = Math.abs(axis[2]) < 0.9 ? unit(-axis[1], axis[0], 0) : unit(0, -axis[2], axis[1]);
+		double[] v = {axis[1] * u[2] - axis[2] * u[1], axis[2] * u[0] - axis[0] * u[2], axis[0] * u[1] - axis[1] * u[0]};
+		// the spring of the impedance controller along the approach, compressed by the press force
+		double press = pressForce * 1000 * (axis[0] * axis[0] / mode.getStiffnessX()
+				+ axis[1] * axis[1] / mode.getStiffnessY() + axis[2] * axis[2] / mode.getStiffnessZ());
+
+		seated = false;
+		attemptsUsed = 0;
+		offset = Double.NaN;
+		expired = false;
+		aborted = false;
+		ObserverHub hub = new ObserverHub(cell);
+		Depth depth = new Depth(origin, axis);
+		ForceWatch touch = hub.watch(ObserverHub.forceAlong(axis, contactForce), stopOn(touched));
+		ForceWatch sink = hub.watch(depth, stopOn(engaged));
+		ForceWatch expiry = hub.watch(ObserverHub.timeout(budget, TimeUnit.NANOSECONDS), new ForceListener() {
+
+			@Override
+			public void onForce(long time, int missedEvents) {
+				expired = true;
+				cancel();
+			}
+		});
+		hub.start();
+		expiry.enable();
+		boolean pressing = false;
+		try {
+			while (attemptsUsed < attempts && !expired && !aborted) {
+				attemptsUsed++;
+				if (move(cell, line(origin, axis, overtravel, mode, approachVelocity, "approach"), touch) != touched) {
+					// out of time, aborted, or no plate within the overtravel
+					break;
+				}
+				pressing = true;
+				double surface = along(cell, origin, axis);
+				if (surface >= -seatTolerance) {
+					seated = true;
+					offset = lateral(origin, axis);
+					break;
+				}
+				depth.threshold = surface + engagementDepth;
+				Segment search = search(origin, axis, u, v, surface + press, mode);
+				if (move(cell, search, sink) == engaged) {
+					double sunk = along(cell, origin, axis);
+					offset = lateral(origin, axis);
+					move(cell, line(xyz.clone(), axis, press - sunk, mode, approachVelocity, "seat"), null);
+					seated = along(cell, origin, axis) >= -seatTolerance;
+					break;
+				}
+				if (attemptsUsed < attempts) {
+					pressing = !backOff(cell, axis, mode);
+				}
+			}
+		} finally {
+			hub.close();
+			duration = cell.nanoTime() - start;
+		}
+		if (pressing && !seated && !aborted) {
+			// leave the plate unloaded for the retreat, even when out of time
+			expired = false;
+			backOff(cell, axis, mode);
+		}
+		return seated;
+	}
+
+	/**
+	 * Ends a running insertion, e.g. when the application pre-empts its motion. The
+	 * insertion returns as soon as its motion has stopped and does not move any more.
+	 */
+	public void abort() {
+		aborted = true;
+		cancel();
+	}
+
+	/**
+	 * @return whether the last insertion seated the rivet
+	 */
+	public boolean isSeated() {
+		return seated;
+	}
+
+	/**
+	 * @return approaches of the last insertion, 1 if it was found on the first search
+	 */
+	public int getAttempts() {
+		return attemptsUsed;
+	}
+
+	/**
+	 * @return time the last insertion took [ns]
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return distance from the taught pose, perpendicular to the approach, at which the
+	 *         rivet dropped into the hole [mm], NaN if it did not; up to the capture radius
+	 *         of the hole short of or past its centre
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return e.g. "seated after 1 attempt in 1.42 s, dropped in 2.1 mm off the taught pose"
+	 */
+	public String describe() {
+		String outcome = String.format("%s after %d attempt%s in %.2f s", seated ? "seated" : "not seated",
+				attemptsUsed, attemptsUsed == 1 ? "" : "s", duration / 1e9);
+		return Double.isNaN(offset) ? outcome
+				: String.format("%s, dropped in %.1f mm off the taught pose", outcome, offset);
+	}
+
+	/**
+	 * @return whether the flange retracted from the plate
+	 */
+	private boolean backOff(RobotCell cell, double[] axis, Impedance mode) {
+		cell.read(Channel.CURRENT_XYZ, xyz, 0);
+		move(cell, line(xyz.clone(), axis, -backOff, mode, approachVelocity, "backOff"), null);
+		return !expired && !aborted;
+	}
+
+	/**
+	 * Runs the motion until it ends or the watch, enabled meanwhile, cancels it.
+	 *
+	 * @param watch {@code null} for none
+	 * @return the event which cancelled the motion, {@link #none} if there was none
+	 */
+	private int move(RobotCell cell, Segment segment, ForceWatch watch) {
+		event = none;
+		if (watch != null) {
+			watch.enable();
+		}
+		try {
+			if (!expired && !aborted) {
+				MotionHandle handle = cell.moveAsync(segment);
+				motion = handle;
+				// a listener may have fired before the handle was published
+				if (event != none || expired || aborted) {
+					handle.cancel();
+				}
+				handle.await();
+				motion = null;
+			}
+		} finally {
+			if (watch != null) {
+				watch.disable();
+			}
+		}
+		return event;
+	}
+
+	private ForceListener stopOn(final int reason) {
+		return new ForceListener() {
+
+			@Override
+			public void onForce(long time, int missedEvents) {
+				event = reason;
+				cancel();
+			}
+		};
+	}
+
+	private void cancel() {
+		MotionHandle running = motion;
+		if (running != null) {
+			running.cancel();
+		}
+	}
+
+	/**
+	 * @return the current flange position along the approach, relative to the taught pose [mm]
+	 */
+	private double along(RobotCell cell, double[] origin, double[] axis) {
+		cell.read(Channel.CURRENT_XYZ, xyz, 0);
+		return (xyz[0] - origin[0]) * axis[0] + (xyz[1] - origin[1]) * axis[1] + (xyz[2] - origin[2]) * axis[2];
+	}
+
+	/**
+	 * @return distance of the position last read from the line of the approach [mm]
+	 */
+	private double lateral(double[] origin, double[] axis) {
+		double distance = 0;
+		double along = 0;
+		for (int k = 0; k < 3; k++) {
+			double d = xyz[k] - origin[k];
+			distance += d * d;
+			along += d * axis[k];
+		}
+		return Math.sqrt(Math.max(0, distance - along * along));
+	}
+
+	/**
+	 * @return a straight motion from wherever the flange is to the point at the given
+	 *         distance along the axis from {@code point}
+	 */
+	private static Segment line(double[] point, double[] axis, double distance, Impedance mode, double velocity,
+			String name) {
+		double[] to = new double[3];
+		for (int k = 0; k < 3; k++) {
+			to[k] = point[k] + axis[k] * distance;
+		}
+		return Segment.spline(to).setMode(mode).setCartVelocity(velocity).setName(name);
+	}
+
+	/**
+	 * @param depth distance of the search plane from the taught pose along the approach [mm]
+	 * @return the search path of the current attempt, rotated or shifted so that its turns
+	 *         or lines fall between those of the earlier attempts
+	 */
+	private Segment search(double[] origin, double[] axis, double[] u, double[] v, double depth, Impedance mode) {
+		double shift = (double) (attemptsUsed - 1) / attempts;
+		List<double[]> points = new ArrayList<double[]>();
+		if (pattern == Pattern.SPIRAL) {
+			double phase = 2 * Math.PI * shift;
+			double end = 2 * Math.PI * radius / pitch;
+			double angle = 0;
+			while (angle <= end) {
+				double r = pitch * angle / (2 * Math.PI);
+				points.add(point(origin, axis, u, v, depth, r * Math.cos(angle + phase), r * Math.sin(angle + phase)));
+				// points about half a pitch apart along the path
+				angle += Math.min(Math.PI / 8, pitch / 2 / Math.max(r, pitch));
+			}
+		} else {
+			int line = 0;
+			for (double y = -radius + pitch * shift; y <= radius; y += pitch) {
+				double x = line++ % 2 == 0 ? -radius : radius;
+				points.add(point(origin, axis, u, v, depth, x, y));
+				points.add(point(origin, axis, u, v, depth, -x, y));
+			}
+		}
+		return Segment.spline(points.toArray(new double[points.size()][])).setMode(mode)
+				.setCartVelocity(searchVelocity).setName("search");
+	}
+
+	private static double[] point(double[] origin, double[] axis, double[] u, double[] v, double depth, double x,
+			double y) {
+		double[] point = new double[3];
+		for (int k = 0; k < 3; k++) {
+			point[k] = origin[k] + axis[k] * depth + u[k] * x + v[k] * y;
+		}
+		return point;
+	}
+
+	private static double[] unit(double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		return new double[]{x / length, y / length, z / length};
+	}
+
+	/**
+	 * The flange has advanced along the approach to at least the threshold, relative to
+	 * the taught pose.
+	 */
+	private static class Depth extends ObserverHub.Condition {
+
+		private final double[] origin;
+		private final double[] axis;
+		volatile double threshold;
+
+		Depth(double[] origin, double[] axis) {
+			super(Channel.CURRENT_XYZ);
+			this.origin = origin;
+			this.axis = axis;
+		}
+
+		@Override
+		protected boolean holds(double[] xyz, long time, long elapsed) {
+			return (xyz[0] - origin[0]) * axis[0] + (xyz[1] - origin[1]) * axis[1]
+					+ (xyz[2] - origin[2]) * axis[2] >= threshold;
+		}
+	}
+}
@@ -0,0 +1,432 @@
+package deliaApplication;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures where the time of a program goes, per motion and per cycle.
+ * <p>
+ * The instrumented cell wraps a {@link RobotCell} like the {@link MotionArbiter} does
+ * and times every call passing through it:
+ * <ul>
+ * <li>motions and position holds: the dispatch delay spent in the call, the queue delay
+ * until the motions sent before have finished, and the actual duration from there to
+ * its own end, i.e. the time it adds to the cycle. The actual duration is compared
+ * with the duration planned by the {@link SimulatedCell} model; a motion which its
+ * predecessor blends into is shorter than planned by the overlap. Finishing is
+ * sampled every millisecond on the cell clock.</li>
+ * <li>dialogs: the time until the operator acknowledges.</li>
+ * <li>force events: the delay from the condition firing to the listener being called,
+ * and from there to the first motion dispatched afterwards, the reaction.</li>
+ * <li>idle time: neither a motion nor a hold queued or running.</li>
+ * </ul>
+ * Every measurement goes into a {@link Histogram}, motions into one per segment name.
+ * {@link #nextCycle()} closes a cycle; {@link #writeBreakdown(Writer)} exports every
+ * measurement with its cycle as CSV and {@link #getSummary()} ranks the segments by
+ * their share of the cycle time.
+ */
+public class InstrumentedCell implements RobotCell {
+
+	private static final long samplePeriod = 1; // ms
+
+	private final RobotCell cell;
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+	private final double[] startXyz = new double[3];
+	private final ScheduledTask sampler;
+
+	private final Map<String, Stats> segments = new LinkedHashMap<String, Stats>();
+	private final Histogram dispatch = new Histogram();
+	private final Histogram queue = new Histogram();
+	private final Histogram holds = new Histogram();
+	private final Histogram dialogs = new Histogram();
+	private final Histogram callbacks = new Histogram();
+	private final Histogram reactions = new Histogram();
+	private final Histogram idle = new Histogram();
+	private final Histogram cycles = new Histogram();
+
+	private final List<Entry> inFlight = new ArrayList<Entry>();
+	private final List<Entry> breakdown = new ArrayList<Entry>();
+	private double[] planned; // joints at the end of the motions queued, null if unknown
+	private int cycle;
+	private long cycleStart;
+	private long idleSince;
+	private long idleTime;
+	private long event = -1; // time of the force event waiting for its reaction
+
+	public InstrumentedCell(RobotCell cell) {
+		this.cell = cell;
+		cycleStart = cell.nanoTime();
+		idleSince = cycleStart;
+		sampler = cell.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+		}, samplePeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sets the joint configuration the first motion starts from, so that its duration
+	 * can be planned. Afterwards the end of every point-to-point motion is known.
+	 */
+	public synchronized void setJointPosition(double[] joints) {
+		planned = joints.clone();
+	}
+
+	/**
+	 * Ends the current cycle and starts the next, the idle time is split at the boundary.
+	 */
+	public void nextCycle() {
+		long now = cell.nanoTime();
+		synchronized (this) {
+			if (inFlight.isEmpty()) {
+				idleTime += now - idleSince;
+				idleSince = now;
+			}
+			add(new Entry("cycle", null, cycleStart, now - cycleStart));
+			add(new Entry("idle", null, cycleStart, idleTime));
+			cycles.record(now - cycleStart);
+			idle.record(idleTime);
+			idleTime = 0;
+			cycleStart = now;
+			cycle++;
+		}
+	}
+
+	/**
+	 * Stops sampling, does not close the wrapped cell.
+	 */
+	public void close() {
+		sampler.cancel();
+	}
+
+	/**
+	 * Wraps a listener which is not registered with {@link #watchForce}, e.g. one
+	 * called by a {@link ContactDetector}, to measure its events.
+	 */
+	public ForceListener observe(final ForceListener listener) {
+		return new ForceListener() {
+
+			@Override
+			public void onForce(long time, int missedEvents) {
+				long now = cell.nanoTime();
+				synchronized (InstrumentedCell.this) {
+					Entry entry = new Entry("callback", null, time, now - time);
+					add(entry);
+					callbacks.record(entry.actual);
+					event = time;
+				}
+				listener.onForce(time, missedEvents);
+			}
+		};
+	}
+
+	@Override
+	public void prepare(Segment segment) {
+		cell.prepare(segment);
+	}
+
+	@Override
+	public void move(Segment segment) {
+		moveAsync(segment).await();
+	}
+
+	@Override
+	public MotionHandle moveAsync(Segment segment) {
+		long start = cell.nanoTime();
+		MotionHandle handle = cell.moveAsync(segment);
+		return track(new Entry("motion", segment, start, -1), handle);
+	}
+
+	@Override
+	public MotionHandle holdPosition(Impedance mode) {
+		long start = cell.nanoTime();
+		MotionHandle handle = cell.holdPosition(mode);
+		return track(new Entry("hold", null, start, -1), handle);
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, ForceListener listener) {
+		return cell.watchForce(threshold, observe(listener));
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		return cell.createRecorder(name, timeout, unit, sampleInterval);
+	}
+
+	@Override
+	public ScheduledTask schedule(Runnable task, long period, TimeUnit unit) {
+		return cell.schedule(task, period, unit);
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		cell.read(channel, values, offset);
+	}
+
+	@Override
+	public void displayDialog(String message) {
+		long start = cell.nanoTime();
+		cell.displayDialog(message);
+		long end = cell.nanoTime();
+		synchronized (this) {
+			add(new Entry("dialog", null, start, end - start));
+			dialogs.record(end - start);
+		}
+	}
+
+	@Override
+	public void log(String message) {
+		cell.log(message);
+	}
+
+	@Override
+	public long nanoTime() {
+		return cell.nanoTime();
+	}
+
+	/**
+	 * Writes one line per measurement: cycle, kind (motion, hold, dialog, callback,
+	 * reaction, cycle or idle), segment name, start within the cycle, planned and actual
+	 * duration, dispatch and queue delay. Times are in ms, unknown values are empty.
+	 * Callbacks and reactions have the time of the force event as start and the delay
+	 * as actual duration.
+	 */
+	public synchronized void writeBreakdown(Writer writer) throws IOException {
+		writer.write("cycle,kind,name,start_ms,planned_ms,actual_ms,dispatch_ms,queue_ms\n");
+		for (int i = 0; i < breakdown.size(); i++) {
+			Entry entry = breakdown.get(i);
+			writer.write(entry.cycle + "," + entry.kind + "," + (entry.name == null ? "" : entry.name) + ","
+					+ millis(entry.start - entry.cycleStart) + "," + millis(entry.planned) + ","
+					+ millis(entry.actual) + "," + millis(entry.dispatch) + "," + millis(entry.queue) + "\n");
+		}
+	}
+
+	/**
+	 * @return one line per segment name, the largest share of the cycle time first, and
+	 *         one per other measurement
+	 */
+	public synchronized String getSummary() {
+		List<Map.Entry<String, Stats>> ranked = new ArrayList<Map.Entry<String, Stats>>(segments.entrySet());
+		Collections.sort(ranked, new Comparator<Map.Entry<String, Stats>>() {
+
+			@Override
+			public int compare(Map.Entry<String, Stats> a, Map.Entry<String, Stats> b) {
+				return Long.compare(b.getValue().actual.getSum(), a.getValue().actual.getSum());
+			}
+		});
+		long total = cycles.getSum();
+		StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "%d cycles, %s%n", cycles.getCount(),
+				format(cycles)));
+		for (Map.Entry<String, Stats> entry : ranked) {
+			Stats stats = entry.getValue();
+			summary.append(String.format(Locale.ROOT, "%-14s %5.1f %% planned %s actual %s queue p95 %.1f ms%n",
+					entry.getKey(), total == 0 ? Double.NaN : 100.0 * stats.actual.getSum() / total,
+					stats.planned.getCount() == 0 ? "-" : String.format(Locale.ROOT, "%.1f ms",
+							stats.planned.getMean() / 1e6), format(stats.actual),
+					stats.queue.getPercentile(95) / 1e6));
+		}
+		summary.append(line("dispatch", dispatch)).append(line("hold", holds)).append(line("dialog", dialogs))
+				.append(line("callback", callbacks)).append(line("reaction", reactions))
+				.append(line("idle", idle));
+		return summary.toString();
+	}
+
+	/**
+	 * Logs the summary to the cell, one message per line.
+	 */
+	public void report() {
+		for (String line : getSummary().split(String.format("%n"))) {
+			cell.log(line);
+		}
+	}
+
+	private MotionHandle track(final Entry entry, final MotionHandle handle) {
+		long now = cell.nanoTime();
+		synchronized (this) {
+			entry.dispatch = now - entry.start;
+			dispatch.record(entry.dispatch);
+			if (entry.segment != null) {
+				entry.planned = plan(entry.segment);
+			}
+			if (event >= 0) {
+				Entry reaction = new Entry("reaction", entry.segment, event, now - event);
+				add(reaction);
+				reactions.record(reaction.actual);
+				event = -1;
+			}
+			if (inFlight.isEmpty()) {
+				idleTime += entry.start - idleSince;
+				entry.started = now;
+			}
+			entry.cycle = cycle;
+			entry.cycleStart = cycleStart;
+			entry.handle = handle;
+			inFlight.add(entry);
+		}
+		return new MotionHandle() {
+
+			@Override
+			public void await() {
+				handle.await();
+				finished(entry, cell.nanoTime(), false);
+			}
+
+			@Override
+			public void cancel() {
+				handle.cancel();
+				finished(entry, cell.nanoTime(), true);
+			}
+
+			@Override
+			public boolean isFinished() {
+				return handle.isFinished();
+			}
+		};
+	}
+
+	/**
+	 * Stamps the motions which have finished since the last sample. Runs on the cell
+	 * clock, which already holds the lock of a simulated cell, so asking the handles
+	 * here cannot wait for a thread waiting for this instance.
+	 */
+	private void sample() {
+		long now = cell.nanoTime();
+		synchronized (this) {
+			while (!inFlight.isEmpty() && inFlight.get(0).handle.isFinished()) {
+				finish(inFlight.get(0), now);
+			}
+		}
+	}
+
+	private void finished(Entry entry, long now, boolean cancelled) {
+		synchronized (this) {
+			if (inFlight.contains(entry)) {
+				if (cancelled && entry.segment != null) {
+					// the arm stops where it is, the following motions start from an unknown configuration
+					planned = null;
+				}
+				// motions queued before it have finished as well
+				while (inFlight.get(0) != entry) {
+					finish(inFlight.get(0), now);
+				}
+				finish(entry, now);
+			}
+		}
+	}
+
+	private void finish(Entry entry, long now) {
+		inFlight.remove(0);
+		if (entry.started < 0) {
+			// cancelled before it started
+			entry.started = now;
+		}
+		entry.actual = now - entry.started;
+		entry.queue = entry.started - entry.start - entry.dispatch;
+		breakdown.add(entry);
+		queue.record(entry.queue);
+		if (entry.segment == null) {
+			holds.record(entry.actual);
+		} else {
+			Stats stats = segments.get(entry.name);
+			if (stats == null) {
+				stats = new Stats();
+				segments.put(entry.name, stats);
+			}
+			stats.actual.record(entry.actual);
+			stats.queue.record(entry.queue);
+			if (entry.planned >= 0) {
+				stats.planned.record(entry.planned);
+			}
+		}
+		if (inFlight.isEmpty()) {
+			idleSince = now;
+		} else {
+			Entry next = inFlight.get(0);
+			next.started = Math.max(now, next.start + next.dispatch);
+		}
+	}
+
+	/**
+	 * @return planned duration of the segment from the end of the motions queued before
+	 *         [ns], -1 if the start is unknown
+	 */
+	private long plan(Segment segment) {
+		double[] start = segment.getStartJoints() != null ? segment.getStartJoints() : planned;
+		if (!segment.isCartesian()) {
+			planned = segment.getJoints().clone();
+		} else {
+			// the end configuration of a spline depends on the controller
+			planned = null;
+		}
+		if (start == null) {
+			return -1;
+		}
+		kinematics.forward(start, pose);
+		System.arraycopy(pose, 0, startXyz, 0, 3);
+		return SimulatedCell.plannedDuration(segment, start, startXyz);
+	}
+
+	private void add(Entry entry) {
+		entry.cycle = cycle;
+		entry.cycleStart = cycleStart;
+		breakdown.add(entry);
+	}
+
+	private static String millis(long nanos) {
+		return nanos < 0 ? "" : String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String format(Histogram histogram) {
+		return String.format(Locale.ROOT, "mean %.1f ms, p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+				histogram.getMean() / 1e6, histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6,
+				histogram.getMax() / 1e6);
+	}
+
+	private static String line(String name, Histogram histogram) {
+		return String.format(Locale.ROOT, "%-14s n %d, %s%n", name, histogram.getCount(), format(histogram));
+	}
+
+	private static class Stats {
+		final Histogram planned = new Histogram();
+		final Histogram actual = new Histogram();
+		final Histogram queue = new Histogram();
+	}
+
+	/**
+	 * One measurement of the breakdown, times in ns on the cell clock.
+	 */
+	private static class Entry {
+		final String kind;
+		final Segment segment;
+		final String name;
+		final long start;
+		int cycle;
+		long cycleStart;
+		long planned = -1;
+		long actual = -1;
+		long dispatch = -1;
+		long queue = -1;
+		long started = -1;
+		MotionHandle handle;
+
+		Entry(String kind, Segment segment, long start, long actual) {
+			this.kind = kind;
+			this.segment = segment;
+			this.name = segment == null ? null : segment.getName() == null ? "unnamed" : segment.getName();
+			this.start = start;
+			this.actual = actual;
+		}
+	}
+}
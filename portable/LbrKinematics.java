@@ -0,0 +1,286 @@
+package deliaApplication;
+
+/**
+ * Forward and inverse kinematics of the LBR iiwa 14 R820 without the controller.
+ * <p>
+ * The arm is described by its Denavit-Hartenberg parameters: all link offsets are zero,
+ * the twists are -90, 90, 90, -90, -90, 90 and 0 degrees and the link lengths along the
+ * joint axes are 360 mm (base to shoulder), 420 mm (shoulder to elbow), 400 mm (elbow to
+ * wrist) and 126 mm (wrist to flange). With every joint at zero the arm points straight
+ * up, a positive A2 leans it towards +X of the root frame and a negative A4 bends the
+ * forearm further forward.
+ * <p>
+ * Poses are stored in {@code double[12]}: the position [mm] followed by the rotation
+ * matrix of the flange row by row. The seven joints are in radians. The inverse solution
+ * is the analytical one for a spherical shoulder and wrist: the redundancy is resolved
+ * by the arm angle, the rotation of the shoulder-elbow-wrist plane about the line from
+ * shoulder to wrist, measured from the plane in which A3 is zero. The sign of A2, A4 and
+ * A6 is selected by a status word with the bit layout of the Sunrise status.
+ * <p>
+ * Neither direction allocates. An instance keeps its intermediate results in fields and
+ * must not be shared between threads.
+ */
+public class LbrKinematics {
+
+	/** Number of values of a pose */
+	public static final int poseSize = 12;
+
+	/** Status bit set if A2 is negative */
+	public static final int negativeA2 = 1;
+	/** Status bit set if A4 is negative */
+	public static final int negativeA4 = 2;
+	/** Status bit set if A6 is negative */
+	public static final int negativeA6 = 4;
+
+	private static final double[] sinTwist = {-1, 1, 1, -1, -1, 1, 0};
+	private static final double[] cosTwist = {0, 0, 0, 0, 0, 0, 1};
+
+	private final double baseShoulder;
+	private final double shoulderElbow;
+	private final double elbowWrist;
+	private final double wristFlange;
+	private final double[] offsets;
+
+	private final double[] scratch = new double[poseSize];
+	private final double[] r = new double[9];
+	private final double[] reference = new double[9];
+	private final double[] r03 = new double[9];
+	private final double[] r04 = new double[9];
+	private final double[] r47 = new double[9];
+	private final double[] axis = new double[3];
+	private final double[] wrist = new double[3];
+	private double elbow;
+
+	/**
+	 * Kinematics up to the flange of the iiwa 14 R820 without media flange.
+	 */
+	public LbrKinematics() {
+		this(126);
+	}
+
+	/**
+	 * @param wristFlange distance from the wrist centre to the frame of interest along the flange axis [mm],
+	 *            e.g. to include a tool without lateral offset
+	 */
+	public LbrKinematics(double wristFlange) {
+		this.baseShoulder = 360;
+		this.shoulderElbow = 420;
+		this.elbowWrist = 400;
+		this.wristFlange = wristFlange;
+		this.offsets = new double[] {baseShoulder, 0, shoulderElbow, 0, elbowWrist, 0, wristFlange};
+	}
+
+	/**
+	 * Computes the pose of the flange in the root frame.
+	 *
+	 * @param pose receives {@value #poseSize} values
+	 */
+	public void forward(double[] joints, double[] pose) {
+		double x = 0;
+		double y = 0;
+		double z = 0;
+		double r00 = 1, r01 = 0, r02 = 0;
+		double r10 = 0, r11 = 1, r12 = 0;
+		double r20 = 0, r21 = 0, r22 = 1;
+		for (int i = 0; i < 7; i++) {
+			double d = offsets[i];
+			x += r02 * d;
+			y += r12 * d;
+			z += r22 * d;
+			double c = Math.cos(joints[i]);
+			double s = Math.sin(joints[i]);
+			double ca = cosTwist[i];
+			double sa = sinTwist[i];
+			// multiply by Rz(q) Rx(twist) = [c, -s ca, s sa; s, c ca, -c sa; 0, sa, ca]
+			double m01 = -s * ca, m02 = s * sa, m11 = c * ca, m12 = -c * sa;
+			double t0 = r00 * c + r01 * s;
+			double t1 = r00 * m01 + r01 * m11 + r02 * sa;
+			r02 = r00 * m02 + r01 * m12 + r02 * ca;
+			r00 = t0;
+			r01 = t1;
+			t0 = r10 * c + r11 * s;
+			t1 = r10 * m01 + r11 * m11 + r12 * sa;
+			r12 = r10 * m02 + r11 * m12 + r12 * ca;
+			r10 = t0;
+			r11 = t1;
+			t0 = r20 * c + r21 * s;
+			t1 = r20 * m01 + r21 * m11 + r22 * sa;
+			r22 = r20 * m02 + r21 * m12 + r22 * ca;
+			r20 = t0;
+			r21 = t1;
+		}
+		pose[0] = x;
+		pose[1] = y;
+		pose[2] = z;
+		pose[3] = r00;
+		pose[4] = r01;
+		pose[5] = r02;
+		pose[6] = r10;
+		pose[7] = r11;
+		pose[8] = r12;
+		pose[9] = r20;
+		pose[10] = r21;
+		pose[11] = r22;
+	}
+
+	/**
+	 * @return status word of a configuration, see {@link #negativeA2}, {@link #negativeA4} and {@link #negativeA6}
+	 */
+	public static int status(double[] joints) {
+		return (joints[1] < 0 ? negativeA2 : 0) | (joints[3] < 0 ? negativeA4 : 0) | (joints[5] < 0 ? negativeA6 : 0);
+	}
+
+	/**
+	 * @return arm angle of a configuration [rad]
+	 */
+	public double armAngle(double[] joints) {
+		forward(joints, scratch);
+		wristCentre(scratch);
+		if (!referencePlane(joints[3] < 0 ? -1 : 1)) {
+			return 0;
+		}
+		rotation03(joints[0], joints[1], joints[2], r03);
+		// r03 = R(axis, psi) * reference, so R(axis, psi) = r03 * reference^T
+		double trace = 0;
+		for (int i = 0; i < 3; i++) {
+			for (int k = 0; k < 3; k++) {
+				r[3 * i + k] = r03[3 * i] * reference[3 * k] + r03[3 * i + 1] * reference[3 * k + 1]
+						+ r03[3 * i + 2] * reference[3 * k + 2];
+			}
+			trace += r[4 * i];
+		}
+		double sin = 0.5 * (axis[0] * (r[7] - r[5]) + axis[1] * (r[2] - r[6]) + axis[2] * (r[3] - r[1]));
+		return Math.atan2(sin, 0.5 * (trace - 1));
+	}
+
+	/**
+	 * Solves for the joints which put the flange at the given pose.
+	 *
+	 * @param armAngle rotation of the elbow about the shoulder-wrist line [rad]
+	 * @param status sign of A2, A4 and A6
+	 * @param joints receives the solution, unchanged if the pose cannot be reached
+	 * @return false if the wrist centre is out of reach
+	 */
+	public boolean inverse(double[] pose, double armAngle, int status, double[] joints) {
+		double gc2 = (status & negativeA2) != 0 ? -1 : 1;
+		double gc4 = (status & negativeA4) != 0 ? -1 : 1;
+		double gc6 = (status & negativeA6) != 0 ? -1 : 1;
+		wristCentre(pose);
+		if (!referencePlane(gc4)) {
+			return false;
+		}
+		double q4 = gc4 * elbow;
+
+		// rotate the reference shoulder about the shoulder-wrist axis by the arm angle
+		double c = Math.cos(armAngle);
+		double s = Math.sin(armAngle);
+		double ux = axis[0], uy = axis[1], uz = axis[2];
+		double v = 1 - c;
+		double a00 = c + ux * ux * v, a01 = ux * uy * v - uz * s, a02 = ux * uz * v + uy * s;
+		double a10 = uy * ux * v + uz * s, a11 = c + uy * uy * v, a12 = uy * uz * v - ux * s;
+		double a20 = uz * ux * v - uy * s, a21 = uz * uy * v + ux * s, a22 = c + uz * uz * v;
+		for (int k = 0; k < 3; k++) {
+			double r0 = reference[k], r1 = reference[3 + k], r2 = reference[6 + k];
+			r03[k] = a00 * r0 + a01 * r1 + a02 * r2;
+			r03[3 + k] = a10 * r0 + a11 * r1 + a12 * r2;
+			r03[6 + k] = a20 * r0 + a21 * r1 + a22 * r2;
+		}
+		double q1 = Math.atan2(gc2 * r03[4], gc2 * r03[1]);
+		double q2 = gc2 * Math.acos(clamp(r03[7]));
+		double q3 = Math.atan2(-gc2 * r03[8], -gc2 * r03[6]);
+
+		// r04 = r03 * Rz(q4) Rx(-90), r47 = r04^T * flange rotation
+		double c4 = Math.cos(q4);
+		double s4 = Math.sin(q4);
+		for (int i = 0; i < 3; i++) {
+			double t0 = r03[3 * i], t1 = r03[3 * i + 1], t2 = r03[3 * i + 2];
+			r04[3 * i] = t0 * c4 + t1 * s4;
+			r04[3 * i + 1] = -t2;
+			r04[3 * i + 2] = -t0 * s4 + t1 * c4;
+		}
+		for (int i = 0; i < 3; i++) {
+			for (int k = 0; k < 3; k++) {
+				r47[3 * i + k] = r04[i] * pose[3 + k] + r04[3 + i] * pose[6 + k] + r04[6 + i] * pose[9 + k];
+			}
+		}
+		double q5 = Math.atan2(gc6 * r47[5], gc6 * r47[2]);
+		double q6 = gc6 * Math.acos(clamp(r47[8]));
+		double q7 = Math.atan2(gc6 * r47[7], -gc6 * r47[6]);
+
+		joints[0] = q1;
+		joints[1] = q2;
+		joints[2] = q3;
+		joints[3] = q4;
+		joints[4] = q5;
+		joints[5] = q6;
+		joints[6] = q7;
+		return true;
+	}
+
+	/**
+	 * Solves for the joints with the arm angle and status of a reference configuration,
+	 * e.g. the current joints when following a Cartesian path.
+	 */
+	public boolean inverse(double[] pose, double[] reference, double[] joints) {
+		return inverse(pose, armAngle(reference), status(reference), joints);
+	}
+
+	/**
+	 * Computes the wrist centre of a pose relative to the shoulder into {@link #wrist}.
+	 */
+	private void wristCentre(double[] pose) {
+		wrist[0] = pose[0] - wristFlange * pose[5];
+		wrist[1] = pose[1] - wristFlange * pose[8];
+		wrist[2] = pose[2] - wristFlange * pose[11] - baseShoulder;
+	}
+
+	/**
+	 * Computes the elbow angle, the unit shoulder-wrist axis and the rotation of the
+	 * shoulder for A3 = 0 from {@link #wrist}.
+	 *
+	 * @param gc4 sign of A4
+	 * @return false if the wrist is out of reach
+	 */
+	private boolean referencePlane(double gc4) {
+		double x = wrist[0], y = wrist[1], z = wrist[2];
+		double lengthSquared = x * x + y * y + z * z;
+		double length = Math.sqrt(lengthSquared);
+		double se = shoulderElbow;
+		double ew = elbowWrist;
+		double cosElbow = (lengthSquared - se * se - ew * ew) / (2 * se * ew);
+		if (cosElbow > 1 + 1e-9 || cosElbow < -1 - 1e-9 || length == 0) {
+			return false;
+		}
+		elbow = Math.acos(clamp(cosElbow));
+		axis[0] = x / length;
+		axis[1] = y / length;
+		axis[2] = z / length;
+		double shoulder = Math.acos(clamp((se * se + lengthSquared - ew * ew) / (2 * se * length)));
+		double q1 = Math.atan2(y, x);
+		double q2 = Math.atan2(Math.sqrt(x * x + y * y), z) + gc4 * shoulder;
+		rotation03(q1, q2, 0, reference);
+		return true;
+	}
+
+	/**
+	 * Rotation of the frame after A3 relative to the root frame.
+	 */
+	private static void rotation03(double q1, double q2, double q3, double[] rotation) {
+		double c1 = Math.cos(q1), s1 = Math.sin(q1);
+		double c2 = Math.cos(q2), s2 = Math.sin(q2);
+		double c3 = Math.cos(q3), s3 = Math.sin(q3);
+		rotation[0] = c1 * c2 * c3 - s1 * s3;
+		rotation[1] = c1 * s2;
+		rotation[2] = c1 * c2 * s3 + s1 * c3;
+		rotation[3] = s1 * c2 * c3 + c1 * s3;
+		rotation[4] = s1 * s2;
+		rotation[5] = s1 * c2 * s3 - c1 * c3;
+		rotation[6] = -s2 * c3;
+		rotation[7] = c2;
+		rotation[8] = -s2 * s3;
+	}
+
+	private static double clamp(double value) {
+		return value > 1 ? 1 : value < -1 ? -1 : value;
+	}
+}
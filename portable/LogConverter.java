@@ -0,0 +1,312 @@
+package deliaApplication;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts recordings into the columnar format of {@link ColumnarLogWriter}.
+ * <p>
+ * Usage: {@code LogConverter <file or directory>...}. A text log, as written by the
+ * DataRecorder or the {@link SimulatedCell}, is converted into a file of the same name
+ * with the extension {@code .clg}. A directory is treated as the output of a
+ * {@link StreamingRecorder} and all its segments, compressed or not, are converted into
+ * one file per recording name. Other files in the directory are reported as skipped,
+ * except for the results of earlier conversions.
+ * <p>
+ * With {@code -z}, or {@code -z<resolution>} to round the values, the results are
+ * written compressed by a {@link CompressedLogWriter} with the extension {@code .glg}
+ * instead, for archiving. A compressed log given as a file is decompressed into a
+ * {@code .clg} for the analysis tools.
+ * <p>
+ * Text logs are read line by line: the last line of non-numeric tokens before the data
+ * provides the column names, the first column is the time [ms] and values may be
+ * separated by tabs, blanks or semicolons. With semicolons, a comma is read as the
+ * decimal separator.
+ */
+public class LogConverter {
+
+	private static final Pattern segmentName = Pattern.compile("(.+)_\\d{6,}\\.(seg|glg)");
+
+	public static void main(String[] args) throws IOException {
+		boolean compress = false;
+		double resolution = 0;
+		for (String arg : args) {
+			if (arg.startsWith("-z")) {
+				compress = true;
+				resolution = arg.length() > 2 ? Double.parseDouble(arg.substring(2)) : 0;
+				continue;
+			}
+			File source = new File(arg);
+			if (source.isDirectory()) {
+				List<File> segments = new ArrayList<File>();
+				File[] files = source.listFiles();
+				Arrays.sort(files);
+				for (File file : files) {
+					if (recordingName(file) != null) {
+						segments.add(file);
+					} else if (!isConverted(file)) {
+						System.err.println("Skipped " + file + ", not a segment");
+					}
+				}
+				String recording = null;
+				int first = 0;
+				for (int i = 0; i <= segments.size(); i++) {
+					String name = i < segments.size() ? recordingName(segments.get(i)) : null;
+					if (recording != null && !recording.equals(name)) {
+						File target = new File(source, recording + ".clg");
+						List<File> parts = segments.subList(first, i);
+						convertSegments(parts.toArray(new File[parts.size()]), target);
+						System.out.println(compress ? compress(target, resolution) : target);
+					}
+					if (name != null && !name.equals(recording)) {
+						first = i;
+					}
+					recording = name;
+				}
+			} else {
+				String name = source.getName();
+				int dot = name.lastIndexOf('.');
+				File target = new File(source.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".clg");
+				if (name.endsWith(".glg")) {
+					decompress(source, target);
+					System.out.println(target);
+					continue;
+				}
+				convertText(source, target);
+				if (compress) {
+					File archived = compress(target, resolution);
+					System.out.println(String.format("%s, %.1f %% of %s", archived,
+							100.0 * archived.length() / source.length(), name));
+				} else {
+					System.out.println(target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces a columnar log by a compressed one of the same name. The columnar log is
+	 * deleted, on Windows only on exit as it is still mapped.
+	 *
+	 * @param resolution values are rounded to the power of two at or below it, 0 keeps them exact
+	 * @return the compressed log
+	 */
+	public static File compress(File columnar, double resolution) throws IOException {
+		String name = columnar.getName();
+		File target = new File(columnar.getParentFile(), name.substring(0, name.length() - 4) + ".glg");
+		ColumnarLogReader in = new ColumnarLogReader(columnar);
+		String[] names = new String[in.getColumnCount()];
+		for (int c = 0; c < names.length; c++) {
+			names[c] = in.getColumnName(c);
+		}
+		CompressedLogWriter out = new CompressedLogWriter(target, names, in.getBlockRows(), resolution);
+		try {
+			double[] row = new double[names.length];
+			for (long r = 0; r < in.getRowCount(); r++) {
+				for (int c = 0; c < row.length; c++) {
+					row[c] = in.getValue(r, c);
+				}
+				out.append(in.getTime(r), row);
+			}
+		} finally {
+			out.close();
+		}
+		if (!columnar.delete()) {
+			columnar.deleteOnExit();
+		}
+		return target;
+	}
+
+	/**
+	 * Writes a compressed log as a columnar log.
+	 */
+	public static void decompress(File compressed, File target) throws IOException {
+		CompressedLogReader in = new CompressedLogReader(compressed);
+		String[] names = new String[in.getColumnCount()];
+		for (int c = 0; c < names.length; c++) {
+			names[c] = in.getColumnName(c);
+		}
+		ColumnarLogWriter out = new ColumnarLogWriter(target, names, in.getBlockRows());
+		try {
+			double[] row = new double[names.length];
+			for (long r = 0; r < in.getRowCount(); r++) {
+				for (int c = 0; c < row.length; c++) {
+					row[c] = in.getValue(r, c);
+				}
+				out.append(in.getTime(r), row);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Converts a text log.
+	 */
+	public static void convertText(File log, File target) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"));
+		ColumnarLogWriter out = null;
+		try {
+			String[] header = null;
+			double[] row = null;
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				boolean semicolons = line.indexOf(';') >= 0;
+				String[] tokens = line.split(semicolons ? "\\s*;\\s*" : "\\s+");
+				if (!isNumeric(tokens, semicolons)) {
+					if (out == null) {
+						header = tokens;
+					}
+					continue;
+				}
+				if (out == null) {
+					String[] names = new String[tokens.length - 1];
+					for (int i = 0; i < names.length; i++) {
+						names[i] = header != null && header.length == tokens.length ? header[i + 1] : "C" + (i + 1);
+					}
+					out = new ColumnarLogWriter(target, names);
+					row = new double[names.length];
+				}
+				if (tokens.length - 1 != row.length) {
+					continue;
+				}
+				for (int i = 0; i < row.length; i++) {
+					row[i] = parse(tokens[i + 1], semicolons);
+				}
+				out.append(Math.round(parse(tokens[0], semicolons) * 1e6), row);
+			}
+			if (out == null) {
+				throw new IOException(log + " contains no data");
+			}
+		} finally {
+			in.close();
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Converts the segments of one {@link StreamingRecorder} recording, in the given order.
+	 * Compressed segments, {@code .glg}, are read with the {@link CompressedLogReader}.
+	 */
+	public static void convertSegments(File[] segments, File target) throws IOException {
+		ColumnarLogWriter out = null;
+		try {
+			double[] row = null;
+			for (File segment : segments) {
+				if (segment.getName().endsWith(".glg")) {
+					CompressedLogReader in = new CompressedLogReader(segment);
+					if (out == null) {
+						String[] names = new String[in.getColumnCount()];
+						for (int c = 0; c < names.length; c++) {
+							names[c] = in.getColumnName(c);
+						}
+						out = new ColumnarLogWriter(target, names);
+						row = new double[names.length];
+					}
+					if (in.getColumnCount() != row.length) {
+						throw new IOException(segment + " has other channels than " + segments[0]);
+					}
+					for (long r = 0; r < in.getRowCount(); r++) {
+						for (int c = 0; c < row.length; c++) {
+							row[c] = in.getValue(r, c);
+						}
+						out.append(in.getTime(r), row);
+					}
+					continue;
+				}
+				RandomAccessFile file = new RandomAccessFile(segment, "r");
+				MappedByteBuffer data;
+				try {
+					data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+				} finally {
+					file.close();
+				}
+				data.order(ByteOrder.LITTLE_ENDIAN);
+				if (data.getInt(0) != StreamingRecorder.magic || data.getInt(4) != StreamingRecorder.version) {
+					throw new IOException(segment + " is not a telemetry segment");
+				}
+				long records = data.getLong(StreamingRecorder.countOffset);
+				int width = data.getInt(16);
+				if (row != null && width != row.length) {
+					throw new IOException(segment + " has other channels than " + segments[0]);
+				}
+				if (out == null) {
+					int channels = data.getInt(20);
+					String[] names = new String[width];
+					int column = 0;
+					for (int i = 0; i < channels; i++) {
+						Channel channel = Channel.values()[data.getInt(24 + 4 * i)];
+						for (int k = 0; k < channel.getWidth(); k++) {
+							names[column++] = channel.columnName(k);
+						}
+					}
+					out = new ColumnarLogWriter(target, names);
+					row = new double[width];
+				}
+				int position = StreamingRecorder.headerSize;
+				for (long r = 0; r < records; r++) {
+					long time = data.getLong(position);
+					for (int i = 0; i < width; i++) {
+						row[i] = data.getDouble(position + 8 + 8 * i);
+					}
+					out.append(time, row);
+					position += 8 + 8 * width;
+				}
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the recording of a segment {@code <name>_<n>.seg} or {@code <name>_<n>.glg},
+	 *         {@code null} for any other file
+	 */
+	private static String recordingName(File segment) {
+		Matcher matcher = segmentName.matcher(segment.getName());
+		return matcher.matches() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * @return whether the file is the result of converting a recording
+	 */
+	private static boolean isConverted(File file) {
+		String name = file.getName();
+		return name.endsWith(".clg") || name.endsWith(".glg");
+	}
+
+	private static boolean isNumeric(String[] tokens, boolean decimalComma) {
+		try {
+			for (String token : tokens) {
+				parse(token, decimalComma);
+			}
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static double parse(String token, boolean decimalComma) {
+		return Double.parseDouble(decimalComma ? token.replace(',', '.') : token);
+	}
+}
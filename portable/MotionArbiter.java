@@ -0,0 +1,326 @@
+package deliaApplication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single owner of the motions sent to a cell, so that condition events can pre-empt
+ * the running motion without moving the arm from inside the observer callback.
+ * <p>
+ * The arbiter wraps a {@link RobotCell} and keeps track of every motion the program
+ * sends through it. Listeners created with {@link #reactWith(Segment, String)} only
+ * count the event and put it into a queue, so the observer loop calling them is never
+ * held up by the controller. A dispatcher thread of the arbiter drains the queue: it
+ * cancels every running motion and queues the reaction with {@link RobotCell#moveAsync},
+ * neither of which waits for the arm. Motions the program sends between the event and
+ * the reaction being queued are pre-empted as well and never reach the cell; the
+ * program can tell from {@link #getReactionCount()} that it has to skip the rest of its
+ * approach. The time from the condition firing to the reaction being queued is
+ * recorded for every event. {@link #close()} stops the dispatcher.
+ */
+public class MotionArbiter implements RobotCell {
+
+	private static final int maxLatencies = 1024;
+	private static final MotionHandle preempted = new MotionHandle() {
+
+		@Override
+		public void await() {
+		}
+
+		@Override
+		public void cancel() {
+		}
+
+		@Override
+		public boolean isFinished() {
+			return true;
+		}
+	};
+
+	private final RobotCell cell;
+	private final List<MotionHandle> running = new ArrayList<MotionHandle>();
+	private final ArrayDeque<Event> events = new ArrayDeque<Event>();
+	private Thread dispatcher;
+	private final long[] latencies = new long[maxLatencies];
+	private int reactions;
+	private int missedEvents;
+	private boolean reacting;
+	private MotionHandle reaction;
+
+	public MotionArbiter(RobotCell cell) {
+		this.cell = cell;
+	}
+
+	/**
+	 * Creates a listener which pre-empts the running motions and moves to the
+	 * reaction segment. Events arriving while a reaction is still running are counted
+	 * as missed.
+	 *
+	 * @param message logged when the reaction is queued
+	 */
+	public synchronized Reaction reactWith(Segment segment, String message) {
+		if (dispatcher == null) {
+			dispatcher = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					drain();
+				}
+			}, "MotionArbiter");
+			dispatcher.setDaemon(true);
+			dispatcher.setPriority(Thread.MAX_PRIORITY);
+			dispatcher.start();
+		}
+		return new Reaction(segment, message);
+	}
+
+	/**
+	 * Queues the reactions still pending and stops the dispatcher thread, events arriving
+	 * afterwards are counted as missed.
+	 */
+	public void close() {
+		Thread stopped;
+		synchronized (this) {
+			stopped = dispatcher;
+			dispatcher = null;
+			notifyAll();
+		}
+		if (stopped == null) {
+			return;
+		}
+		try {
+			stopped.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the last reaction has finished, returns at once if there was none.
+	 */
+	public void awaitReaction() {
+		MotionHandle handle;
+		synchronized (this) {
+			while (reacting) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			handle = reaction;
+		}
+		if (handle != null) {
+			handle.await();
+		}
+	}
+
+	/**
+	 * @return contact to reaction latencies of the most recent events [ns], oldest first
+	 */
+	public synchronized long[] getLatencies() {
+		if (reactions <= maxLatencies) {
+			return Arrays.copyOf(latencies, reactions);
+		}
+		long[] copy = new long[maxLatencies];
+		int oldest = reactions % maxLatencies;
+		System.arraycopy(latencies, oldest, copy, 0, maxLatencies - oldest);
+		System.arraycopy(latencies, 0, copy, maxLatencies - oldest, oldest);
+		return copy;
+	}
+
+	/**
+	 * @return number of events accepted so far, including a reaction not yet queued
+	 */
+	public synchronized int getReactionCount() {
+		return reactions;
+	}
+
+	/**
+	 * @return events missed by the observer or ignored because a reaction was running
+	 */
+	public synchronized int getMissedEvents() {
+		return missedEvents;
+	}
+
+	@Override
+	public void prepare(Segment segment) {
+		cell.prepare(segment);
+	}
+
+	@Override
+	public void move(Segment segment) {
+		MotionHandle handle = moveAsync(segment);
+		handle.await();
+		synchronized (this) {
+			running.remove(handle);
+		}
+	}
+
+	@Override
+	public synchronized MotionHandle moveAsync(Segment segment) {
+		return reacting ? preempted : track(cell.moveAsync(segment));
+	}
+
+	@Override
+	public synchronized MotionHandle holdPosition(Impedance mode) {
+		return reacting ? preempted : track(cell.holdPosition(mode));
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, ForceListener listener) {
+		return cell.watchForce(threshold, listener);
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		return cell.createRecorder(name, timeout, unit, sampleInterval);
+	}
+
+	@Override
+	public ScheduledTask schedule(Runnable task, long period, TimeUnit unit) {
+		return cell.schedule(task, period, unit);
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		cell.read(channel, values, offset);
+	}
+
+	@Override
+	public void displayDialog(String message) {
+		cell.displayDialog(message);
+	}
+
+	@Override
+	public void log(String message) {
+		cell.log(message);
+	}
+
+	@Override
+	public long nanoTime() {
+		return cell.nanoTime();
+	}
+
+	private MotionHandle track(MotionHandle handle) {
+		for (int i = running.size() - 1; i >= 0; i--) {
+			if (running.get(i).isFinished()) {
+				running.remove(i);
+			}
+		}
+		running.add(handle);
+		return handle;
+	}
+
+	/**
+	 * Decides on the observer thread whether the event is a reaction or missed, so that
+	 * the program sees the reaction counted before it sends its next motion.
+	 */
+	private synchronized void post(long time, int missed, Segment segment, String message) {
+		missedEvents += missed;
+		if (dispatcher == null || reacting || reaction != null && !reaction.isFinished()) {
+			missedEvents++;
+			return;
+		}
+		reacting = true;
+		events.add(new Event(time, reactions++ % maxLatencies, segment, message));
+		notifyAll();
+	}
+
+	/**
+	 * Dispatcher loop, queues the reactions until the arbiter is closed.
+	 */
+	private void drain() {
+		while (true) {
+			Event event;
+			synchronized (this) {
+				while (events.isEmpty() && dispatcher == Thread.currentThread()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				event = events.poll();
+			}
+			if (event == null) {
+				return;
+			}
+			try {
+				dispatch(event);
+			} catch (RuntimeException e) {
+				cell.log("Reaction failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Takes the running motions under the lock and talks to the cell outside it, so the
+	 * program is not held up by the calls to the controller.
+	 */
+	private void dispatch(Event event) {
+		MotionHandle[] cancelled;
+		synchronized (this) {
+			cancelled = running.toArray(new MotionHandle[running.size()]);
+			running.clear();
+		}
+		MotionHandle handle = null;
+		try {
+			for (MotionHandle motion : cancelled) {
+				motion.cancel();
+			}
+			handle = cell.moveAsync(event.reaction);
+		} finally {
+			long latency = cell.nanoTime() - event.time;
+			synchronized (this) {
+				latencies[event.index] = latency;
+				reaction = handle == null ? null : track(handle);
+				reacting = false;
+				notifyAll();
+			}
+		}
+		cell.log(event.message);
+	}
+
+	/**
+	 * Listener posting its reaction to the arbiter. The reaction segment can be changed
+	 * between motions, so one force watch serves a whole batch.
+	 */
+	public class Reaction implements ForceListener {
+
+		private final String message;
+		private volatile Segment segment;
+
+		Reaction(Segment segment, String message) {
+			this.segment = segment;
+			this.message = message;
+		}
+
+		public void setSegment(Segment segment) {
+			this.segment = segment;
+		}
+
+		@Override
+		public void onForce(long time, int missed) {
+			post(time, missed, segment, message);
+		}
+	}
+
+	private static class Event {
+		final long time;
+		final int index;
+		final Segment reaction;
+		final String message;
+
+		Event(long time, int index, Segment reaction, String message) {
+			this.time = time;
+			this.index = index;
+			this.reaction = reaction;
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package deliaApplication;
+
+/**
+ * Handle to a motion which has been sent to a {@link RobotCell}.
+ */
+public interface MotionHandle {
+
+	/**
+	 * Waits until the motion has finished or has been cancelled.
+	 */
+	void await();
+
+	/**
+	 * Cancels the motion, the arm stops where it currently is.
+	 */
+	void cancel();
+
+	boolean isFinished();
+}
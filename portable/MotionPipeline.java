@@ -0,0 +1,63 @@
+package deliaApplication;
+
+/**
+ * Queues point-to-point motions on the controller so that consecutive via-points
+ * are blended instead of each one ending in an exact stop.
+ * <p>
+ * Via-points are sent with {@link RobotCell#moveAsync} and approximate positioning, so
+ * the next motion is already planned while the previous one is still running.
+ * Contact poses are sent with {@link #stopAt(Segment)}, which clears the blending and
+ * waits until the arm has come to rest exactly on the pose.
+ * <p>
+ * A pipeline created with a blending parameter of zero falls back to one blocking
+ * {@link RobotCell#move} per motion, which is the behaviour of the original sequence.
+ */
+public class MotionPipeline {
+
+	private final RobotCell cell;
+	private final double blendingRel;
+	private MotionHandle last;
+
+	/**
+	 * @param cell the cell executing the motions
+	 * @param blendingRel relative blending used for via-points, 0 disables blending
+	 */
+	public MotionPipeline(RobotCell cell, double blendingRel) {
+		this.cell = cell;
+		this.blendingRel = blendingRel;
+	}
+
+	/**
+	 * Queues a via-point. Returns immediately when blending is enabled.
+	 */
+	public void via(Segment motion) {
+		if (blendingRel <= 0) {
+			cell.move(motion);
+			return;
+		}
+		last = cell.moveAsync(motion.setBlendingRel(blendingRel));
+	}
+
+	/**
+	 * Queues a motion that has to end exactly on its target and waits until every
+	 * queued motion, including this one, has finished.
+	 */
+	public void stopAt(Segment motion) {
+		if (blendingRel <= 0) {
+			cell.move(motion);
+			return;
+		}
+		last = cell.moveAsync(motion.setBlendingRel(0));
+		await();
+	}
+
+	/**
+	 * Waits until every motion queued so far has finished.
+	 */
+	public void await() {
+		if (last != null) {
+			last.await();
+			last = null;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package deliaApplication;
+
+/**
+ * Plans the segments of a program before the arm moves.
+ * <p>
+ * Segments are planned in the order they will be executed, each starting where the
+ * previous one ends. Planning a segment validates it against the
+ * {@link LbrKinematics} model and then lets the cell prepare its motion with
+ * {@link RobotCell#prepare(Segment)}, so the run only dispatches ready-made motions
+ * and a bad pose stops the program before its first move instead of halfway through.
+ * <p>
+ * A point-to-point motion interpolates in joint space, so its target has to be within
+ * the joint limits. A Cartesian spline is followed in steps of {@value #step} mm with
+ * the orientation, arm angle and status of its start, like the controller does, and
+ * every step has to be reachable and within the joint limits. Targets and steps must
+ * keep a distance from the elbow (A4 stretched), wrist (A5 and A7 aligned) and shoulder
+ * (wrist centre on the A1 axis) singularities.
+ */
+public class MotionPlanner {
+
+	/**
+	 * Joint limits of the LBR iiwa 14 R820 [rad].
+	 */
+	public static final double[] jointLimits = {Math.toRadians(170), Math.toRadians(120), Math.toRadians(170),
+			Math.toRadians(120), Math.toRadians(170), Math.toRadians(120), Math.toRadians(175)};
+
+	private static final double step = 5; // mm
+	private static final double jointMargin = Math.toRadians(5); // from A4 = 0 and A6 = 0
+	private static final double shoulderMargin = 50; // mm of the wrist centre from the A1 axis
+	private static final double wristFlange = 126; // mm
+
+	private final RobotCell cell;
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+	private final double[] checked = new double[LbrKinematics.poseSize];
+	private final double[] previous = new double[7];
+	private double[] joints;
+
+	/**
+	 * @param start joint configuration the first segment starts from [rad], {@code null}
+	 *            if unknown, in which case the first segment has to be a point-to-point motion
+	 */
+	public MotionPlanner(RobotCell cell, double[] start) {
+		this.cell = cell;
+		this.joints = start == null ? null : start.clone();
+	}
+
+	/**
+	 * Plans the segment from where the previously planned segment ends.
+	 * <p>
+	 * A spline marked as {@link Segment#isTaught() taught} has its points in the world
+	 * frame of the station, which the kinematic model can only approximate by the robot
+	 * root. It is validated when its start is known, but one the model cannot follow is
+	 * reported to the log instead of refused, and the cell builds it from the live flange
+	 * when it is sent, as the programs did before planning. Segments planned afterwards
+	 * start from an unknown configuration in that case.
+	 *
+	 * @return the segment
+	 * @throws IllegalArgumentException if the segment cannot be executed from there
+	 */
+	public Segment plan(Segment segment) {
+		if (!segment.isTaught()) {
+			joints = validate(segment, joints);
+		} else if (joints != null) {
+			try {
+				joints = validate(segment, joints);
+			} catch (IllegalArgumentException e) {
+				cell.log("Not validated: " + e.getMessage());
+				segment.setStartJoints(null);
+				joints = null;
+			}
+		}
+		cell.prepare(segment);
+		return segment;
+	}
+
+	/**
+	 * Plans a segment which starts elsewhere, e.g. a retry or a reaction. Segments planned
+	 * afterwards continue from its end.
+	 */
+	public Segment plan(Segment segment, double[] start) {
+		joints = start == null ? null : start.clone();
+		return plan(segment);
+	}
+
+	/**
+	 * @return joint configuration at the end of the last planned segment [rad]
+	 */
+	public double[] getJoints() {
+		return joints == null ? null : joints.clone();
+	}
+
+	/**
+	 * @return joint configuration at the end of the segment
+	 */
+	private double[] validate(Segment segment, double[] start) {
+		if (!segment.isCartesian()) {
+			double[] target = segment.getJoints();
+			check(segment, target);
+			return target.clone();
+		}
+		if (start == null) {
+			throw new IllegalArgumentException(name(segment) + " is a spline with an unknown start");
+		}
+		segment.setStartJoints(start.clone());
+		double[] current = start.clone();
+		kinematics.forward(start, pose);
+		double armAngle = kinematics.armAngle(start);
+		int status = LbrKinematics.status(start);
+		double[] from = {pose[0], pose[1], pose[2]};
+		for (double[] point : segment.getPath()) {
+			double[] to = new double[3];
+			double length = 0;
+			for (int k = 0; k < 3; k++) {
+				to[k] = Double.isNaN(point[k]) ? from[k] : point[k];
+				length += (to[k] - from[k]) * (to[k] - from[k]);
+			}
+			int steps = Math.max(1, (int) Math.ceil(Math.sqrt(length) / step));
+			for (int i = 1; i <= steps; i++) {
+				double f = (double) i / steps;
+				for (int k = 0; k < 3; k++) {
+					pose[k] = from[k] + f * (to[k] - from[k]);
+				}
+				System.arraycopy(current, 0, previous, 0, 7);
+				if (!kinematics.inverse(pose, armAngle, status, current)) {
+					throw new IllegalArgumentException(String.format("%s: %.1f, %.1f, %.1f is out of reach",
+							name(segment), pose[0], pose[1], pose[2]));
+				}
+				closest(previous, current);
+				check(segment, current);
+			}
+			from = to;
+		}
+		return current;
+	}
+
+	/**
+	 * Where the elbow passes over the A1 axis the solution may jump to the same pose with
+	 * A1 and A3 turned by half a turn and A2 mirrored; keeps whichever is closer to the
+	 * previous step.
+	 */
+	private static void closest(double[] previous, double[] joints) {
+		double q1 = wrap(joints[0] + Math.PI);
+		double q3 = wrap(joints[2] + Math.PI);
+		double direct = square(wrap(joints[0] - previous[0])) + square(joints[1] - previous[1])
+				+ square(wrap(joints[2] - previous[2]));
+		double mirrored = square(wrap(q1 - previous[0])) + square(-joints[1] - previous[1])
+				+ square(wrap(q3 - previous[2]));
+		if (mirrored < direct) {
+			joints[0] = q1;
+			joints[1] = -joints[1];
+			joints[2] = q3;
+		}
+	}
+
+	private static double wrap(double angle) {
+		return Math.atan2(Math.sin(angle), Math.cos(angle));
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+
+	private void check(Segment segment, double[] joints) {
+		for (int j = 0; j < 7; j++) {
+			if (Math.abs(joints[j]) > jointLimits[j] + 1e-9) {
+				throw new IllegalArgumentException(String.format("%s: A%d at %.2f deg exceeds the limit of %.0f deg",
+						name(segment), j + 1, Math.toDegrees(joints[j]), Math.toDegrees(jointLimits[j])));
+			}
+		}
+		if (Math.abs(Math.sin(joints[3])) < Math.sin(jointMargin)) {
+			throw new IllegalArgumentException(String.format("%s: A4 at %.2f deg is close to the elbow singularity",
+					name(segment), Math.toDegrees(joints[3])));
+		}
+		if (Math.abs(Math.sin(joints[5])) < Math.sin(jointMargin)) {
+			throw new IllegalArgumentException(String.format("%s: A6 at %.2f deg is close to the wrist singularity",
+					name(segment), Math.toDegrees(joints[5])));
+		}
+		kinematics.forward(joints, checked);
+		double x = checked[0] - wristFlange * checked[5];
+		double y = checked[1] - wristFlange * checked[8];
+		if (x * x + y * y < shoulderMargin * shoulderMargin) {
+			throw new IllegalArgumentException(String.format("%s: the wrist centre is %.0f mm from the A1 axis",
+					name(segment), Math.sqrt(x * x + y * y)));
+		}
+	}
+
+	private static String name(Segment segment) {
+		return segment.getName() == null ? "Segment" : "Segment " + segment.getName();
+	}
+}
@@ -0,0 +1,425 @@
+package deliaApplication;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches any number of conditions on one event loop instead of one observer per
+ * condition.
+ * <p>
+ * A single task scheduled on the cell, every millisecond by default, reads each channel
+ * the enabled conditions need once and evaluates the conditions in the order they were
+ * registered. A rising edge, or a condition which already holds when its watch is
+ * enabled, is put into a fixed ring of events. Once every condition has been evaluated,
+ * the loop hands the events to the listeners in the order they were queued, for at most
+ * half a period, and leaves the rest to the next run, so a burst of events delays
+ * neither the evaluation nor the next sample. Neither side allocates per event. While an
+ * event of a watch is queued, further edges of that watch are counted and passed to its
+ * call as missed events, like the condition observers of the controller do.
+ * <p>
+ * Like with a {@link ContactDetector}, listeners run on the thread of the loop and have
+ * to return quickly, e.g. by handing the event to a {@link MotionArbiter}, which also
+ * keeps the order and timing deterministic in the {@link SimulatedCell}. The time from
+ * an edge to its listener being called and the time the loop takes are kept in
+ * histograms. The Java 8 runtime of the controller has no virtual threads; one loop
+ * serves every condition instead.
+ */
+public class ObserverHub {
+
+	private static final int maxWatches = 64; // also the size of the ring, a watch has at most one event queued
+	private static final Channel[] channels = Channel.values();
+
+	private final RobotCell cell;
+	private final long period;
+	private final double[][] buffers = new double[channels.length][];
+	private volatile Watch[] watches = new Watch[0];
+
+	// owned by the loop: events queued per watch, edges missed per watch and the ring of events
+	private final boolean[] queued = new boolean[maxWatches];
+	private final int[] missed = new int[maxWatches];
+	private final int[] eventWatches = new int[maxWatches];
+	private final long[] eventTimes = new long[maxWatches];
+	private volatile long published;
+	private volatile long consumed;
+	private volatile long missedTotal;
+
+	private final Histogram dispatchLatency = new Histogram();
+	private final Histogram loopTime = new Histogram();
+	private ScheduledTask loop;
+
+	/**
+	 * A condition on the channels of the cell, evaluated by the loop of a hub.
+	 */
+	public abstract static class Condition {
+
+		private final Channel channel;
+
+		/**
+		 * @param channel the channel the condition reads, {@code null} for none
+		 */
+		protected Condition(Channel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Called when the watch is enabled, before the first evaluation.
+		 */
+		protected void reset() {
+		}
+
+		/**
+		 * Evaluated on the loop of the hub, must not block or allocate.
+		 *
+		 * @param values current values of the channel, {@code null} without a channel
+		 * @param time time of the cell [ns]
+		 * @param elapsed time since the watch was enabled [ns]
+		 */
+		protected abstract boolean holds(double[] values, long time, long elapsed);
+	}
+
+	public ObserverHub(RobotCell cell) {
+		this(cell, 1, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param period period of the loop
+	 */
+	public ObserverHub(RobotCell cell, long period, TimeUnit unit) {
+		this.cell = cell;
+		this.period = unit.toNanos(period);
+	}
+
+	/**
+	 * The force along one axis of the root frame reaches the threshold in either direction.
+	 *
+	 * @param axis 0 to 2 for x, y and z
+	 */
+	public static Condition force(final int axis, final double threshold) {
+		return new Condition(Channel.CARTESIAN_FORCE) {
+
+			@Override
+			protected boolean holds(double[] force, long time, long elapsed) {
+				return Math.abs(force[axis]) >= threshold;
+			}
+		};
+	}
+
+	/**
+	 * The force along a direction in the root frame reaches the threshold in either direction.
+	 */
+	public static Condition forceAlong(double[] direction, final double threshold) {
+		double length = Math.sqrt(direction[0] * direction[0] + direction[1] * direction[1] + direction[2] * direction[2]);
+		final double x = direction[0] / length;
+		final double y = direction[1] / length;
+		final double z = direction[2] / length;
+		return new Condition(Channel.CARTESIAN_FORCE) {
+
+			@Override
+			protected boolean holds(double[] force, long time, long elapsed) {
+				return Math.abs(force[0] * x + force[1] * y + force[2] * z) >= threshold;
+			}
+		};
+	}
+
+	/**
+	 * The magnitude of the force reaches the threshold, like
+	 * {@link RobotCell#watchForce(double, ForceListener)}.
+	 */
+	public static Condition forceMagnitude(final double threshold) {
+		return new Condition(Channel.CARTESIAN_FORCE) {
+
+			@Override
+			protected boolean holds(double[] force, long time, long elapsed) {
+				return force[0] * force[0] + force[1] * force[1] + force[2] * force[2] >= threshold * threshold;
+			}
+		};
+	}
+
+	/**
+	 * The external torque of one joint reaches the limit in either direction.
+	 *
+	 * @param joint 0 to 6 for A1 to A7
+	 * @param limit [Nm]
+	 */
+	public static Condition jointTorque(final int joint, final double limit) {
+		return new Condition(Channel.EXTERNAL_JOINT_TORQUE) {
+
+			@Override
+			protected boolean holds(double[] torque, long time, long elapsed) {
+				return Math.abs(torque[joint]) >= limit;
+			}
+		};
+	}
+
+	/**
+	 * The flange is outside a box in the root frame.
+	 *
+	 * @param min lower corner [mm]
+	 * @param max upper corner [mm]
+	 */
+	public static Condition outside(double[] min, double[] max) {
+		final double[] low = min.clone();
+		final double[] high = max.clone();
+		return new Condition(Channel.CURRENT_XYZ) {
+
+			@Override
+			protected boolean holds(double[] xyz, long time, long elapsed) {
+				for (int k = 0; k < 3; k++) {
+					if (xyz[k] < low[k] || xyz[k] > high[k]) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The flange is inside a box in the root frame.
+	 *
+	 * @param min lower corner [mm]
+	 * @param max upper corner [mm]
+	 */
+	public static Condition inside(double[] min, double[] max) {
+		final Condition outside = outside(min, max);
+		return new Condition(Channel.CURRENT_XYZ) {
+
+			@Override
+			protected boolean holds(double[] xyz, long time, long elapsed) {
+				return !outside.holds(xyz, time, elapsed);
+			}
+		};
+	}
+
+	/**
+	 * The given time has passed since the watch was enabled.
+	 */
+	public static Condition timeout(long timeout, TimeUnit unit) {
+		final long nanos = unit.toNanos(timeout);
+		return new Condition(null) {
+
+			@Override
+			protected boolean holds(double[] values, long time, long elapsed) {
+				return elapsed >= nanos;
+			}
+		};
+	}
+
+	/**
+	 * The contact detector is in contact. Enabling the watch resets the detector, which is
+	 * fed every sample of the loop.
+	 */
+	public static Condition contact(final ContactDetector detector) {
+		return new Condition(Channel.CARTESIAN_FORCE) {
+
+			@Override
+			protected void reset() {
+				detector.reset();
+			}
+
+			@Override
+			protected boolean holds(double[] force, long time, long elapsed) {
+				detector.update(time, force[0], force[1], force[2]);
+				return detector.isInContact();
+			}
+		};
+	}
+
+	/**
+	 * Registers a condition, disabled. The listener is called on the thread of the loop
+	 * with the time of the rising edge and the edges missed since its previous call.
+	 */
+	public synchronized ForceWatch watch(Condition condition, ForceListener listener) {
+		if (watches.length == maxWatches) {
+			throw new IllegalStateException("At most " + maxWatches + " conditions can be watched");
+		}
+		Watch watch = new Watch(watches.length, condition, listener);
+		if (condition.channel != null && buffers[condition.channel.ordinal()] == null) {
+			buffers[condition.channel.ordinal()] = new double[condition.channel.getWidth()];
+		}
+		Watch[] grown = Arrays.copyOf(watches, watches.length + 1);
+		grown[watch.index] = watch;
+		watches = grown;
+		return watch;
+	}
+
+	/**
+	 * Starts the loop.
+	 */
+	public synchronized void start() {
+		if (loop == null) {
+			loop = cell.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					evaluate();
+				}
+			}, period, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops the loop, events still queued are counted as missed.
+	 */
+	public synchronized void close() {
+		if (loop != null) {
+			loop.cancel();
+			loop = null;
+		}
+	}
+
+	/**
+	 * @return rising edges which were not handed to a listener of their own, after
+	 *         {@link #close()} including those left in the ring
+	 */
+	public synchronized long getMissedEvents() {
+		return loop == null ? missedTotal + published - consumed : missedTotal;
+	}
+
+	/**
+	 * @return time from a rising edge to the call of its listener [ns], on the clock of the cell
+	 */
+	public long getDispatchLatency(double percentile) {
+		synchronized (dispatchLatency) {
+			return dispatchLatency.getPercentile(percentile);
+		}
+	}
+
+	/**
+	 * @return time one run of the loop takes to read the channels, evaluate every
+	 *         condition and call the listeners [ns], on the clock of the host
+	 */
+	public long getLoopTime(double percentile) {
+		synchronized (loopTime) {
+			return loopTime.getPercentile(percentile);
+		}
+	}
+
+	/**
+	 * @return e.g. "3 conditions, loop p99 12 us, dispatch p99 1000 us, 0 missed"
+	 */
+	public String describe() {
+		return String.format("%d conditions, loop p99 %d us, dispatch p99 %d us, %d missed", watches.length,
+				getLoopTime(99) / 1000, getDispatchLatency(99) / 1000, getMissedEvents());
+	}
+
+	/**
+	 * One run of the loop, on the thread the cell runs the loop on.
+	 */
+	private void evaluate() {
+		long start = System.nanoTime();
+		Watch[] current = watches;
+		long time = cell.nanoTime();
+		for (int c = 0; c < buffers.length; c++) {
+			if (buffers[c] != null && isRead(current, c)) {
+				cell.read(channels[c], buffers[c], 0);
+			}
+		}
+		for (Watch watch : current) {
+			if (!watch.enabled) {
+				watch.armed = false;
+				continue;
+			}
+			if (!watch.armed) {
+				watch.armed = true;
+				watch.enabledAt = time;
+				watch.holding = false;
+				watch.condition.reset();
+			}
+			Channel channel = watch.condition.channel;
+			boolean wasTrue = watch.holding;
+			watch.holding = watch.condition.holds(channel == null ? null : buffers[channel.ordinal()], time,
+					time - watch.enabledAt);
+			if (watch.holding && !wasTrue) {
+				publish(watch.index, time);
+			}
+		}
+		dispatch(current, start + period / 2);
+		synchronized (loopTime) {
+			loopTime.record(System.nanoTime() - start);
+		}
+	}
+
+	private static boolean isRead(Watch[] watches, int channel) {
+		for (Watch watch : watches) {
+			Channel needed = watch.condition.channel;
+			if (watch.enabled && needed != null && needed.ordinal() == channel) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Queues an event, or counts it as missed while the watch has one queued.
+	 */
+	private void publish(int watch, long time) {
+		if (queued[watch]) {
+			missed[watch]++;
+			missedTotal++;
+			return;
+		}
+		queued[watch] = true;
+		int slot = (int) (published % maxWatches);
+		eventWatches[slot] = watch;
+		eventTimes[slot] = time;
+		published++;
+	}
+
+	/**
+	 * Calls the listeners of the queued events in order, at least one and then until the
+	 * deadline passes.
+	 *
+	 * @param deadline on the clock of the host [ns]
+	 */
+	private void dispatch(Watch[] current, long deadline) {
+		while (consumed < published) {
+			int slot = (int) (consumed % maxWatches);
+			int index = eventWatches[slot];
+			long time = eventTimes[slot];
+			consumed++;
+			queued[index] = false;
+			int missedEvents = missed[index];
+			missed[index] = 0;
+			synchronized (dispatchLatency) {
+				dispatchLatency.record(cell.nanoTime() - time);
+			}
+			try {
+				current[index].listener.onForce(time, missedEvents);
+			} catch (RuntimeException e) {
+				cell.log("Listener of condition " + index + " failed: " + e);
+			}
+			if (System.nanoTime() - deadline > 0) {
+				return;
+			}
+		}
+	}
+
+	private static class Watch implements ForceWatch {
+
+		final int index;
+		final Condition condition;
+		final ForceListener listener;
+		volatile boolean enabled;
+		// owned by the loop
+		boolean armed;
+		boolean holding;
+		long enabledAt;
+
+		Watch(int index, Condition condition, ForceListener listener) {
+			this.index = index;
+			this.condition = condition;
+			this.listener = listener;
+		}
+
+		@Override
+		public void enable() {
+			enabled = true;
+		}
+
+		@Override
+		public void disable() {
+			enabled = false;
+		}
+	}
+}
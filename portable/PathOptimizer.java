@@ -0,0 +1,148 @@
+package deliaApplication;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shortens a taught sequence of point-to-point motions by merging via-points which
+ * hardly shape the path, and predicts the time gained before the arm moves.
+ * <p>
+ * A route is the list of segments of one leg of a program in the order they are
+ * executed. Segments are blended into their successor unless they end on a contact pose
+ * or the control mode changes, like a {@link MotionPipeline} sends them. Contact poses,
+ * the poses right before and after them (they set the direction in which the tool meets
+ * and leaves the workpiece) and stops for a change of control mode are kept. Any other
+ * via-point, including one repeating its predecessor, is merged into the motion to its
+ * successor if the flange path of the direct motion stays within the tolerance of the
+ * taught path. Taught clearance is therefore kept up to the tolerance.
+ * <p>
+ * Durations are predicted with the {@link SimulatedCell} model at the limits of the
+ * {@link VelocitySchedule}, which is applied again to a segment whose start has moved.
+ */
+public class PathOptimizer {
+
+	private static final int samples = 50; // per motion when comparing flange paths
+
+	private final double tolerance;
+	private final double blendingRel;
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] joints = new double[7];
+	private final double[] pose = new double[LbrKinematics.poseSize];
+
+	/**
+	 * @param tolerance largest distance of the merged flange path from the taught one [mm]
+	 * @param blendingRel relative blending of the via-points, as given to the pipeline
+	 */
+	public PathOptimizer(double tolerance, double blendingRel) {
+		this.tolerance = tolerance;
+		this.blendingRel = blendingRel;
+	}
+
+	/**
+	 * @param start joints at the start of the route [rad]
+	 * @param route point-to-point segments in the order they are executed
+	 * @param schedule limits of the segments, with the contact poses of the route
+	 * @return the segments which are kept, the limits of each applied for its new start
+	 */
+	public List<Segment> optimize(double[] start, List<Segment> route, VelocitySchedule schedule) {
+		List<Segment> kept = new ArrayList<Segment>(route.size());
+		double[] from = start;
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			Segment next = i + 1 < route.size() ? route.get(i + 1) : null;
+			Segment previous = i > 0 ? route.get(i - 1) : null;
+			if (next != null && mergeable(previous, segment, next)
+					&& deviation(from, segment.getJoints(), next.getJoints()) <= tolerance) {
+				continue;
+			}
+			kept.add(schedule.apply(segment, from));
+			from = segment.getJoints();
+		}
+		return kept;
+	}
+
+	/**
+	 * Predicts the route at the limits the segments have, apply the schedule first.
+	 *
+	 * @param start joints at the start of the route [rad]
+	 * @return time from the start of the first motion to the end of the last [ns]
+	 */
+	public long predict(double[] start, List<Segment> route) {
+		long time = 0;
+		double[] from = start;
+		for (int i = 0; i < route.size(); i++) {
+			Segment segment = route.get(i);
+			Segment next = i + 1 < route.size() ? route.get(i + 1) : null;
+			time += SimulatedCell.plannedBlendStart(segment, from,
+					next != null && blends(segment, next) ? blendingRel : 0);
+			from = segment.getJoints();
+		}
+		return time;
+	}
+
+	/**
+	 * @return whether the segment may be merged into the next, i.e. it neither touches a
+	 *         contact pose nor ends where the control mode changes
+	 */
+	private static boolean mergeable(Segment previous, Segment segment, Segment next) {
+		return !segment.isContact() && !next.isContact() && (previous == null || !previous.isContact())
+				&& segment.getMode() == next.getMode();
+	}
+
+	private static boolean blends(Segment segment, Segment next) {
+		return !segment.isContact() && segment.getMode() == next.getMode();
+	}
+
+	/**
+	 * @return largest distance of the flange on the direct motion from start to end to
+	 *         the flange path through the via-point [mm]
+	 */
+	private double deviation(double[] start, double[] via, double[] end) {
+		double[][] taught = new double[2 * samples + 1][];
+		for (int i = 0; i <= samples; i++) {
+			taught[i] = flange(start, via, (double) i / samples);
+			taught[samples + i] = flange(via, end, (double) i / samples);
+		}
+		double largest = 0;
+		for (int i = 0; i <= samples; i++) {
+			double[] point = flange(start, end, (double) i / samples);
+			double closest = Double.MAX_VALUE;
+			for (int k = 1; k < taught.length; k++) {
+				closest = Math.min(closest, distance(point, taught[k - 1], taught[k]));
+			}
+			largest = Math.max(largest, closest);
+		}
+		return largest;
+	}
+
+	/**
+	 * @return flange position at fraction s of a point-to-point motion, which moves all
+	 *         joints synchronously on a line in joint space
+	 */
+	private double[] flange(double[] from, double[] to, double s) {
+		for (int j = 0; j < 7; j++) {
+			joints[j] = from[j] + s * (to[j] - from[j]);
+		}
+		kinematics.forward(joints, pose);
+		return new double[]{pose[0], pose[1], pose[2]};
+	}
+
+	/**
+	 * @return distance of the point from the line segment between a and b
+	 */
+	private static double distance(double[] point, double[] a, double[] b) {
+		double length = 0;
+		double along = 0;
+		for (int k = 0; k < 3; k++) {
+			length += (b[k] - a[k]) * (b[k] - a[k]);
+			along += (point[k] - a[k]) * (b[k] - a[k]);
+		}
+		double f = length == 0 ? 0 : Math.max(0, Math.min(1, along / length));
+		double squared = 0;
+		for (int k = 0; k < 3; k++) {
+			double d = point[k] - a[k] - f * (b[k] - a[k]);
+			squared += d * d;
+		}
+		return Math.sqrt(squared);
+	}
+}
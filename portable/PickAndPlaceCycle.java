@@ -0,0 +1,628 @@
+package deliaApplication;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One pick and place cycle: fetch a rivet at the suction pose and push it into the
+ * hole at pushInNew, or a batch of rivets at offsets from these poses.
+ * <p>
+ * The cycle only talks to a {@link RobotCell}, so the same sequence runs in the
+ * {@link pickAndPlace} application and in the {@link SimulationRunner}.
+ */
+public class PickAndPlaceCycle {
+
+	private static final int stiffnessZ = 2500; // isolate freedom along z-axis only
+	private static final int stiffnessY = 2500;
+	private static final int stiffnessX = 2500;
+	private static final double recordingResolution = 0.001; // N and mm, below the sensor noise
+	private static final long recordingPerRivet = 45; // s of DataRecorder, one cycle at 10 % takes up to 42 s
+	private static final int insertionNeighbours = 3; // known insertions voting on the class of a new one
+	
+	private static double[] homePosition=new double[]{Math.toRadians(-90),Math.toRadians(38.47),0,Math.toRadians(-109.08),
+		0,Math.toRadians(-53.02),Math.toRadians(142.93)};
+	
+	private static double[] placeApproach=new double[]{Math.toRadians(-56.07),Math.toRadians(69.07), Math.toRadians(1.95),
+		Math.toRadians(-119.99),Math.toRadians(-16.19),Math.toRadians(-106.64),Math.toRadians(117.21)};
+	
+	private static double[] placeApproachCloser=new double[]{Math.toRadians(-57.46),Math.toRadians(69.07), Math.toRadians(4.75),
+		Math.toRadians(-118.31),Math.toRadians(-14.74),Math.toRadians(-93.25),Math.toRadians(115.96)};
+
+	private static double[] pushInNew=new double[]{Math.toRadians(-57.5),Math.toRadians(74.84), Math.toRadians(3.39),
+		Math.toRadians(-115.65),Math.toRadians(-18.53),Math.toRadians(-99.41),Math.toRadians(115.85)};
+	
+	private static double[] revisedPick=new double[]{Math.toRadians(-162.65),Math.toRadians(81.97), Math.toRadians(36.51),
+		Math.toRadians(-113.47),Math.toRadians(-66.78),Math.toRadians(-55.44),Math.toRadians(101)};
+	
+	private static double[] suction=new double[]{Math.toRadians(-162.65),Math.toRadians(82.77), Math.toRadians(37.34),
+		Math.toRadians(-113.20),Math.toRadians(-66.22),Math.toRadians(-53.01),Math.toRadians(100.92)};
+	
+	private static double[] waypoint=new double[]{Math.toRadians(-142.11),Math.toRadians(53.70), Math.toRadians(30.87),
+		Math.toRadians(-115.07),Math.toRadians(-55.18),Math.toRadians(-62.08),Math.toRadians(104.74)};
+
+	private final RobotCell cell;
+	private final double blendingRel;
+	private final Recorder blackBox;
+	private final VelocitySchedule schedule;
+	private final Impedance impedanceControlMode = new Impedance(stiffnessX, stiffnessY, stiffnessZ);
+	private GripConfirmation gripConfirmation;
+	private ContactDetector contactDetector;
+	private double[] torqueLimits;
+	private InsertionSearch insertionSearch;
+	private TorqueMonitor torqueMonitor;
+	private PathOptimizer pathOptimizer;
+	private TraceLibrary insertionLibrary;
+	private TraceLibrary capturedInsertions;
+	private RivetLayout preparedLayout;
+	private Segment returnHome;
+	private Rivet[] rivets;
+
+	/**
+	 * Runs with the velocity schedule deployed with the application.
+	 *
+	 * @param blendingRel relative blending of the via-points, 0 stops exactly at every pose
+	 * @param blackBox enabled recorder, started after homing and stopped at the end of the cycle
+	 */
+	public PickAndPlaceCycle(RobotCell cell, double blendingRel, Recorder blackBox) {
+		this(cell, blendingRel, blackBox, VelocitySchedule.load());
+	}
+
+	/**
+	 * @param schedule limits of the segments, the contact poses of each rivet are added to it
+	 */
+	public PickAndPlaceCycle(RobotCell cell, double blendingRel, Recorder blackBox, VelocitySchedule schedule) {
+		this.cell = cell;
+		this.blendingRel = blendingRel;
+		this.blackBox = blackBox;
+		this.schedule = schedule;
+	}
+
+	/**
+	 * @param gripConfirmation ends the hold at the suction pose once its signal is present,
+	 *            {@code null} to wait for the operator to acknowledge a dialog; only
+	 *            {@link GripConfirmation#bySignal} tells whether a rivet is held
+	 */
+	public void setGripConfirmation(GripConfirmation gripConfirmation) {
+		this.gripConfirmation = gripConfirmation;
+	}
+
+	/**
+	 * @param contactDetector detects the contact at the end of the installation in the
+	 *            application, {@code null} for the 10 N force condition of the controller
+	 */
+	public void setContactDetector(ContactDetector contactDetector) {
+		this.contactDetector = contactDetector;
+	}
+
+	/**
+	 * Guards the approach and the insertion by the external torque of every joint: when a
+	 * joint reaches its limit the motion is pre-empted and the arm retreats like on
+	 * contact. The guards and the contact are then watched on one {@link ObserverHub}.
+	 *
+	 * @param torqueLimits [Nm] for A1 to A7, {@code null} for no guards
+	 */
+	public void setTorqueLimits(double[] torqueLimits) {
+		this.torqueLimits = torqueLimits == null ? null : torqueLimits.clone();
+	}
+
+	/**
+	 * @param insertionSearch pushes the rivet in from the approach pose and searches for
+	 *            the hole around pushInNew when it is not found straight away,
+	 *            {@code null} for a single push ended by the contact
+	 */
+	public void setInsertionSearch(InsertionSearch insertionSearch) {
+		this.insertionSearch = insertionSearch;
+	}
+
+	/**
+	 * @param torqueMonitor the monitor the cell of the cycle passes through; an overload
+	 *            stops the batch after the rivet it happened on, {@code null} to not stop
+	 */
+	public void setTorqueMonitor(TorqueMonitor torqueMonitor) {
+		this.torqueMonitor = torqueMonitor;
+	}
+
+	/**
+	 * @param pathOptimizer merges via-points of the taught sequence when the batch is
+	 *            prepared and logs the predicted gain, {@code null} for the taught sequence
+	 */
+	public void setPathOptimizer(PathOptimizer pathOptimizer) {
+		this.pathOptimizer = pathOptimizer;
+		preparedLayout = null;
+	}
+
+	/**
+	 * Classifies the force profile of every insertion, from the start of the install
+	 * motion to the end of the retreat, like the most similar insertions of a library and
+	 * collects the profiles. The profile is taken from the ring of the
+	 * {@link StreamingRecorder}, so the search starts as soon as the retreat ends.
+	 *
+	 * @param library labelled insertions, {@code null} or empty to only collect
+	 * @param captured receives every insertion with the class it was given, {@code null}
+	 *            to not collect
+	 * @throws IllegalStateException if the recorder is not a streaming recorder of the force
+	 */
+	public void setInsertionLibrary(TraceLibrary library, TraceLibrary captured) {
+		if ((library != null || captured != null) && (!(blackBox instanceof StreamingRecorder)
+				|| !Arrays.asList(((StreamingRecorder) blackBox).getChannels()).contains(Channel.CARTESIAN_FORCE))) {
+			throw new IllegalStateException("Insertions can only be classified from a streamed recording of the force");
+		}
+		this.insertionLibrary = library;
+		this.capturedInsertions = captured;
+	}
+
+	/**
+	 * @return flange positions [mm] of the taught approach and insertion poses of the
+	 *         first rivet, e.g. to model the plate in a simulation
+	 */
+	static double[][] insertionLine() {
+		LbrKinematics kinematics = new LbrKinematics();
+		double[] pose = new double[LbrKinematics.poseSize];
+		kinematics.forward(placeApproachCloser, pose);
+		double[] approach = Arrays.copyOf(pose, 3);
+		kinematics.forward(pushInNew, pose);
+		return new double[][]{approach, Arrays.copyOf(pose, 3)};
+	}
+
+	/**
+	 * Creates the recorder of a single rivet, see {@link #createRecorder(RobotCell, File, RivetLayout)}.
+	 */
+	public static Recorder createRecorder(RobotCell cell, File directory) {
+		return createRecorder(cell, directory, RivetLayout.single());
+	}
+
+	/**
+	 * Creates the recorder of a batch, either a DataRecorder which stops after 45 s per
+	 * rivet of the layout or a continuous {@link StreamingRecorder}, which also records the
+	 * flange position and keeps the trace compressed for traceability.
+	 *
+	 * @param directory directory of the streamed recordings, {@code null} for a DataRecorder
+	 */
+	public static Recorder createRecorder(RobotCell cell, File directory, RivetLayout layout) {
+		Recorder blackBox = directory == null
+				? cell.createRecorder("pickAndInstall",recordingPerRivet*layout.size(),TimeUnit.SECONDS,100)
+				: new StreamingRecorder(cell, directory, "pickAndInstall").setCompression(recordingResolution);
+		blackBox.addChannel(Channel.CARTESIAN_FORCE); // records end-effector force in x,y,z
+		if (directory != null) {
+			blackBox.addChannel(Channel.CURRENT_XYZ);
+		}
+		blackBox.enable();
+		return blackBox;
+	}
+
+	public void run() {
+		runBatch(RivetLayout.single());
+	}
+
+	/**
+	 * Builds and validates every motion of the batch before the arm moves, see
+	 * {@link MotionPlanner}. Called by {@link #runBatch(RivetLayout)} if it has not been
+	 * called for the layout.
+	 *
+	 * @throws IllegalArgumentException if a rivet is out of reach, beyond the joint
+	 *             limits or close to a singularity
+	 */
+	public void prepare(RivetLayout layout) {
+		MotionPlanner planner = new MotionPlanner(cell, null);
+		returnHome = Segment.ptp(homePosition).setName("returnHome");
+		planner.plan(schedule.apply(returnHome, null));
+		rivets = new Rivet[layout.size()];
+		double[] previous = homePosition;
+		for (int i = 0; i < rivets.length; i++) {
+			rivets[i] = new Rivet(layout, i, previous, planner);
+			previous = rivets[i].placeApproach;
+		}
+		preparedLayout = layout;
+		if (pathOptimizer != null) {
+			reportOptimization();
+		}
+	}
+
+	private void reportOptimization() {
+		long taught = 0;
+		long optimized = 0;
+		int merged = 0;
+		Set<String> names = new LinkedHashSet<String>();
+		for (Rivet rivet : rivets) {
+			taught += rivet.taughtTime;
+			optimized += rivet.optimizedTime;
+			merged += rivet.merged.size();
+			names.addAll(rivet.merged);
+		}
+		cell.log(String.format("Path optimiser merged %d via-points %s, predicted motion time %.2f s instead of %.2f s (%.1f %% less)",
+				merged, names, optimized / 1e9, taught / 1e9, 100.0 * (taught - optimized) / taught));
+	}
+
+	/**
+	 * Installs one rivet per entry of the layout in a warm loop: the arm homes once, the
+	 * recorder, the impedance mode and the force watch are set up once, and every rivet
+	 * starts from where the previous one was installed. All motions are planned before
+	 * the arm moves, so an unreachable rivet stops the batch before it starts.
+	 *
+	 * @return duration of every rivet installed [ns], from leaving the previous pose to the retreat
+	 */
+	public long[] runBatch(RivetLayout layout) {
+		if (preparedLayout != layout) {
+			prepare(layout);
+		}
+
+		/*
+		 * Via-points are queued and blended, only the contact poses (suction and pushInNew)
+		 * and the last position before switching to impedance control are exact stops
+		 */
+		MotionArbiter arbiter = new MotionArbiter(cell);
+		MotionPipeline pipeline = new MotionPipeline(arbiter, blendingRel);
+
+		cell.log("Starting at home.");
+		pipeline.stopAt(returnHome);
+		
+		cell.log("Start recording");
+		blackBox.startRecording();
+		
+		/*
+		 * On contact the install motion is pre-empted and the arm retreats; the listener only
+		 * hands the event to the arbiter and never moves the arm on the observer thread
+		 */
+		MotionArbiter.Reaction pushListener = arbiter.reactWith(null, "Rivet successfully installed!");
+		MotionArbiter.Reaction guardListener = null;
+		ObserverHub hub = null;
+		// the insertion search watches the contact itself
+		List<ForceWatch> watches = new ArrayList<ForceWatch>();
+		if (torqueLimits != null) {
+			hub = new ObserverHub(cell);
+			if (insertionSearch == null) {
+				watches.add(hub.watch(contactDetector != null ? ObserverHub.contact(contactDetector)
+						: ObserverHub.forceMagnitude(10), observed(pushListener)));
+			}
+			guardListener = arbiter.reactWith(null, "Joint torque limit reached, retreating");
+			ForceListener guard = observed(insertionSearch == null ? guardListener : aborting(guardListener));
+			for (int j = 0; j < torqueLimits.length; j++) {
+				watches.add(hub.watch(ObserverHub.jointTorque(j, torqueLimits[j]), guard));
+			}
+			hub.start();
+		} else if (insertionSearch == null) {
+			watches.add(contactDetector != null ? contactDetector.watch(cell, observed(pushListener))
+					: cell.watchForce(10, pushListener));
+		}
+		ForceWatch pushObserver = all(watches.toArray(new ForceWatch[watches.size()]));
+		
+		long[] durations = new long[rivets.length];
+		long overloads = torqueMonitor == null ? 0 : torqueMonitor.getOverloads();
+		long batchStart = cell.nanoTime();
+		try {
+			for (int i = 0; i < rivets.length; i++) {
+				long start = cell.nanoTime();
+				install(rivets[i], arbiter, pipeline, pushListener, guardListener, pushObserver);
+				durations[i] = cell.nanoTime() - start;
+				if (rivets.length > 1) {
+					cell.log(String.format("Rivet %d of %d took %.2f s", i + 1, rivets.length, durations[i] / 1e9));
+				}
+				if (torqueMonitor != null && torqueMonitor.getOverloads() > overloads && i + 1 < rivets.length) {
+					cell.log("Joint overload, stopping the batch after rivet " + (i + 1));
+					durations = Arrays.copyOf(durations, i + 1);
+					break;
+				}
+			}
+		} finally {
+			if (hub != null) {
+				hub.close();
+				cell.log("Observer hub: " + hub.describe());
+			}
+			arbiter.close();
+			if (torqueMonitor != null) {
+				cell.log("Torque monitor: " + torqueMonitor.describe());
+			}
+		}
+		long batchTime = cell.nanoTime() - batchStart;
+		
+		cell.log("Stop recording");
+		blackBox.stopRecording();
+		if (rivets.length > 1) {
+			report(durations, batchTime);
+		}
+		return durations;
+	}
+
+	private void install(Rivet rivet, MotionArbiter arbiter, MotionPipeline pipeline,
+			MotionArbiter.Reaction pushListener, MotionArbiter.Reaction guardListener, ForceWatch pushObserver) {
+		cell.log("On the way...");
+		if (rivet.stopover != null) {
+			pipeline.via(rivet.stopover);
+		}
+		
+		cell.log("Approaching...");
+		pipeline.via(rivet.pick); 
+		
+		cell.log("Fetching rivet...");
+		pipeline.stopAt(rivet.pickUp); 
+		
+		attachRivet(rivet, arbiter, pipeline);
+		
+		cell.log("Got the rivet...");
+		pipeline.via(rivet.liftUp); 
+		
+		pushListener.setSegment(rivet.fetchNext);
+		if (guardListener != null) {
+			guardListener.setSegment(rivet.fetchNext);
+		}
+		
+		// Approximate positioning is not possible across a change of control mode
+		cell.log("In transit...");
+		pipeline.stopAt(rivet.stepOne);
+
+		// watch from the free waypoint on, so releasing the pick contact is not taken for a contact
+		pushObserver.enable();
+		int reactions = arbiter.getReactionCount();
+
+		cell.log("Getting close...");
+		if (rivet.place != null) {
+			pipeline.via(rivet.place);
+		}
+		// a contact on the way pre-empts the approach and retreats, the rest of it is skipped
+		if (arbiter.getReactionCount() == reactions) {
+			pipeline.via(rivet.near);
+		}
+
+		long insertionStart = cell.nanoTime();
+		if (arbiter.getReactionCount() != reactions) {
+			cell.log("Contact before the install pose, the insertion is skipped");
+		} else if (insertionSearch != null) {
+			cell.log("Installing rivet");
+			pipeline.await();
+			boolean seated = insertionSearch.insert(arbiter, rivet.placeApproachCloser, rivet.pushInNew,
+					impedanceControlMode);
+			cell.log(seated ? "Rivet successfully installed! " + insertionSearch.describe()
+					: "Rivet not installed, " + insertionSearch.describe());
+		} else {
+			cell.log("Installing rivet");
+			pipeline.stopAt(rivet.install);
+		}
+		
+		arbiter.awaitReaction();
+		pushObserver.disable();
+		if (arbiter.getReactionCount() == reactions) {
+			if (insertionSearch == null) {
+				// no contact, leave the hole before the next rivet anyway
+				cell.log("No contact detected, retreating");
+			}
+			pipeline.stopAt(rivet.fetchNext);
+		} else {
+			long[] latencies = arbiter.getLatencies();
+			cell.log("Contact to reaction " + latencies[latencies.length - 1] / 1000 + " us, "
+					+ arbiter.getMissedEvents() + " missed events");
+		}
+		if (insertionLibrary != null || capturedInsertions != null) {
+			classifyInsertion(insertionStart);
+		}
+	}
+
+	/**
+	 * Takes the force magnitude since the start of the insertion from the ring of the
+	 * recorder, classifies and collects it.
+	 */
+	private void classifyInsertion(long start) {
+		StreamingRecorder recorder = (StreamingRecorder) blackBox;
+		TelemetryRing ring = recorder.getRing();
+		int force = 0;
+		for (Channel channel : recorder.getChannels()) {
+			if (channel == Channel.CARTESIAN_FORCE) {
+				break;
+			}
+			force += channel.getWidth();
+		}
+		long end = ring.getWritten();
+		long first = end;
+		while (first > 0 && end - first < ring.getCapacity() && ring.getTime(first - 1) >= start) {
+			first--;
+		}
+		double[] sample = new double[ring.getWidth()];
+		double[] profile = new double[(int) (end - first)];
+		int samples = 0;
+		for (long sequence = first; sequence < end; sequence++) {
+			ring.read(sequence, sample, 0);
+			if (ring.isAvailable(sequence)) {
+				double fx = sample[force];
+				double fy = sample[force + 1];
+				double fz = sample[force + 2];
+				profile[samples++] = Math.sqrt(fx * fx + fy * fy + fz * fz);
+			}
+		}
+		if (samples == 0) {
+			cell.log("No force samples of the insertion");
+			return;
+		}
+		String label = TraceLibrary.unlabelled;
+		if (insertionLibrary != null && insertionLibrary.size() > 0) {
+			long searchStart = System.nanoTime();
+			try {
+				TraceLibrary.Match[] matches = insertionLibrary.search(profile, 0, samples, insertionNeighbours);
+				label = TraceLibrary.vote(matches);
+				cell.log(String.format("Insertion classified %s in %.1f ms, nearest %s", label,
+						(System.nanoTime() - searchStart) / 1e6, matches[0]));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (capturedInsertions != null) {
+			capturedInsertions.add(label, profile, 0, samples);
+		}
+	}
+
+	/**
+	 * Holds the suction pose until the rivet is attached. Without confirmation within the
+	 * timeout the arm lifts off and touches down again; after the last retry the operator
+	 * has to acknowledge the grip.
+	 */
+	private void attachRivet(Rivet rivet, MotionArbiter arbiter, MotionPipeline pipeline) {
+		if (gripConfirmation != null) {
+			for (int attempt = 0; attempt <= gripConfirmation.getRetries(); attempt++) {
+				if (attempt > 0) {
+					cell.log("Grip not confirmed, touching down again...");
+					pipeline.stopAt(rivet.liftOff);
+					pipeline.stopAt(rivet.touchDown);
+				}
+				if (gripConfirmation.hold(arbiter, impedanceControlMode)) {
+					return;
+				}
+			}
+			cell.log("Grip not confirmed after " + (gripConfirmation.getRetries() + 1) + " attempts");
+		}
+		
+		MotionHandle positionHoldContainer = arbiter.holdPosition(impedanceControlMode);
+
+		cell.displayDialog("Press ok once rivet attached.");
+
+		// As soon as the modal dialog returns, the motion container will be cancelled. This finishes the position hold. 
+		positionHoldContainer.cancel();	
+	}
+
+	/**
+	 * The detector calls the listener itself, an instrumented cell only sees its events
+	 * if the listener is wrapped.
+	 */
+	private ForceListener observed(ForceListener listener) {
+		return cell instanceof InstrumentedCell ? ((InstrumentedCell) cell).observe(listener) : listener;
+	}
+
+	/**
+	 * @return a listener which ends the running insertion search before it passes on the event
+	 */
+	private ForceListener aborting(final ForceListener listener) {
+		return new ForceListener() {
+
+			@Override
+			public void onForce(long time, int missedEvents) {
+				insertionSearch.abort();
+				listener.onForce(time, missedEvents);
+			}
+		};
+	}
+
+	/**
+	 * @return a watch which enables and disables all the given ones, in that order
+	 */
+	private static ForceWatch all(final ForceWatch[] watches) {
+		return new ForceWatch() {
+
+			@Override
+			public void enable() {
+				for (ForceWatch watch : watches) {
+					watch.enable();
+				}
+			}
+
+			@Override
+			public void disable() {
+				for (ForceWatch watch : watches) {
+					watch.disable();
+				}
+			}
+		};
+	}
+
+	private void report(long[] durations, long batchTime) {
+		long min = Long.MAX_VALUE;
+		long max = 0;
+		for (long duration : durations) {
+			min = Math.min(min, duration);
+			max = Math.max(max, duration);
+		}
+		cell.log(String.format("%d rivets in %.1f s, per rivet mean %.2f s, min %.2f s, max %.2f s, %.0f rivets/h",
+				durations.length, batchTime / 1e9, batchTime / 1e9 / durations.length, min / 1e9, max / 1e9,
+				durations.length * 3600e9 / batchTime));
+	}
+
+	/**
+	 * Poses and planned motions of one rivet of a batch.
+	 */
+	private class Rivet {
+		final double[] revisedPick;
+		final double[] suction;
+		final double[] placeApproach;
+		final double[] placeApproachCloser;
+		final double[] pushInNew;
+		final VelocitySchedule schedule;
+		final Segment stopover; // null if merged by the path optimiser
+		final Segment pick;
+		final Segment pickUp;
+		final Segment liftOff;
+		final Segment touchDown;
+		final Segment liftUp;
+		final Segment stepOne;
+		final Segment place; // null if merged by the path optimiser
+		final Segment near;
+		final Segment install;
+		final Segment fetchNext;
+		final List<String> merged = new ArrayList<String>();
+		long taughtTime; // predicted by the path optimiser [ns]
+		long optimizedTime;
+
+		/**
+		 * @param previous pose the rivet starts from
+		 * @param planner validates and prepares the motions in the order they are executed
+		 */
+		Rivet(RivetLayout layout, int index, double[] previous, MotionPlanner planner) {
+			revisedPick = layout.pickPose(index, PickAndPlaceCycle.revisedPick);
+			suction = layout.pickPose(index, PickAndPlaceCycle.suction);
+			placeApproach = layout.placePose(index, PickAndPlaceCycle.placeApproach);
+			placeApproachCloser = layout.placePose(index, PickAndPlaceCycle.placeApproachCloser);
+			pushInNew = layout.placePose(index, PickAndPlaceCycle.pushInNew);
+			schedule = PickAndPlaceCycle.this.schedule.withContactPoses(suction, pushInNew);
+
+			Segment stopover = Segment.ptp(waypoint).setName("stopover");
+			pick = Segment.ptp(revisedPick).setName("pick");
+			pickUp = Segment.ptp(suction).setContact(true).setName("pickUp");
+			liftUp = Segment.ptp(revisedPick).setName("liftUp");
+			stepOne = Segment.ptp(waypoint).setName("stepOne");
+			Segment place = Segment.ptp(placeApproach).setMode(impedanceControlMode).setName("place");
+			near = Segment.ptp(placeApproachCloser).setMode(impedanceControlMode).setName("near");
+			install = Segment.ptp(pushInNew).setContact(true).setMode(impedanceControlMode).setName("install");
+
+			// the sequence of install() without the hold at the suction pose
+			List<Segment> route = Arrays.asList(stopover, pick, pickUp, liftUp, stepOne, place, near, install);
+			if (pathOptimizer != null) {
+				plan(null, route, previous);
+				taughtTime = pathOptimizer.predict(previous, route);
+				List<Segment> optimized = pathOptimizer.optimize(previous, route, schedule);
+				for (Segment segment : route) {
+					if (!optimized.contains(segment)) {
+						merged.add(segment.getName());
+					}
+				}
+				route = optimized;
+				optimizedTime = pathOptimizer.predict(previous, route);
+			}
+			plan(planner, route, previous);
+			this.stopover = route.contains(stopover) ? stopover : null;
+			this.place = route.contains(place) ? place : null;
+
+			liftOff = plan(planner, Segment.ptp(revisedPick).setName("liftOff"), suction);
+			touchDown = plan(planner, Segment.ptp(suction).setContact(true).setName("touchDown"), revisedPick);
+			fetchNext = plan(planner, Segment.ptp(placeApproach).setName("fetchNext"), pushInNew);
+		}
+
+		/**
+		 * Applies the schedule to every segment of the route from where the previous one
+		 * ends and plans them, if there is a planner.
+		 */
+		private void plan(MotionPlanner planner, List<Segment> route, double[] start) {
+			for (Segment segment : route) {
+				schedule.apply(segment, start);
+				if (planner != null) {
+					planner.plan(segment, start);
+				}
+				start = segment.getJoints();
+			}
+		}
+
+		private Segment plan(MotionPlanner planner, Segment segment, double[] start) {
+			return planner.plan(schedule.apply(segment, start), start);
+		}
+	}
+}
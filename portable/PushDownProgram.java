@@ -0,0 +1,97 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the flange down in impedance control and returns home as soon as the
+ * contact force exceeds 10 N. This is the sequence of the {@link Listener} application.
+ */
+public class PushDownProgram {
+
+	final static double corner=Math.toRadians(90);
+	
+	private static final int stiffnessZ = 2500; // isolate freedom along z-axis only
+	private static final int stiffnessY = 2500;
+	private static final int stiffnessX = 2500;
+	
+	private static double[] homePosition=new double[]{-corner,0,0,-corner,0,corner,0};
+
+	private final RobotCell cell;
+	private final Impedance impedanceControlMode = new Impedance(stiffnessX, stiffnessY, stiffnessZ);
+	private Segment returnHome;
+	private Segment pushDown;
+	private Segment fetchNext;
+
+	public PushDownProgram(RobotCell cell) {
+		this.cell = cell;
+	}
+
+	/**
+	 * Builds and validates the motions before the arm moves, see {@link MotionPlanner}.
+	 * Called by {@link #run()} if it has not been called before.
+	 */
+	public void prepare() {
+		MotionPlanner planner = new MotionPlanner(cell, null);
+		// homing at the velocity of the recorded experiments, before the recording starts
+		returnHome = Segment.ptp(homePosition).setJointVelocityRel(0.3).setName("returnHome");
+		planner.plan(returnHome);
+		pushDown = trajectory().setJointJerkRel(0.5).setCartVelocity(250).setJointVelocityRel(0.4)
+				.setMode(impedanceControlMode).setName("pushDown");
+		planner.plan(pushDown);
+		fetchNext = Segment.ptp(homePosition).setJointVelocityRel(0.25).setName("fetchNext");
+		planner.plan(fetchNext);
+	}
+
+	public void run() {
+		if (returnHome == null) {
+			prepare();
+		}
+
+		/*
+		 * Initialising the data recorder and setting what to record
+		 */
+		Recorder blackBox = cell.createRecorder("bubblePop",45,TimeUnit.SECONDS,100);
+		blackBox.addChannel(Channel.CARTESIAN_FORCE); // records end-effector force in x,y,z
+		blackBox.enable();
+		
+		/*
+		 * Begin recording data and return to starting (home) position
+		 */
+		cell.log("Move to home position");
+		cell.move(returnHome);
+		
+		cell.log("Start recording");
+		blackBox.startRecording();
+		
+		/*
+		 * On contact the push is pre-empted and the arm returns home; the listener only
+		 * hands the event to the arbiter and never moves the arm on the observer thread
+		 */
+		MotionArbiter arbiter = new MotionArbiter(cell);
+		ForceListener pushListener = arbiter.reactWith(fetchNext, "Rivet successfully installed!");
+		
+		ForceWatch pushObserver = cell.watchForce(10, pushListener);
+		pushObserver.enable();
+		
+		/*
+		 * Execute straight line motion using the defined impedance controller
+		 */
+		cell.log("Execute straight line motion");
+		arbiter.move(pushDown);
+		arbiter.awaitReaction();
+		arbiter.close();
+		long[] latencies = arbiter.getLatencies();
+		if (latencies.length > 0) {
+			cell.log("Contact to reaction " + latencies[latencies.length - 1] / 1000 + " us, "
+					+ arbiter.getMissedEvents() + " missed events");
+		}
+		
+		cell.log("Stop recording");
+		blackBox.stopRecording();
+		pushObserver.disable();
+	}
+
+	private Segment trajectory() {
+		return Segment.spline(new double[]{-120, 20, 560}).setTaught(true);
+	}
+}
@@ -0,0 +1,22 @@
+package deliaApplication;
+
+import java.net.URL;
+
+/**
+ * Records a set of {@link Channel}s, mirrors the life cycle of the Sunrise DataRecorder.
+ */
+public interface Recorder {
+
+	void addChannel(Channel channel);
+
+	void enable();
+
+	void startRecording();
+
+	void stopRecording();
+
+	/**
+	 * @return location of the recorded file, or {@code null} before the first recording
+	 */
+	URL getURL();
+}
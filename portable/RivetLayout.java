@@ -0,0 +1,91 @@
+package deliaApplication;
+
+/**
+ * Where the rivets of a batch are picked and placed, as offsets from the taught poses.
+ * <p>
+ * Offsets are X/Y/Z translations of the flange in the root frame [mm]. A taught joint
+ * pose is shifted by solving the inverse kinematics for the translated flange with the
+ * orientation, arm angle and status of the taught pose, so every rivet is approached
+ * the same way. A single pick offset serves every rivet, e.g. a feeder which always
+ * presents the next rivet at the same place.
+ */
+public class RivetLayout {
+
+	private final double[][] pickOffsets;
+	private final double[][] placeOffsets;
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+
+	/**
+	 * @param pickOffsets one offset per rivet, or a single offset for all of them
+	 * @param placeOffsets one offset per rivet
+	 */
+	public RivetLayout(double[][] pickOffsets, double[][] placeOffsets) {
+		if (pickOffsets.length != 1 && pickOffsets.length != placeOffsets.length) {
+			throw new IllegalArgumentException(pickOffsets.length + " pick offsets for " + placeOffsets.length + " rivets");
+		}
+		this.pickOffsets = pickOffsets;
+		this.placeOffsets = placeOffsets;
+	}
+
+	/**
+	 * @return one rivet at the taught poses
+	 */
+	public static RivetLayout single() {
+		return new RivetLayout(new double[][] {{0, 0, 0}}, new double[][] {{0, 0, 0}});
+	}
+
+	/**
+	 * Offsets of a rectangular grid, row by row starting at the taught pose.
+	 *
+	 * @param rowStep offset from one row to the next [mm]
+	 * @param columnStep offset from one column to the next [mm]
+	 */
+	public static double[][] grid(int rows, int columns, double[] rowStep, double[] columnStep) {
+		double[][] offsets = new double[rows * columns][3];
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				for (int k = 0; k < 3; k++) {
+					offsets[row * columns + column][k] = row * rowStep[k] + column * columnStep[k];
+				}
+			}
+		}
+		return offsets;
+	}
+
+	public int size() {
+		return placeOffsets.length;
+	}
+
+	/**
+	 * @return the taught pick side pose shifted to the given rivet
+	 * @throws IllegalArgumentException if the shifted pose is out of reach
+	 */
+	public double[] pickPose(int rivet, double[] taught) {
+		return shift(taught, pickOffsets[pickOffsets.length == 1 ? 0 : rivet]);
+	}
+
+	/**
+	 * @return the taught place side pose shifted to the given rivet
+	 * @throws IllegalArgumentException if the shifted pose is out of reach
+	 */
+	public double[] placePose(int rivet, double[] taught) {
+		return shift(taught, placeOffsets[rivet]);
+	}
+
+	private double[] shift(double[] taught, double[] offset) {
+		if (offset[0] == 0 && offset[1] == 0 && offset[2] == 0) {
+			return taught;
+		}
+		kinematics.forward(taught, pose);
+		pose[0] += offset[0];
+		pose[1] += offset[1];
+		pose[2] += offset[2];
+		double[] joints = new double[7];
+		if (!kinematics.inverse(pose, taught, joints)) {
+			throw new IllegalArgumentException("Offset " + offset[0] + ", " + offset[1] + ", " + offset[2]
+					+ " is out of reach");
+		}
+		return joints;
+	}
+}
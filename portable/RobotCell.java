@@ -0,0 +1,76 @@
+package deliaApplication;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hardware independent view of the work cell used by the application programs.
+ * <p>
+ * {@link SunriseCell} forwards every call to the LBR on the Sunrise cabinet, while
+ * {@link SimulatedCell} executes the same calls against a kinematic model so that
+ * a program can be replayed offline and faster than real time.
+ */
+public interface RobotCell {
+
+	/**
+	 * Executes the segment and returns once it has finished.
+	 */
+	void move(Segment segment);
+
+	/**
+	 * Builds the motion of the segment on the controller in advance, so that moving it
+	 * later only sends it. Splines are only prepared if their start is planned, see
+	 * {@link Segment#getStartJoints()}. Changes of the blending after preparing are
+	 * still taken into account.
+	 */
+	void prepare(Segment segment);
+
+	/**
+	 * Queues the segment behind the motions already sent and returns immediately.
+	 */
+	MotionHandle moveAsync(Segment segment);
+
+	/**
+	 * Holds the current position in the given control mode until the returned
+	 * handle is cancelled.
+	 */
+	MotionHandle holdPosition(Impedance mode);
+
+	/**
+	 * Creates a disabled observer which reports rising edges of the spatial force at
+	 * the flange crossing the threshold.
+	 *
+	 * @param threshold force threshold [N]
+	 */
+	ForceWatch watchForce(double threshold, ForceListener listener);
+
+	/**
+	 * Creates a recorder which stops on its own after the timeout.
+	 *
+	 * @param sampleInterval sampling interval [ms]
+	 */
+	Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval);
+
+	/**
+	 * Runs the task periodically on the cell clock until the returned task is cancelled.
+	 * The task must be short and must not wait for motions.
+	 */
+	ScheduledTask schedule(Runnable task, long period, TimeUnit unit);
+
+	/**
+	 * Copies the latest values of a channel into {@code values}, starting at
+	 * {@code offset}. Exactly {@link Channel#getWidth()} values are written.
+	 */
+	void read(Channel channel, double[] values, int offset);
+
+	/**
+	 * Shows a message to the operator and waits until it has been acknowledged.
+	 */
+	void displayDialog(String message);
+
+	void log(String message);
+
+	/**
+	 * @return the cell clock [ns], only differences between two calls are meaningful
+	 */
+	long nanoTime();
+}
@@ -0,0 +1,12 @@
+package deliaApplication;
+
+/**
+ * Periodic task created by {@link RobotCell#schedule}.
+ */
+public interface ScheduledTask {
+
+	/**
+	 * Stops further executions, a running execution is completed.
+	 */
+	void cancel();
+}
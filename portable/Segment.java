@@ -0,0 +1,173 @@
+package deliaApplication;
+
+/**
+ * One motion of a program, independent of the controller it is executed on.
+ * <p>
+ * A segment is either a point-to-point motion to a joint configuration or a
+ * Cartesian spline through a list of flange positions. Spline points are absolute
+ * X/Y/Z coordinates in the robot root frame [mm], or in the world frame of the station
+ * for a spline taught there; a {@code NaN} coordinate keeps the value of the flange
+ * position at the start of the motion, and the orientation is always kept. The setters
+ * follow the fluent style of the Sunrise motion classes.
+ */
+public class Segment {
+
+	private final double[] joints;
+	private final double[][] path;
+	private String name;
+	private double jointVelocityRel = 1;
+	private double jointAccelerationRel = 1;
+	private double jointJerkRel = 1;
+	private double cartVelocity = Double.NaN;
+	private double blendingRel = 0;
+	private Impedance mode;
+	private boolean contact;
+	private boolean taught;
+	private double[] startJoints;
+
+	private Segment(double[] joints, double[][] path) {
+		this.joints = joints;
+		this.path = path;
+	}
+
+	/**
+	 * Point-to-point motion to a joint configuration [rad].
+	 */
+	public static Segment ptp(double[] joints) {
+		return new Segment(joints, null);
+	}
+
+	/**
+	 * Cartesian spline through the given X/Y/Z flange positions [mm].
+	 */
+	public static Segment spline(double[]... points) {
+		return new Segment(null, points);
+	}
+
+	/**
+	 * @return the target joint configuration, or {@code null} for a Cartesian spline
+	 */
+	public double[] getJoints() {
+		return joints;
+	}
+
+	/**
+	 * @return the spline points, or {@code null} for a point-to-point motion
+	 */
+	public double[][] getPath() {
+		return path;
+	}
+
+	public boolean isCartesian() {
+		return path != null;
+	}
+
+	/**
+	 * @return name of the segment in the program, {@code null} if it has none
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public Segment setName(String name) {
+		this.name = name;
+		return this;
+	}
+
+	public double getJointVelocityRel() {
+		return jointVelocityRel;
+	}
+
+	public Segment setJointVelocityRel(double jointVelocityRel) {
+		this.jointVelocityRel = jointVelocityRel;
+		return this;
+	}
+
+	public double getJointAccelerationRel() {
+		return jointAccelerationRel;
+	}
+
+	public Segment setJointAccelerationRel(double jointAccelerationRel) {
+		this.jointAccelerationRel = jointAccelerationRel;
+		return this;
+	}
+
+	public double getJointJerkRel() {
+		return jointJerkRel;
+	}
+
+	public Segment setJointJerkRel(double jointJerkRel) {
+		this.jointJerkRel = jointJerkRel;
+		return this;
+	}
+
+	/**
+	 * @return Cartesian velocity [mm/s], {@code NaN} if the controller default is used
+	 */
+	public double getCartVelocity() {
+		return cartVelocity;
+	}
+
+	public Segment setCartVelocity(double cartVelocity) {
+		this.cartVelocity = cartVelocity;
+		return this;
+	}
+
+	public double getBlendingRel() {
+		return blendingRel;
+	}
+
+	public Segment setBlendingRel(double blendingRel) {
+		this.blendingRel = blendingRel;
+		return this;
+	}
+
+	/**
+	 * @return the impedance controller, or {@code null} for position control
+	 */
+	public Impedance getMode() {
+		return mode;
+	}
+
+	public Segment setMode(Impedance mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	/**
+	 * @return whether the segment ends on a pose where the tool touches the workpiece
+	 */
+	public boolean isContact() {
+		return contact;
+	}
+
+	public Segment setContact(boolean contact) {
+		this.contact = contact;
+		return this;
+	}
+
+	/**
+	 * @return whether the spline was taught on the station, see {@link MotionPlanner#plan(Segment)}
+	 */
+	public boolean isTaught() {
+		return taught;
+	}
+
+	public Segment setTaught(boolean taught) {
+		this.taught = taught;
+		return this;
+	}
+
+	/**
+	 * @return joint configuration the spline starts from once it has been planned by a
+	 *         {@link MotionPlanner}, {@code null} if the start is only known when it is sent
+	 */
+	public double[] getStartJoints() {
+		return startJoints;
+	}
+
+	public Segment setStartJoints(double[] startJoints) {
+		this.startJoints = startJoints;
+		return this;
+	}
+}
@@ -0,0 +1,1050 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline stand-in for the LBR iiwa 14 R820 on the Sunrise cabinet.
+ * <p>
+ * Motions are executed by a controller thread which advances a simulated clock in
+ * fixed steps. Point-to-point motions follow synchronised trapezoidal joint profiles
+ * limited by the axis speeds of the iiwa 14, Cartesian splines follow a trapezoidal
+ * profile along the path, and blended motions overlap during the blending zone of the
+ * previous motion. The flange position follows from the joints through
+ * {@link LbrKinematics}; Cartesian motions keep the orientation and the arm angle the
+ * arm had when they started and stop where the path leaves the workspace. Contact is modelled by a horizontal surface below the flange and by
+ * a force which builds up at the end of segments flagged as contact poses; impedance
+ * controlled motions deflect according to their stiffness along Z.
+ * <p>
+ * The clock only advances while every application thread is waiting on the cell, so
+ * a program gets the same timing whether it runs in real time or as fast as possible.
+ * The thread creating the cell counts as the application thread, force listeners run
+ * on a separate observer thread like on the controller.
+ */
+public class SimulatedCell implements RobotCell {
+
+	/** Axis speed limits of the LBR iiwa 14 R820 [deg/s] */
+	private static final double[] maxJointVelocity = {85, 85, 100, 75, 130, 135, 135};
+	/** Axis acceleration at 100 % acceleration override [deg/s^2] */
+	private static final double[] maxJointAcceleration = {300, 300, 300, 300, 500, 500, 500};
+	private static final double cartAcceleration = 1000; // mm/s^2
+	private static final double defaultCartVelocity = 250; // mm/s
+
+	private final Object lock = new Object();
+	private final long step;
+	private final double timeScale;
+	private long now;
+
+	private final double[] joints = new double[7];
+	private final double[] settled = new double[7]; // joints without the running joint motions
+	private final double[] planned = new double[7]; // target of the last joint motion started
+	private final double[] commandedXyz = new double[3];
+	private final double[] currentXyz = new double[3];
+	private final double[] flange = new double[LbrKinematics.poseSize];
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] force = new double[3];
+	private Impedance mode;
+	private double[] surfacePoint; // null without a surface
+	private final double[] surfaceNormal = new double[3]; // unit vector out of the surface
+	private double surfaceStiffness = 50; // N/mm
+	private final double[] holeCenter = new double[3];
+	private double holeRadius; // 0 without a hole
+	private double holeDepth;
+	private double contactForce = 15; // N
+	private double contactLoad;
+	private int started; // number of motions started so far
+	private int contactMotion = -1; // number of the last contact motion started
+	private long operatorDelay = TimeUnit.SECONDS.toNanos(2);
+
+	private final ArrayDeque<SimMotion> pending = new ArrayDeque<SimMotion>();
+	private final List<SimMotion> running = new ArrayList<SimMotion>();
+	private final List<SimWatch> watches = new ArrayList<SimWatch>();
+	private final List<SimRecorder> recorders = new ArrayList<SimRecorder>();
+	private final List<Sleeper> sleepers = new ArrayList<Sleeper>();
+	private final List<SimTask> tasks = new ArrayList<SimTask>();
+	private int busy = 1; // application threads which are not waiting on the cell
+	private boolean closed;
+	private boolean verbose;
+	private int recordings;
+
+	private final ExecutorService observerThread;
+	private final Thread controller;
+
+	/**
+	 * @param timeScale simulated seconds per wall-clock second, 0 runs as fast as possible
+	 */
+	public SimulatedCell(double timeScale) {
+		this(1, TimeUnit.MILLISECONDS, timeScale);
+	}
+
+	/**
+	 * @param step controller cycle of the model
+	 * @param timeScale simulated seconds per wall-clock second, 0 runs as fast as possible
+	 */
+	public SimulatedCell(long step, TimeUnit unit, double timeScale) {
+		this.step = unit.toNanos(step);
+		this.timeScale = timeScale;
+		updateFlange();
+		observerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SimulatedCell observer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		controller = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				runController();
+			}
+		}, "SimulatedCell controller");
+		controller.setDaemon(true);
+		controller.start();
+	}
+
+	/**
+	 * Places the joints at the given configuration without moving.
+	 */
+	public void setJointPosition(double[] position) {
+		synchronized (lock) {
+			System.arraycopy(position, 0, joints, 0, 7);
+			System.arraycopy(position, 0, settled, 0, 7);
+			System.arraycopy(position, 0, planned, 0, 7);
+			updateFlange();
+			updateContact();
+		}
+	}
+
+	/**
+	 * Places the flange at the given position in the root frame [mm] without moving,
+	 * keeping its orientation and the arm angle.
+	 *
+	 * @throws IllegalArgumentException if the position is out of reach
+	 */
+	public void setFlangePosition(double x, double y, double z) {
+		synchronized (lock) {
+			double[] pose = new double[LbrKinematics.poseSize];
+			double[] position = new double[7];
+			kinematics.forward(joints, pose);
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = z;
+			if (!kinematics.inverse(pose, joints, position)) {
+				throw new IllegalArgumentException("Flange position " + x + ", " + y + ", " + z + " is out of reach");
+			}
+			setJointPosition(position);
+		}
+	}
+
+	/**
+	 * Adds a horizontal surface at height z of the root frame.
+	 *
+	 * @param stiffness stiffness of the surface [N/mm]
+	 */
+	public void setSurface(double z, double stiffness) {
+		setSurface(new double[]{0, 0, z}, new double[]{0, 0, 1}, stiffness);
+	}
+
+	/**
+	 * Adds a flat surface, e.g. a plate the flange is pushed against at an angle.
+	 *
+	 * @param point a point of the surface in the root frame [mm]
+	 * @param normal direction out of the surface, towards the flange
+	 * @param stiffness stiffness of the surface [N/mm]
+	 */
+	public void setSurface(double[] point, double[] normal, double stiffness) {
+		double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+		synchronized (lock) {
+			surfacePoint = point.clone();
+			for (int k = 0; k < 3; k++) {
+				surfaceNormal[k] = normal[k] / length;
+			}
+			surfaceStiffness = stiffness;
+		}
+	}
+
+	/**
+	 * Adds a hole to the surface: while the flange is within the radius of its axis,
+	 * which runs along the normal of the surface, the surface is lowered by the depth.
+	 *
+	 * @param center a point of the axis of the hole [mm]
+	 * @param radius lateral distance from the axis within which the flange drops in [mm]
+	 * @param depth [mm]
+	 */
+	public void setHole(double[] center, double radius, double depth) {
+		synchronized (lock) {
+			System.arraycopy(center, 0, holeCenter, 0, 3);
+			holeRadius = radius;
+			holeDepth = depth;
+		}
+	}
+
+	/**
+	 * @param contactForce force reached at the end of a segment flagged as contact pose [N]
+	 */
+	public void setContactForce(double contactForce) {
+		synchronized (lock) {
+			this.contactForce = contactForce;
+		}
+	}
+
+	/**
+	 * @param delay time the simulated operator needs to acknowledge a dialog
+	 */
+	public void setOperatorDelay(long delay, TimeUnit unit) {
+		synchronized (lock) {
+			operatorDelay = unit.toNanos(delay);
+		}
+	}
+
+	/**
+	 * @param verbose print log messages with their simulated time stamp
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Stops the controller thread. Motions still queued are never finished.
+	 */
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		observerThread.shutdown();
+	}
+
+	/**
+	 * Nothing to prepare, the model plans every motion when it starts.
+	 */
+	@Override
+	public void prepare(Segment segment) {
+	}
+
+	@Override
+	public void move(Segment segment) {
+		moveAsync(segment).await();
+	}
+
+	@Override
+	public MotionHandle moveAsync(Segment segment) {
+		return enqueue(new SimMotion(segment, segment.getMode()));
+	}
+
+	@Override
+	public MotionHandle holdPosition(Impedance mode) {
+		return enqueue(new SimMotion(null, mode));
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, ForceListener listener) {
+		return new SimWatch(threshold, listener);
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		return new SimRecorder(name, unit.toNanos(timeout), TimeUnit.MILLISECONDS.toNanos(sampleInterval));
+	}
+
+	/**
+	 * Runs the task on the controller thread whenever the simulated clock passes its
+	 * next execution time. Tasks do not make the clock advance on their own.
+	 */
+	@Override
+	public ScheduledTask schedule(Runnable task, long period, TimeUnit unit) {
+		SimTask scheduled = new SimTask(task, unit.toNanos(period));
+		synchronized (lock) {
+			scheduled.next = now;
+			tasks.add(scheduled);
+		}
+		return scheduled;
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		synchronized (lock) {
+			readLocked(channel, values, offset);
+		}
+	}
+
+	@Override
+	public void displayDialog(String message) {
+		log(message);
+		synchronized (lock) {
+			Sleeper sleeper = new Sleeper(now + operatorDelay);
+			sleepers.add(sleeper);
+			waitFor(sleeper);
+		}
+	}
+
+	@Override
+	public void log(String message) {
+		if (verbose) {
+			System.out.println(String.format("[%10.3f] %s", nanoTime() / 1e9, message));
+		}
+	}
+
+	@Override
+	public long nanoTime() {
+		synchronized (lock) {
+			return now;
+		}
+	}
+
+	private MotionHandle enqueue(SimMotion motion) {
+		synchronized (lock) {
+			pending.add(motion);
+			lock.notifyAll();
+		}
+		return motion;
+	}
+
+	/**
+	 * Marks the calling thread as waiting until the waitable has been released by the
+	 * controller. The controller counts the thread as busy again before it releases
+	 * it, so the clock cannot run ahead of a thread which has just been woken up.
+	 */
+	private void waitFor(Waitable waitable) {
+		if (waitable.released) {
+			return;
+		}
+		waitable.waiters++;
+		busy--;
+		lock.notifyAll();
+		try {
+			while (!waitable.released && !closed) {
+				lock.wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void release(Waitable waitable) {
+		waitable.released = true;
+		busy += waitable.waiters;
+		waitable.waiters = 0;
+		lock.notifyAll();
+	}
+
+	private void runController() {
+		synchronized (lock) {
+			long wallStart = System.nanoTime();
+			long simStart = now;
+			try {
+				while (!closed) {
+					startMotions();
+					if (busy > 0 || !hasWork()) {
+						lock.wait();
+						wallStart = System.nanoTime();
+						simStart = now;
+						continue;
+					}
+					advance();
+					if (timeScale > 0) {
+						long delay = wallStart + (long) ((now - simStart) / timeScale) - System.nanoTime();
+						if (delay > 0) {
+							lock.wait(delay / 1000000, (int) (delay % 1000000));
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				// cell closed
+			}
+		}
+	}
+
+	private boolean hasWork() {
+		if (!sleepers.isEmpty()) {
+			return true;
+		}
+		for (int i = 0; i < running.size(); i++) {
+			SimMotion motion = running.get(i);
+			// a hold only lets time pass while somebody waits for it to be cancelled
+			if (!motion.isHold() || motion.waiters > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Starts queued motions, either because nothing is running any more or because the
+	 * last running motion has entered its blending zone.
+	 */
+	private void startMotions() {
+		while (!pending.isEmpty()) {
+			SimMotion next = pending.peek();
+			if (!running.isEmpty() && !running.get(running.size() - 1).blendsInto(next)) {
+				return;
+			}
+			pending.poll();
+			next.start();
+			running.add(next);
+		}
+	}
+
+	private void advance() {
+		now += step;
+		double load = contactLoad;
+		for (int i = 0; i < running.size(); i++) {
+			SimMotion motion = running.get(i);
+			if (!motion.isHold() && motion.segment.isCartesian()) {
+				// Cartesian motions never overlap with joint motions, they move the settled joints directly
+				motion.interpolate(motion.progress(), motion.pose);
+				if (kinematics.inverse(motion.pose, motion.armAngle, motion.status, settled)) {
+					System.arraycopy(settled, 0, planned, 0, 7);
+				}
+			}
+		}
+		for (int j = 0; j < 7; j++) {
+			joints[j] = settled[j];
+		}
+		for (int i = 0; i < running.size(); i++) {
+			SimMotion motion = running.get(i);
+			if (motion.isHold() || motion.segment.isCartesian()) {
+				continue;
+			}
+			double s = motion.progress();
+			for (int j = 0; j < 7; j++) {
+				joints[j] += motion.delta[j] * s;
+			}
+			if (motion.segment.isContact()) {
+				load = contactForce * clamp((s - 0.9) / 0.1);
+			} else if (motion.number > contactMotion) {
+				// only motions started after the contact pose release the load
+				load = Math.min(load, contactForce * clamp(1 - s / 0.1));
+			}
+		}
+		contactLoad = load;
+		updateFlange();
+		// a motion ends no earlier than the one it blends out of
+		boolean blending = false;
+		for (int i = 0; i < running.size(); i++) {
+			SimMotion motion = running.get(i);
+			if (motion.isHold()) {
+				continue;
+			}
+			if (blending || now - motion.startTime < motion.duration) {
+				blending = true;
+			} else {
+				if (!motion.segment.isCartesian()) {
+					for (int j = 0; j < 7; j++) {
+						settled[j] += motion.delta[j];
+					}
+				}
+				running.remove(i--);
+				release(motion);
+			}
+		}
+		updateContact();
+		for (int i = 0; i < watches.size(); i++) {
+			watches.get(i).check();
+		}
+		for (int i = 0; i < recorders.size(); i++) {
+			recorders.get(i).check();
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			SimTask task = tasks.get(i);
+			if (now >= task.next) {
+				task.next += task.period;
+				task.task.run();
+			}
+		}
+		for (int i = 0; i < sleepers.size(); i++) {
+			Sleeper sleeper = sleepers.get(i);
+			if (now >= sleeper.wakeTime) {
+				sleepers.remove(i--);
+				release(sleeper);
+			}
+		}
+	}
+
+	private void updateFlange() {
+		kinematics.forward(joints, flange);
+		System.arraycopy(flange, 0, commandedXyz, 0, 3);
+	}
+
+	/**
+	 * Computes the contact force and the deflection of an impedance controlled flange.
+	 * Surface and flange stiffness along the normal act as two springs in series.
+	 */
+	private void updateContact() {
+		double stiffness = Double.POSITIVE_INFINITY;
+		if (mode != null) {
+			double[] n = surfaceNormal;
+			stiffness = 1 / (n[0] * n[0] / mode.getStiffnessX() + n[1] * n[1] / mode.getStiffnessY()
+					+ n[2] * n[2] / mode.getStiffnessZ()) / 1000;
+		}
+		double surfaceForce = 0;
+		if (surfacePoint != null) {
+			double penetration = 0;
+			double along = 0;
+			double distance = 0;
+			for (int k = 0; k < 3; k++) {
+				penetration -= (commandedXyz[k] - surfacePoint[k]) * surfaceNormal[k];
+				double d = commandedXyz[k] - holeCenter[k];
+				along += d * surfaceNormal[k];
+				distance += d * d;
+			}
+			if (holeRadius > 0 && distance - along * along < holeRadius * holeRadius) {
+				penetration -= holeDepth;
+			}
+			if (penetration > 0) {
+				surfaceForce = Double.isInfinite(stiffness) ? surfaceStiffness * penetration
+						: penetration * surfaceStiffness * stiffness / (surfaceStiffness + stiffness);
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			force[k] = surfaceNormal[k] * surfaceForce;
+			currentXyz[k] = commandedXyz[k]
+					+ (Double.isInfinite(stiffness) ? 0 : surfaceNormal[k] * surfaceForce / stiffness);
+		}
+		force[2] += contactLoad;
+	}
+
+	private void readLocked(Channel channel, double[] values, int offset) {
+		switch (channel) {
+		case CARTESIAN_FORCE:
+			System.arraycopy(force, 0, values, offset, 3);
+			break;
+		case CARTESIAN_TORQUE:
+			values[offset] = values[offset + 1] = values[offset + 2] = 0;
+			break;
+		case INTERNAL_JOINT_TORQUE:
+		case EXTERNAL_JOINT_TORQUE:
+			for (int i = 0; i < 7; i++) {
+				values[offset + i] = 0;
+			}
+			break;
+		case COMMANDED_XYZ:
+			System.arraycopy(commandedXyz, 0, values, offset, 3);
+			break;
+		case CURRENT_XYZ:
+			System.arraycopy(currentXyz, 0, values, offset, 3);
+			break;
+		}
+	}
+
+	private double magnitude() {
+		return Math.sqrt(force[0] * force[0] + force[1] * force[1] + force[2] * force[2]);
+	}
+
+	private static double clamp(double value) {
+		return value < 0 ? 0 : value > 1 ? 1 : value;
+	}
+
+	/**
+	 * Duration of a segment in the model without blending, e.g. to compare with the
+	 * duration measured on the robot.
+	 *
+	 * @param start joints at the start of the segment [rad]
+	 * @param startXyz flange position at the start [mm], only used by splines
+	 * @return duration [ns]
+	 */
+	public static long plannedDuration(Segment segment, double[] start, double[] startXyz) {
+		double longest = 0;
+		if (segment.isCartesian()) {
+			double distance = 0;
+			double[] from = startXyz;
+			for (double[] point : segment.getPath()) {
+				double length = 0;
+				double[] to = new double[3];
+				for (int k = 0; k < 3; k++) {
+					to[k] = Double.isNaN(point[k]) ? startXyz[k] : point[k];
+					length += (to[k] - from[k]) * (to[k] - from[k]);
+				}
+				distance += Math.sqrt(length);
+				from = to;
+			}
+			double velocity = Double.isNaN(segment.getCartVelocity()) ? defaultCartVelocity : segment.getCartVelocity();
+			longest = profileTime(distance, velocity, cartAcceleration);
+		} else {
+			for (int j = 0; j < 7; j++) {
+				longest = Math.max(longest, profileTime(Math.abs(segment.getJoints()[j] - start[j]),
+						Math.toRadians(maxJointVelocity[j]) * segment.getJointVelocityRel(),
+						Math.toRadians(maxJointAcceleration[j]) * segment.getJointAccelerationRel()));
+			}
+		}
+		return (long) (longest * 1e9);
+	}
+
+	/**
+	 * Time from the start of a point-to-point segment until the next motion starts.
+	 *
+	 * @param start joints at the start of the segment [rad]
+	 * @param blendingRel relative blending of the segment, 0 waits until it has finished
+	 * @return [ns]
+	 */
+	public static long plannedBlendStart(Segment segment, double[] start, double blendingRel) {
+		double longest = 0;
+		double accelTime = 0;
+		for (int j = 0; j < 7; j++) {
+			double distance = Math.abs(segment.getJoints()[j] - start[j]);
+			double velocity = Math.toRadians(maxJointVelocity[j]) * segment.getJointVelocityRel();
+			double acceleration = Math.toRadians(maxJointAcceleration[j]) * segment.getJointAccelerationRel();
+			double time = profileTime(distance, velocity, acceleration);
+			if (time > longest) {
+				longest = time;
+				accelTime = rampTime(distance, velocity, acceleration);
+			}
+		}
+		double lower = 0;
+		double upper = longest;
+		if (blendingRel > 0) {
+			// the profile rises monotonically, bisect for the start of the blending zone
+			for (int i = 0; i < 40; i++) {
+				double t = (lower + upper) / 2;
+				if (trapezoid(t, longest, accelTime) >= 1 - blendingRel) {
+					upper = t;
+				} else {
+					lower = t;
+				}
+			}
+		}
+		return (long) (upper * 1e9);
+	}
+
+	/**
+	 * @return duration of a trapezoidal velocity profile over the distance [s]
+	 */
+	private static double profileTime(double distance, double velocity, double acceleration) {
+		if (distance >= velocity * velocity / acceleration) {
+			return distance / velocity + velocity / acceleration;
+		}
+		return 2 * Math.sqrt(distance / acceleration);
+	}
+
+	/**
+	 * @return acceleration phase of a trapezoidal velocity profile over the distance [s]
+	 */
+	private static double rampTime(double distance, double velocity, double acceleration) {
+		if (distance >= velocity * velocity / acceleration) {
+			return velocity / acceleration;
+		}
+		return Math.sqrt(distance / acceleration);
+	}
+
+	/**
+	 * Normalised trapezoidal profile which reaches 1 after {@code duration} seconds and
+	 * accelerates for {@code accelTime} seconds.
+	 */
+	private static double trapezoid(double t, double duration, double accelTime) {
+		if (t >= duration) {
+			return 1;
+		}
+		double peak = 1 / (duration - accelTime);
+		if (t < accelTime) {
+			return 0.5 * peak / accelTime * t * t;
+		}
+		if (t < duration - accelTime) {
+			return peak * (t - accelTime / 2);
+		}
+		double rest = duration - t;
+		return 1 - 0.5 * peak / accelTime * rest * rest;
+	}
+
+	/**
+	 * Something an application thread can wait for.
+	 */
+	private static class Waitable {
+		boolean released;
+		int waiters;
+	}
+
+	private static class Sleeper extends Waitable {
+		final long wakeTime;
+
+		Sleeper(long wakeTime) {
+			this.wakeTime = wakeTime;
+		}
+	}
+
+	private class SimTask implements ScheduledTask {
+
+		final Runnable task;
+		final long period;
+		long next;
+
+		SimTask(Runnable task, long period) {
+			this.task = task;
+			this.period = period;
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (lock) {
+				tasks.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * A queued or running motion; a motion without segment is a position hold.
+	 */
+	private class SimMotion extends Waitable implements MotionHandle {
+
+		final Segment segment;
+		final Impedance motionMode;
+		final double[] delta = new double[7];
+		double[][] points;
+		double[] lengths;
+		double[] pose;
+		double armAngle;
+		int status;
+		long startTime;
+		int number;
+		long duration;
+		double accelTime;
+
+		/**
+		 * @param motionMode control mode of the motion, {@code null} for position control
+		 */
+		SimMotion(Segment segment, Impedance motionMode) {
+			this.segment = segment;
+			this.motionMode = motionMode;
+		}
+
+		boolean isHold() {
+			return segment == null;
+		}
+
+		void start() {
+			startTime = now;
+			number = started++;
+			mode = motionMode;
+			if (isHold()) {
+				return;
+			}
+			if (segment.isCartesian()) {
+				startPath();
+				return;
+			}
+			if (segment.isContact()) {
+				contactMotion = number;
+			}
+			double[] target = segment.getJoints();
+			double longest = 0;
+			for (int j = 0; j < 7; j++) {
+				delta[j] = target[j] - planned[j];
+				planned[j] = target[j];
+				double distance = Math.abs(delta[j]);
+				if (distance == 0) {
+					continue;
+				}
+				double velocity = Math.toRadians(maxJointVelocity[j]) * segment.getJointVelocityRel();
+				double acceleration = Math.toRadians(maxJointAcceleration[j]) * segment.getJointAccelerationRel();
+				double time = profileTime(distance, velocity, acceleration);
+				if (time > longest) {
+					longest = time;
+					accelTime = rampTime(distance, velocity, acceleration);
+				}
+			}
+			duration = (long) (longest * 1e9);
+		}
+
+		private void startPath() {
+			double[][] path = segment.getPath();
+			pose = flange.clone();
+			armAngle = kinematics.armAngle(joints);
+			status = LbrKinematics.status(joints);
+			points = new double[path.length + 1][3];
+			lengths = new double[path.length + 1];
+			System.arraycopy(commandedXyz, 0, points[0], 0, 3);
+			for (int i = 0; i < path.length; i++) {
+				double length = 0;
+				for (int k = 0; k < 3; k++) {
+					points[i + 1][k] = Double.isNaN(path[i][k]) ? commandedXyz[k] : path[i][k];
+					double d = points[i + 1][k] - points[i][k];
+					length += d * d;
+				}
+				lengths[i + 1] = lengths[i] + Math.sqrt(length);
+			}
+			double distance = lengths[path.length];
+			double velocity = Double.isNaN(segment.getCartVelocity()) ? defaultCartVelocity : segment.getCartVelocity();
+			accelTime = rampTime(distance, velocity, cartAcceleration);
+			duration = (long) (profileTime(distance, velocity, cartAcceleration) * 1e9);
+		}
+
+		/**
+		 * @return normalised progress along the motion at the current time
+		 */
+		double progress() {
+			if (duration == 0) {
+				return 1;
+			}
+			return trapezoid((now - startTime) / 1e9, duration / 1e9, accelTime);
+		}
+
+		/**
+		 * Writes the point of the path at normalised progress s into xyz.
+		 */
+		void interpolate(double s, double[] xyz) {
+			double distance = s * lengths[lengths.length - 1];
+			int i = 1;
+			while (i < lengths.length - 1 && lengths[i] < distance) {
+				i++;
+			}
+			double length = lengths[i] - lengths[i - 1];
+			double f = length == 0 ? 1 : (distance - lengths[i - 1]) / length;
+			for (int k = 0; k < 3; k++) {
+				xyz[k] = points[i - 1][k] + f * (points[i][k] - points[i - 1][k]);
+			}
+		}
+
+		/**
+		 * Whether the next joint motion may start now, i.e. this motion is blended and
+		 * has entered its blending zone. Blending needs both motions in the same mode.
+		 */
+		boolean blendsInto(SimMotion next) {
+			if (isHold() || next.isHold() || segment.isCartesian() || next.segment.isCartesian()) {
+				return false;
+			}
+			return segment.getBlendingRel() > 0 && segment.getMode() == next.segment.getMode()
+					&& progress() >= 1 - segment.getBlendingRel();
+		}
+
+		@Override
+		public void await() {
+			synchronized (lock) {
+				waitFor(this);
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (lock) {
+				if (released) {
+					return;
+				}
+				if (!pending.remove(this) && running.remove(this) && !isHold() && !segment.isCartesian()) {
+					// freeze the joints where they are and re-plan from there
+					double s = progress();
+					for (int j = 0; j < 7; j++) {
+						settled[j] += delta[j] * s;
+						planned[j] = settled[j];
+					}
+					for (int i = 0; i < running.size(); i++) {
+						SimMotion other = running.get(i);
+						if (!other.isHold() && !other.segment.isCartesian()) {
+							for (int j = 0; j < 7; j++) {
+								planned[j] += other.delta[j];
+							}
+						}
+					}
+				}
+				release(this);
+			}
+		}
+
+		@Override
+		public boolean isFinished() {
+			synchronized (lock) {
+				return released;
+			}
+		}
+	}
+
+	/**
+	 * Spatial force condition evaluated in every controller step.
+	 */
+	private class SimWatch implements ForceWatch {
+
+		final double threshold;
+		final ForceListener listener;
+		boolean above;
+		boolean notifying;
+		int missed;
+
+		SimWatch(double threshold, ForceListener listener) {
+			this.threshold = threshold;
+			this.listener = listener;
+		}
+
+		@Override
+		public void enable() {
+			synchronized (lock) {
+				if (!watches.contains(this)) {
+					// only edges after enabling are reported
+					above = magnitude() >= threshold;
+					watches.add(this);
+				}
+			}
+		}
+
+		@Override
+		public void disable() {
+			synchronized (lock) {
+				watches.remove(this);
+			}
+		}
+
+		void check() {
+			boolean wasAbove = above;
+			above = magnitude() >= threshold;
+			if (!above || wasAbove) {
+				return;
+			}
+			if (notifying) {
+				missed++;
+				return;
+			}
+			notifying = true;
+			final long time = now;
+			final int missedEvents = missed;
+			missed = 0;
+			busy++;
+			observerThread.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						listener.onForce(time, missedEvents);
+					} finally {
+						synchronized (lock) {
+							notifying = false;
+							busy--;
+							lock.notifyAll();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes the recorded channels as tab separated text, one line per sample.
+	 */
+	private class SimRecorder implements Recorder {
+
+		final String name;
+		final long timeout;
+		final long interval;
+		final List<Channel> channels = new ArrayList<Channel>();
+		final StringBuilder line = new StringBuilder();
+		double[] sample;
+		boolean enabled;
+		long started;
+		long nextSample;
+		File file;
+		Writer out;
+
+		SimRecorder(String name, long timeout, long interval) {
+			this.name = name;
+			this.timeout = timeout;
+			this.interval = interval;
+		}
+
+		@Override
+		public void addChannel(Channel channel) {
+			channels.add(channel);
+		}
+
+		@Override
+		public void enable() {
+			int width = 0;
+			for (Channel channel : channels) {
+				width += channel.getWidth();
+			}
+			sample = new double[width];
+			enabled = true;
+		}
+
+		@Override
+		public void startRecording() {
+			if (!enabled) {
+				throw new IllegalStateException("Recorder " + name + " is not enabled");
+			}
+			synchronized (lock) {
+				File directory = new File(System.getProperty("java.io.tmpdir"), "simulatedRecordings");
+				directory.mkdirs();
+				file = new File(directory, name + "_" + (recordings++) + ".log");
+				try {
+					out = new FileWriter(file);
+					line.setLength(0);
+					line.append("time[ms]");
+					for (Channel channel : channels) {
+						for (int i = 0; i < channel.getWidth(); i++) {
+							line.append('\t').append(channel.columnName(i));
+						}
+					}
+					out.write(line.append('\n').toString());
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot write " + file, e);
+				}
+				started = now;
+				nextSample = now;
+				recorders.add(this);
+			}
+		}
+
+		@Override
+		public void stopRecording() {
+			synchronized (lock) {
+				stop();
+			}
+		}
+
+		@Override
+		public URL getURL() {
+			try {
+				return file == null ? null : file.toURI().toURL();
+			} catch (MalformedURLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void check() {
+			if (now - started > timeout) {
+				stop();
+				return;
+			}
+			if (now < nextSample) {
+				return;
+			}
+			nextSample += interval;
+			int offset = 0;
+			for (int i = 0; i < channels.size(); i++) {
+				Channel channel = channels.get(i);
+				readLocked(channel, sample, offset);
+				offset += channel.getWidth();
+			}
+			line.setLength(0);
+			line.append((now - started) / 1000000);
+			for (int i = 0; i < sample.length; i++) {
+				line.append('\t').append(sample[i]);
+			}
+			try {
+				out.write(line.append('\n').toString());
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot write " + file, e);
+			}
+		}
+
+		private void stop() {
+			if (!recorders.remove(this)) {
+				return;
+			}
+			try {
+				out.close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot write " + file, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package deliaApplication;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Replays one of the application programs on a {@link SimulatedCell} and reports the
+ * simulated cycle time.
+ * <p>
+ * Usage: {@code SimulationRunner [program] [cycles] [timeScale] [breakdown]} where
+ * program is one of pickAndPlace, which runs with the defaults of the application (exact
+ * stops, 10 % joint velocity everywhere), one of its variants enabling a single feature,
+ * or listener, compliance, complianceSweep (the compliance line for a grid of impedance
+ * parameters) or straightLineTraj. The variants are pickAndPlaceBlended (via-points
+ * blended), pickAndPlaceScheduled (the velocity schedule), pickAndPlacePressOn (hold at
+ * suction ended by the press-on force instead of the operator), pickAndPlaceDetector
+ * (the online contact detector), pickAndPlaceOptimized (via-points merged by the
+ * {@link PathOptimizer}), pickAndPlaceSearch (the hole 2 mm off pushInNew, found by the
+ * {@link InsertionSearch}) and pickAndPlaceGrid (a 2 x 3 grid of rivets per cycle). A
+ * time scale of 0 runs as fast as possible, 1 runs in real time.
+ * If a breakdown file is given, the program runs on an {@link InstrumentedCell}, which
+ * writes the per-cycle breakdown of every motion to the file as CSV and prints a
+ * summary of where the cycle time goes.
+ */
+public class SimulationRunner {
+
+	private static final double blendingRel = 0.2;
+	private static final double fixedVelocityRel = 0.1; // the defaults of pickAndPlace
+	private static final double pathTolerance = 30; // mm
+	private static final double plateThickness = 5; // mm from the plate surface to the seated rivet
+	private static final double holeOffset = 2; // mm between the hole and the taught pushInNew
+	private static final double holeCapture = 0.5; // mm off the axis of the hole from which the rivet drops in
+
+	public static void main(String[] args) throws IOException {
+		String program = args.length > 0 ? args[0] : "pickAndPlace";
+		int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		double timeScale = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+		File breakdown = args.length > 3 ? new File(args[3]) : null;
+
+		SimulatedCell cell = new SimulatedCell(timeScale);
+		cell.setVerbose(cycles == 1);
+		InstrumentedCell instrumented = null;
+		if (breakdown != null) {
+			instrumented = new InstrumentedCell(cell);
+			instrumented.setJointPosition(new double[7]); // the model starts stretched out
+		}
+
+		if (program.equals("listener")) {
+			cell.setSurface(580, 20);
+		} else if (program.equals("compliance") || program.equals("complianceSweep")
+				|| program.equals("straightLineTraj")) {
+			cell.setSurface(280, 20);
+		} else if (program.equals("pickAndPlaceSearch")) {
+			drillPlate(cell);
+		}
+
+		double[] cycleTimes = new double[cycles];
+		long wallStart = System.nanoTime();
+		for (int i = 0; i < cycles; i++) {
+			long start = cell.nanoTime();
+			if (instrumented != null) {
+				runProgram(program, instrumented);
+				instrumented.nextCycle();
+			} else {
+				runProgram(program, cell);
+			}
+			cycleTimes[i] = (cell.nanoTime() - start) / 1e9;
+		}
+		double wallTime = (System.nanoTime() - wallStart) / 1e9;
+		if (instrumented != null) {
+			instrumented.close();
+		}
+		cell.close();
+
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for (double cycleTime : cycleTimes) {
+			sum += cycleTime;
+			min = Math.min(min, cycleTime);
+			max = Math.max(max, cycleTime);
+		}
+		System.out.println(String.format("%s: %d cycles, cycle time mean %.3f s, min %.3f s, max %.3f s",
+				program, cycles, sum / cycles, min, max));
+		System.out.println(String.format("simulated %.1f s in %.2f s wall-clock (x%.0f)",
+				sum, wallTime, sum / wallTime));
+		if (instrumented != null) {
+			System.out.print(instrumented.getSummary());
+			Writer writer = new BufferedWriter(new FileWriter(breakdown));
+			try {
+				instrumented.writeBreakdown(writer);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Puts a plate across the taught insertion of pickAndPlace whose hole is off the
+	 * taught pose, instead of the contact force at the end of the insertion.
+	 */
+	private static void drillPlate(SimulatedCell cell) {
+		double[][] line = PickAndPlaceCycle.insertionLine();
+		double[] seated = line[1];
+		double[] normal = new double[3];
+		for (int k = 0; k < 3; k++) {
+			normal[k] = line[0][k] - seated[k];
+		}
+		double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+		double[] surface = new double[3];
+		double[] hole = new double[3];
+		for (int k = 0; k < 3; k++) {
+			normal[k] /= length;
+			surface[k] = seated[k] + normal[k] * plateThickness;
+		}
+		// sideways in the horizontal plane
+		double side = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]);
+		hole[0] = seated[0] - holeOffset * normal[1] / side;
+		hole[1] = seated[1] + holeOffset * normal[0] / side;
+		hole[2] = seated[2];
+		cell.setSurface(surface, normal, 50);
+		cell.setHole(hole, holeCapture, plateThickness);
+		cell.setContactForce(0);
+	}
+
+	/**
+	 * @return the cycle pickAndPlace runs with every feature off
+	 */
+	private static PickAndPlaceCycle cycle(RobotCell cell) {
+		return new PickAndPlaceCycle(cell, 0, PickAndPlaceCycle.createRecorder(cell, null),
+				VelocitySchedule.fixed(fixedVelocityRel));
+	}
+
+	private static void runProgram(String program, RobotCell cell) {
+		if (program.equals("pickAndPlace")) {
+			cycle(cell).run();
+		} else if (program.equals("pickAndPlaceBlended")) {
+			new PickAndPlaceCycle(cell, blendingRel, PickAndPlaceCycle.createRecorder(cell, null),
+					VelocitySchedule.fixed(fixedVelocityRel)).run();
+		} else if (program.equals("pickAndPlaceScheduled")) {
+			new PickAndPlaceCycle(cell, 0, PickAndPlaceCycle.createRecorder(cell, null), VelocitySchedule.load()).run();
+		} else if (program.equals("pickAndPlacePressOn")) {
+			PickAndPlaceCycle cycle = cycle(cell);
+			cycle.setGripConfirmation(GripConfirmation.byPressOn(cell, 5));
+			cycle.run();
+		} else if (program.equals("pickAndPlaceDetector")) {
+			PickAndPlaceCycle cycle = cycle(cell);
+			cycle.setContactDetector(new ContactDetector());
+			cycle.run();
+		} else if (program.equals("pickAndPlaceOptimized")) {
+			PickAndPlaceCycle cycle = cycle(cell);
+			cycle.setPathOptimizer(new PathOptimizer(pathTolerance, blendingRel));
+			cycle.run();
+		} else if (program.equals("pickAndPlaceSearch")) {
+			PickAndPlaceCycle cycle = cycle(cell);
+			cycle.setInsertionSearch(new InsertionSearch());
+			cycle.run();
+		} else if (program.equals("pickAndPlaceGrid")) {
+			RivetLayout rivets = new RivetLayout(new double[][]{{0, 0, 0}},
+					RivetLayout.grid(2, 3, new double[]{0, 0, -20}, new double[]{-12.4, -15.6, 0}));
+			new PickAndPlaceCycle(cell, 0, PickAndPlaceCycle.createRecorder(cell, null, rivets),
+					VelocitySchedule.fixed(fixedVelocityRel)).runBatch(rivets);
+		} else if (program.equals("listener")) {
+			new PushDownProgram(cell).run();
+		} else if (program.equals("compliance")) {
+			StraightLineProgram.compliance(cell).run();
+		} else if (program.equals("complianceSweep")) {
+			StraightLineProgram.compliance(cell).run(ImpedanceSweep.grid(
+					new double[][]{{2500, 2500, 300}, {2500, 2500, 1000}, {2500, 2500, 2500}},
+					new double[]{0.3, 0.7, 1}, new double[]{100, 250}, new double[]{0.5}));
+		} else if (program.equals("straightLineTraj")) {
+			StraightLineProgram.straightLineTraj(cell).run();
+		} else {
+			throw new IllegalArgumentException("Unknown program " + program);
+		}
+	}
+}
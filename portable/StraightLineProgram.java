@@ -0,0 +1,246 @@
+package deliaApplication;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves home and then along a straight line in Cartesian impedance control while
+ * recording forces and positions. This is the sequence of the {@link Compliance} and
+ * {@link straightLineTraj} applications, which only differ in their stiffness, the
+ * line and the recorded channels.
+ */
+public class StraightLineProgram {
+
+	final static double corner=Math.toRadians(90);
+	
+	private static double[] homePosition=new double[]{0,0,0,-corner,0,corner,0};
+
+	private static final double cartVelocity = 250; // mm/s
+	private static final double jointJerkRel = 0.5;
+	private static final double clearance = 50; // mm above the line between sweep trials
+	private static final double endTolerance = 1; // mm
+
+	private final RobotCell cell;
+	private final String recordingName;
+	private final Impedance impedanceControlMode;
+	private final double[] downward;
+	private final double[] forward;
+	private final Channel[] channels;
+	private final boolean recordHoming;
+	private final VelocitySchedule schedule = VelocitySchedule.load();
+	private Segment returnHome;
+	private Segment straightLine;
+	private ImpedanceSweep preparedSweep;
+	private Segment approachLine;
+	private Segment nextTrial;
+	private Segment[] trialLines;
+
+	/**
+	 * @param downward first point of the line, X/Y/Z in the root frame [mm], NaN keeps the start value
+	 * @param forward end point of the line
+	 * @param recordHoming whether the recording already starts before moving home
+	 */
+	public StraightLineProgram(RobotCell cell, String recordingName, Impedance impedanceControlMode,
+			double[] downward, double[] forward, Channel[] channels, boolean recordHoming) {
+		this.cell = cell;
+		this.recordingName = recordingName;
+		this.impedanceControlMode = impedanceControlMode;
+		this.downward = downward;
+		this.forward = forward;
+		this.channels = channels;
+		this.recordHoming = recordHoming;
+	}
+
+	/**
+	 * Parameters of the {@link Compliance} application, soft along Z.
+	 */
+	public static StraightLineProgram compliance(RobotCell cell) {
+		int stiffnessZ = 300; // isolate freedom along z-axis only
+		int stiffnessY = 2500;
+		int stiffnessX = 2500;
+		return new StraightLineProgram(cell, "28MayTest", new Impedance(stiffnessX, stiffnessY, stiffnessZ),
+				new double[]{-120, 0, 275}, new double[]{-300, 0, 275},
+				new Channel[]{Channel.CARTESIAN_FORCE, Channel.COMMANDED_XYZ, Channel.CURRENT_XYZ}, false);
+	}
+
+	/**
+	 * Parameters of the {@link straightLineTraj} application.
+	 */
+	public static StraightLineProgram straightLineTraj(RobotCell cell) {
+		int stiffnessZ = 2500;
+		int stiffnessY = 700;
+		int stiffnessX = 1500;
+		return new StraightLineProgram(cell, "7MayCartesian", new Impedance(stiffnessX, stiffnessY, stiffnessZ),
+				new double[]{Double.NaN, Double.NaN, 250}, new double[]{-300, 0, 250},
+				Channel.values(), true);
+	}
+
+	/**
+	 * Builds and validates the motions of {@link #run()} before the arm moves, see
+	 * {@link MotionPlanner}. Called by {@link #run()} if it has not been called before.
+	 */
+	public void prepare() {
+		MotionPlanner planner = new MotionPlanner(cell, null);
+		returnHome = planner.plan(homeSegment());
+		straightLine = planner.plan(straightLineTrajectory(
+				new ImpedanceSweep.Trial(impedanceControlMode, cartVelocity, jointJerkRel)));
+	}
+
+	/**
+	 * @return location of the data recorder file
+	 */
+	public URL run() {
+		if (returnHome == null) {
+			prepare();
+		}
+
+		/*
+		 * Initialising the data recorder and setting what to record
+		 */
+		Recorder blackBox = createRecorder(recordingName);
+		
+		/*
+		 * Begin recording data and return to starting (home) position
+		 */
+		if (recordHoming) {
+			blackBox.startRecording();
+		}
+		moveHome();
+		if (!recordHoming) {
+			blackBox.startRecording();
+		}
+		
+		/*
+		 * Execute the planned straight line motion using the defined impedance controller
+		 */
+		cell.log("Execute straight line motion");
+		cell.move(straightLine);
+		blackBox.stopRecording();
+		
+		return blackBox.getURL();
+	}
+
+	/**
+	 * Builds and validates the motions of every trial of the sweep before the arm moves.
+	 * Called by {@link #run(ImpedanceSweep)} if it has not been called for the sweep.
+	 */
+	public void prepare(ImpedanceSweep sweep) {
+		MotionPlanner planner = new MotionPlanner(cell, null);
+		returnHome = planner.plan(homeSegment());
+		approachLine = Segment.spline(above(downward)).setTaught(true).setName("approachLine");
+		planner.plan(schedule.apply(approachLine, null));
+		double[] atStart = planner.getJoints();
+		trialLines = new Segment[sweep.size()];
+		for (int i = 0; i < trialLines.length; i++) {
+			planner = new MotionPlanner(cell, atStart);
+			trialLines[i] = planner.plan(straightLineTrajectory(sweep.getTrials().get(i)));
+		}
+		// a start relative to home can only be reached again from home
+		double[] end = end();
+		if (end != null) {
+			nextTrial = Segment.spline(new double[]{Double.NaN, Double.NaN, end[2] + clearance}, above(downward))
+					.setTaught(true).setName("nextTrial");
+			planner.plan(schedule.apply(nextTrial, null));
+		} else {
+			nextTrial = null;
+		}
+		preparedSweep = sweep;
+	}
+
+	/**
+	 * Runs the straight line once per trial of the sweep, each with its own recording
+	 * named after the trial. The impedance controller of the program is not used.
+	 * <p>
+	 * Each recording starts {@value #clearance} mm above the first point of the line,
+	 * reached in position control. The robot only moves home again when a trial did not
+	 * end at the end of the line or the line starts relative to the home position;
+	 * otherwise it lifts off and moves straight to the start of the next trial.
+	 *
+	 * @return location of the recording of every trial
+	 */
+	public List<URL> run(ImpedanceSweep sweep) {
+		if (preparedSweep != sweep) {
+			prepare(sweep);
+		}
+		List<URL> recordings = new ArrayList<URL>(sweep.size());
+		double[] end = end();
+		double[] flange = new double[3];
+		boolean atEnd = false;
+		for (int i = 0; i < trialLines.length; i++) {
+			ImpedanceSweep.Trial trial = sweep.getTrials().get(i);
+			cell.log("Trial " + (i + 1) + " of " + sweep.size() + ": " + trial.getTag());
+			if (atEnd) {
+				cell.move(nextTrial);
+			} else {
+				moveHome();
+				cell.move(approachLine);
+			}
+
+			Recorder blackBox = createRecorder(recordingName + "_" + trial.getTag());
+			blackBox.startRecording();
+			cell.move(trialLines[i]);
+			blackBox.stopRecording();
+			recordings.add(blackBox.getURL());
+
+			if (end != null) {
+				// read in the root frame, so a station whose world frame is offset goes home between trials
+				cell.read(Channel.COMMANDED_XYZ, flange, 0);
+				double dx = flange[0] - end[0];
+				double dy = flange[1] - end[1];
+				double dz = flange[2] - end[2];
+				atEnd = dx * dx + dy * dy + dz * dz <= endTolerance * endTolerance;
+			}
+		}
+		return recordings;
+	}
+
+	/**
+	 * @return end point of the line, {@code null} if it depends on the home position
+	 */
+	private double[] end() {
+		for (double value : downward) {
+			if (Double.isNaN(value)) {
+				return null;
+			}
+		}
+		double[] end = new double[3];
+		for (int k = 0; k < 3; k++) {
+			end[k] = Double.isNaN(forward[k]) ? downward[k] : forward[k];
+		}
+		return end;
+	}
+
+	private Recorder createRecorder(String name) {
+		Recorder blackBox = cell.createRecorder(name,45,TimeUnit.SECONDS,100);
+		for (Channel channel : channels) {
+			blackBox.addChannel(channel);
+		}
+		blackBox.enable();
+		return blackBox;
+	}
+
+	/**
+	 * @return the homing of the recorded experiments, whose pre-roll it is part of
+	 */
+	private Segment homeSegment() {
+		return Segment.ptp(homePosition).setJointVelocityRel(0.3).setName("returnHome");
+	}
+
+	private void moveHome() {
+		cell.log("Move to home position");
+		cell.move(returnHome);
+		cell.log("At home");
+	}
+
+	private Segment straightLineTrajectory(ImpedanceSweep.Trial trial) {
+		return Segment.spline(downward, forward).setTaught(true).setName("straightLine")
+				.setJointJerkRel(trial.getJointJerkRel()).setCartVelocity(trial.getCartVelocity())
+				.setJointVelocityRel(0.15).setMode(trial.getMode());
+	}
+
+	private static double[] above(double[] point) {
+		return new double[]{point[0], point[1], point[2] + clearance};
+	}
+}
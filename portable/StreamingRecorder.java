@@ -0,0 +1,401 @@
+package deliaApplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Continuous recorder without the time limit of the DataRecorder.
+ * <p>
+ * The channels are sampled by a task scheduled on the cell, by default every
+ * millisecond, into a {@link TelemetryRing}. The sampling task only copies into
+ * preallocated arrays; the Sunrise sensor calls themselves still return new objects. A
+ * writer thread spills the ring into memory-mapped segment files of fixed size,
+ * {@code <name>_<n>.seg}, so the recording length is only bounded by the disk. The
+ * numbering continues after the files earlier runs left in the directory, and an
+ * existing file is never overwritten. If the writer falls more than a ring length
+ * behind, the overwritten samples are counted as lost instead of stalling the sampling.
+ * <p>
+ * Recording can be stopped and started again; the samples of all recordings go into
+ * the same segments until {@link #close()} is called. If the writer fails, the failure
+ * is logged on the cell and thrown from {@link #stopRecording()} and {@link #close()}.
+ * <p>
+ * For long-term storage the writer can compress instead, see
+ * {@link #setCompression(double)}: it then appends to {@link CompressedLogWriter} files
+ * {@code <name>_<n>.glg} of at most the segment size, block by block while recording,
+ * and a file cut short by a power loss is readable up to its last complete block.
+ * <p>
+ * Segment layout, little endian: a header of {@value #headerSize} bytes holding the magic
+ * number, the format version, the number of records, the number of values per record,
+ * the number of channels and their ordinals in {@link Channel}, followed by records of
+ * one long time stamp [ns] and the channel values as doubles.
+ */
+public class StreamingRecorder implements Recorder {
+
+	static final int magic = 0x544C4D31; // "TLM1"
+	static final int version = 1;
+	static final int headerSize = 128;
+	static final int countOffset = 8;
+	static final int maxChannels = 16;
+
+	private static final int defaultRingCapacity = (1 << 14) - 1; // samples, 16 s at 1 kHz
+	private static final long defaultSegmentSize = 64L << 20;
+
+	private final RobotCell cell;
+	private final File directory;
+	private final String name;
+	private final long period;
+	private final long segmentSize;
+	private boolean compressed;
+	private double resolution;
+	private final List<Channel> channelList = new ArrayList<Channel>();
+	private Channel[] channels;
+	private double[] sample;
+	private TelemetryRing ring;
+	private ScheduledTask sampler;
+	private Thread writer;
+	private volatile boolean writing;
+	private volatile long lost;
+	private volatile IOException failure;
+
+	// owned by the writer thread
+	private double[] record;
+	private long spilled;
+	private int segmentIndex;
+	private RandomAccessFile segmentFile;
+	private MappedByteBuffer segment;
+	private long segmentRecords;
+	private CompressedLogWriter compressedFile;
+
+	/**
+	 * Samples every millisecond into 64 MB segments.
+	 */
+	public StreamingRecorder(RobotCell cell, File directory, String name) {
+		this(cell, directory, name, 1, TimeUnit.MILLISECONDS, defaultSegmentSize);
+	}
+
+	/**
+	 * @param period sampling period
+	 * @param segmentSize size of one segment file [bytes]
+	 */
+	public StreamingRecorder(RobotCell cell, File directory, String name, long period, TimeUnit unit,
+			long segmentSize) {
+		this.cell = cell;
+		this.directory = directory;
+		this.name = name;
+		this.period = unit.toNanos(period);
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Writes compressed files instead of segments, must be set before recording starts.
+	 *
+	 * @param resolution values are rounded to the power of two at or below it, 0 keeps
+	 *            them exact
+	 */
+	public StreamingRecorder setCompression(double resolution) {
+		if (writer != null) {
+			throw new IllegalStateException("Compression cannot be set while recording");
+		}
+		this.compressed = true;
+		this.resolution = resolution;
+		return this;
+	}
+
+	@Override
+	public void addChannel(Channel channel) {
+		if (channels != null) {
+			throw new IllegalStateException("Channels cannot be added after enable()");
+		}
+		if (channelList.size() == maxChannels) {
+			throw new IllegalArgumentException("At most " + maxChannels + " channels can be recorded");
+		}
+		channelList.add(channel);
+	}
+
+	@Override
+	public void enable() {
+		channels = channelList.toArray(new Channel[channelList.size()]);
+		int width = 0;
+		for (Channel channel : channels) {
+			width += channel.getWidth();
+		}
+		sample = new double[width];
+		record = new double[width];
+		ring = new TelemetryRing(defaultRingCapacity, width);
+	}
+
+	@Override
+	public synchronized void startRecording() {
+		if (ring == null) {
+			throw new IllegalStateException("Recorder " + name + " is not enabled");
+		}
+		if (sampler != null) {
+			return;
+		}
+		if (writer == null) {
+			directory.mkdirs();
+			segmentIndex = nextIndex();
+			writing = true;
+			writer = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					spill();
+				}
+			}, "StreamingRecorder " + name);
+			writer.setDaemon(true);
+			writer.start();
+		}
+		sampler = cell.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+		}, period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @throws IllegalStateException if the writer could not write the samples
+	 */
+	@Override
+	public synchronized void stopRecording() {
+		cancelSampler();
+		checkWriter();
+	}
+
+	private void cancelSampler() {
+		if (sampler != null) {
+			sampler.cancel();
+			sampler = null;
+		}
+	}
+
+	private void checkWriter() {
+		IOException e = failure;
+		if (e != null) {
+			throw new IllegalStateException(e.getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Stops recording, writes the remaining samples and closes the current segment.
+	 *
+	 * @throws IllegalStateException if the writer could not write the samples
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (this) {
+			cancelSampler();
+			thread = writer;
+			writer = null;
+		}
+		if (thread == null) {
+			return;
+		}
+		writing = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		checkWriter();
+	}
+
+	/**
+	 * @return the directory holding the segments
+	 */
+	@Override
+	public URL getURL() {
+		try {
+			return directory.toURI().toURL();
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the in-memory window of the most recent samples, or {@code null} before {@link #enable()}
+	 */
+	public TelemetryRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * @return the channels in the order of the values of a sample, or {@code null} before {@link #enable()}
+	 */
+	public Channel[] getChannels() {
+		return channels == null ? null : channels.clone();
+	}
+
+	/**
+	 * @return samples overwritten in the ring before they could be written to disk
+	 */
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * @return file of the n-th segment, or the n-th compressed file
+	 */
+	public File segmentFile(int index) {
+		return new File(directory, String.format("%s_%06d.%s", name, index, compressed ? "glg" : "seg"));
+	}
+
+	/**
+	 * @return index after the highest one of the files in the directory
+	 */
+	private int nextIndex() {
+		String[] names = directory.list();
+		int next = 0;
+		if (names == null) {
+			return next;
+		}
+		String prefix = name + "_";
+		for (String file : names) {
+			if (file.startsWith(prefix) && (file.endsWith(".seg") || file.endsWith(".glg"))) {
+				String index = file.substring(prefix.length(), file.length() - 4);
+				if (index.matches("\\d+")) {
+					next = Math.max(next, Integer.parseInt(index) + 1);
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Creates the file of the current index, or of the next free one if another process
+	 * has written there meanwhile.
+	 */
+	private File createSegmentFile() throws IOException {
+		File file = segmentFile(segmentIndex);
+		while (!file.createNewFile()) {
+			file = segmentFile(++segmentIndex);
+		}
+		return file;
+	}
+
+	private void sample() {
+		int offset = 0;
+		for (int i = 0; i < channels.length; i++) {
+			cell.read(channels[i], sample, offset);
+			offset += channels[i].getWidth();
+		}
+		ring.append(cell.nanoTime(), sample);
+	}
+
+	/**
+	 * Writer loop, copies the ring into the mapped segments until the recorder is closed.
+	 */
+	private void spill() {
+		try {
+			boolean running = true;
+			while (running) {
+				running = writing;
+				long end = ring.getWritten();
+				if (end - spilled > ring.getCapacity()) {
+					lost += end - spilled - ring.getCapacity();
+					spilled = end - ring.getCapacity();
+				}
+				while (spilled < end) {
+					long time = ring.getTime(spilled);
+					ring.read(spilled, record, 0);
+					if (!ring.isAvailable(spilled)) {
+						lost++;
+					} else {
+						write(time, record);
+					}
+					spilled++;
+				}
+				if (segment != null) {
+					segment.putLong(countOffset, segmentRecords);
+				}
+				if (running && ring.getWritten() == end) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+				}
+			}
+			closeSegment();
+		} catch (IOException e) {
+			failure = new IOException("Cannot write " + segmentFile(segmentIndex), e);
+			cell.log("Recorder " + name + " stopped writing: " + e);
+		}
+	}
+
+	private void write(long time, double[] values) throws IOException {
+		if (compressed) {
+			if (compressedFile != null && compressedFile.getSize() >= segmentSize) {
+				closeSegment();
+			}
+			if (compressedFile == null) {
+				compressedFile = new CompressedLogWriter(createSegmentFile(), columnNames(), 4096, resolution);
+			}
+			compressedFile.append(time, values);
+			return;
+		}
+		int recordSize = 8 + 8 * values.length;
+		if (segment == null || segment.remaining() < recordSize) {
+			closeSegment();
+			openSegment();
+		}
+		segment.putLong(time);
+		for (int i = 0; i < values.length; i++) {
+			segment.putDouble(values[i]);
+		}
+		segmentRecords++;
+	}
+
+	private void openSegment() throws IOException {
+		segmentFile = new RandomAccessFile(createSegmentFile(), "rw");
+		segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		segment.order(ByteOrder.LITTLE_ENDIAN);
+		segment.putInt(magic);
+		segment.putInt(version);
+		segment.putLong(0);
+		segment.putInt(sample.length);
+		segment.putInt(channels.length);
+		for (Channel channel : channels) {
+			segment.putInt(channel.ordinal());
+		}
+		segment.position(headerSize);
+		segmentRecords = 0;
+	}
+
+	private String[] columnNames() {
+		String[] names = new String[sample.length];
+		int column = 0;
+		for (Channel channel : channels) {
+			for (int k = 0; k < channel.getWidth(); k++) {
+				names[column++] = channel.columnName(k);
+			}
+		}
+		return names;
+	}
+
+	private void closeSegment() throws IOException {
+		if (compressedFile != null) {
+			compressedFile.close();
+			compressedFile = null;
+			segmentIndex++;
+			return;
+		}
+		if (segment == null) {
+			return;
+		}
+		segment.putLong(countOffset, segmentRecords);
+		segment.force();
+		segmentFile.close();
+		segment = null;
+		segmentIndex++;
+	}
+}
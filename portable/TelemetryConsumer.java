@@ -0,0 +1,173 @@
+package deliaApplication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Stand-in subscriber of a {@link TelemetryPublisher} for testing.
+ * <p>
+ * Usage: {@code TelemetryConsumer [port] [delay]} connects to the publisher on the
+ * local host and prints once per second how many samples arrived, how many were missing
+ * from the sequence and the latest values. A delay [ms] after every received sample
+ * simulates a slow subscriber, which the publisher has to downsample.
+ */
+public class TelemetryConsumer {
+
+	private final SocketChannel channel;
+	private final ByteBuffer in = ByteBuffer.allocate(64 << 10).order(ByteOrder.LITTLE_ENDIAN);
+	private final Channel[] channels;
+	private final double[] values;
+	private long sequence = -1;
+	private long time;
+	private long received;
+	private long missing;
+
+	/**
+	 * Connects and reads the header.
+	 *
+	 * @throws IOException if the peer is not a telemetry publisher
+	 */
+	public TelemetryConsumer(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open();
+		// small like the buffer of the publisher, so a slow subscriber sees recent samples
+		channel.socket().setReceiveBufferSize(in.capacity());
+		channel.connect(address);
+		in.limit(0);
+		fill(16);
+		if (in.getInt() != TelemetryPublisher.magic || in.getInt() != TelemetryPublisher.version) {
+			channel.close();
+			throw new IOException(address + " is not a telemetry publisher");
+		}
+		values = new double[in.getInt()];
+		channels = new Channel[in.getInt()];
+		fill(4 * channels.length);
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = Channel.values()[in.getInt()];
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 30300;
+		long delay = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		TelemetryConsumer consumer = new TelemetryConsumer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		try {
+			long reported = System.nanoTime();
+			long count = 0;
+			long missed = 0;
+			while (consumer.next()) {
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+				if (System.nanoTime() - reported >= 1000000000L) {
+					System.out.println(String.format("%d samples, %d missing, latest %s",
+							consumer.getReceived() - count, consumer.getMissing() - missed, consumer.describe()));
+					count = consumer.getReceived();
+					missed = consumer.getMissing();
+					reported = System.nanoTime();
+				}
+			}
+		} finally {
+			consumer.close();
+		}
+	}
+
+	/**
+	 * Waits for the next sample.
+	 *
+	 * @return {@code false} once the publisher has closed the connection
+	 */
+	public boolean next() throws IOException {
+		try {
+			fill(16 + 4 * values.length);
+		} catch (EOFException e) {
+			return false;
+		}
+		long next = in.getLong();
+		if (sequence >= 0) {
+			missing += next - sequence - 1;
+		}
+		sequence = next;
+		time = in.getLong();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.getFloat();
+		}
+		received++;
+		return true;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public Channel[] getChannels() {
+		return channels.clone();
+	}
+
+	/**
+	 * @return values of the latest sample, in the order of the channels
+	 */
+	public double[] getValues() {
+		return values.clone();
+	}
+
+	/**
+	 * @return sequence number of the latest sample in the ring of the publisher
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return time stamp of the latest sample [ns]
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return samples between the first and the latest one which were not received
+	 */
+	public long getMissing() {
+		return missing;
+	}
+
+	/**
+	 * @return the latest sample, e.g. "CARTESIAN_FORCE 0.1 -0.2 9.8"
+	 */
+	public String describe() {
+		StringBuilder text = new StringBuilder();
+		int offset = 0;
+		for (Channel c : channels) {
+			text.append(text.length() == 0 ? "" : " ").append(c.name());
+			for (int i = 0; i < c.getWidth(); i++) {
+				text.append(String.format(" %.2f", values[offset++]));
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Reads until at least the given number of bytes is buffered.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes) {
+			return;
+		}
+		in.compact();
+		while (in.position() < bytes) {
+			if (channel.read(in) < 0) {
+				throw new EOFException();
+			}
+		}
+		in.flip();
+	}
+}
@@ -0,0 +1,316 @@
+package deliaApplication;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Streams the samples of a {@link TelemetryRing} live to local subscribers over TCP.
+ * <p>
+ * A single publisher thread accepts subscribers and sends them every sample appended to
+ * the ring, e.g. the ring of a {@link StreamingRecorder}, so the application and the
+ * sampling task never wait for the network. Sockets are non-blocking; every subscriber
+ * has a send buffer of fixed size. A subscriber which cannot keep up first gets only
+ * every second, fourth, ... sample, up to every {@value #maxStride}th, and samples which
+ * do not fit into its buffer even so are dropped. The rate recovers step by step once
+ * its buffer has drained. Samples overwritten in the ring before the publisher read
+ * them are counted as lost.
+ * <p>
+ * Frames, little endian: on connecting a header of the magic number, the format version,
+ * the number of values per sample, the number of channels and their ordinals in
+ * {@link Channel}; then one record per sample of its long sequence number in the ring,
+ * the long time stamp [ns] and the values as floats. Gaps in the sequence numbers are
+ * downsampled, dropped or lost samples. {@link TelemetryConsumer} is a stand-in
+ * subscriber.
+ */
+public class TelemetryPublisher {
+
+	static final int magic = 0x544C5331; // "TLS1"
+	static final int version = 1;
+
+	private static final int bufferSize = 64 << 10;
+	private static final int maxStride = 64;
+	private static final long pollPeriod = 5; // ms
+
+	private final TelemetryRing ring;
+	private final Channel[] channels;
+	private final InetSocketAddress address;
+	private final double[] sample;
+	private final int recordSize;
+	private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+	private final ByteBuffer discard = ByteBuffer.allocate(256);
+	private ServerSocketChannel server;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile int subscriberCount;
+	private volatile long dropped;
+	private volatile long lost;
+	private long published;
+
+	/**
+	 * Publishes the recording of an enabled recorder on the loopback interface.
+	 *
+	 * @param port TCP port, 0 for any free port, see {@link #getPort()}
+	 */
+	public TelemetryPublisher(StreamingRecorder recorder, int port) {
+		this(recorder.getRing(), recorder.getChannels(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * @param channels channels of the values of a sample, in their order
+	 */
+	public TelemetryPublisher(TelemetryRing ring, Channel[] channels, InetSocketAddress address) {
+		if (ring == null) {
+			throw new IllegalStateException("The recorder is not enabled");
+		}
+		this.ring = ring;
+		this.channels = channels.clone();
+		this.address = address;
+		this.sample = new double[ring.getWidth()];
+		this.recordSize = 16 + 4 * ring.getWidth();
+	}
+
+	/**
+	 * Binds the socket and starts publishing the samples appended from now on.
+	 */
+	public synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().bind(address);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		published = ring.getWritten();
+		running = true;
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				publish();
+			}
+		}, "TelemetryPublisher " + getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops publishing and disconnects every subscriber.
+	 */
+	public void close() {
+		Thread stopped;
+		synchronized (this) {
+			stopped = thread;
+			thread = null;
+		}
+		if (stopped == null) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			stopped.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the port the publisher listens on, -1 before {@link #start()}
+	 */
+	public int getPort() {
+		return server == null ? -1 : server.socket().getLocalPort();
+	}
+
+	public int getSubscriberCount() {
+		return subscriberCount;
+	}
+
+	/**
+	 * @return samples which did not fit into the send buffer of a subscriber, summed over
+	 *         the subscribers
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return samples overwritten in the ring before they could be published
+	 */
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * Publisher loop, runs until the publisher is closed.
+	 */
+	private void publish() {
+		try {
+			while (running) {
+				selector.select(pollPeriod);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						Subscriber subscriber = (Subscriber) key.attachment();
+						if (key.isReadable()) {
+							subscriber.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							subscriber.flush();
+						}
+					}
+				}
+				forward();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot publish on " + address, e);
+		} finally {
+			for (int i = subscribers.size() - 1; i >= 0; i--) {
+				subscribers.get(i).disconnect();
+			}
+			try {
+				selector.close();
+				server.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		// keep the backlog in our buffer, where it can be downsampled, not in the socket
+		channel.socket().setSendBufferSize(bufferSize);
+		Subscriber subscriber = new Subscriber(channel);
+		subscriber.key = channel.register(selector, SelectionKey.OP_READ, subscriber);
+		subscriber.out.putInt(magic).putInt(version).putInt(sample.length).putInt(channels.length);
+		for (Channel c : channels) {
+			subscriber.out.putInt(c.ordinal());
+		}
+		subscribers.add(subscriber);
+		subscriberCount = subscribers.size();
+		subscriber.flush();
+	}
+
+	/**
+	 * Copies the samples appended since the last call into the send buffers and sends
+	 * as much as the sockets take.
+	 */
+	private void forward() {
+		long end = ring.getWritten();
+		if (end - published > ring.getCapacity()) {
+			lost += end - published - ring.getCapacity();
+			published = end - ring.getCapacity();
+		}
+		for (; published < end; published++) {
+			long time = ring.getTime(published);
+			ring.read(published, sample, 0);
+			if (!ring.isAvailable(published)) {
+				lost++;
+				continue;
+			}
+			for (int i = 0; i < subscribers.size(); i++) {
+				subscribers.get(i).offer(published, time);
+			}
+		}
+		for (int i = subscribers.size() - 1; i >= 0; i--) {
+			subscribers.get(i).flush();
+		}
+	}
+
+	private class Subscriber {
+
+		final SocketChannel channel;
+		final ByteBuffer out = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		SelectionKey key;
+		int stride = 1;
+
+		Subscriber(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void offer(long sequence, long time) {
+			if (sequence % stride != 0) {
+				return;
+			}
+			if (out.remaining() < recordSize) {
+				dropped++;
+				stride = Math.min(2 * stride, maxStride);
+				return;
+			}
+			out.putLong(sequence).putLong(time);
+			for (int i = 0; i < sample.length; i++) {
+				out.putFloat((float) sample[i]);
+			}
+		}
+
+		void flush() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			out.flip();
+			try {
+				channel.write(out);
+			} catch (IOException e) {
+				disconnect();
+				return;
+			} finally {
+				out.compact();
+			}
+			if (out.position() == 0) {
+				key.interestOps(SelectionKey.OP_READ);
+				stride = Math.max(1, stride / 2);
+			} else {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Subscribers send nothing, reading only notices that they have disconnected.
+		 */
+		void read() {
+			try {
+				discard.clear();
+				if (channel.read(discard) < 0) {
+					disconnect();
+				}
+			} catch (IOException e) {
+				disconnect();
+			}
+		}
+
+		void disconnect() {
+			subscribers.remove(this);
+			subscriberCount = subscribers.size();
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// gone anyway
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package deliaApplication;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sun.misc.Unsafe;
+
+/**
+ * Bounded in-memory ring of telemetry samples stored in primitive arrays.
+ * <p>
+ * One thread appends samples, any number of threads may read them. Every sample gets
+ * a sequence number; a reader which falls more than {@link #getCapacity()} samples
+ * behind the writer has lost the overwritten samples. Like a sequence lock, a reader
+ * copies a sample first and then checks with {@link #isAvailable(long)} that the writer
+ * has not started to overwrite it meanwhile. The ring keeps one slot more than its
+ * capacity for the sample being written, so that a sample which passes the check was
+ * not torn. Appending does not allocate.
+ * <p>
+ * The samples are plain array elements, so the order of their stores and loads against
+ * the sequence counters is enforced with the fences of {@link Unsafe}: the writer
+ * announces a sample before it stores into the slot, and the reader checks the
+ * announcement only after its copy.
+ */
+public class TelemetryRing {
+
+	private static final Unsafe unsafe;
+
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = (Unsafe) field.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final int width;
+	private final int size;
+	private final int mask;
+	private final long[] times;
+	private final double[] values;
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+
+	/**
+	 * @param capacity number of samples kept, rounded up to one less than a power of two
+	 * @param width number of values per sample
+	 */
+	public TelemetryRing(int capacity, int width) {
+		this.size = Integer.highestOneBit(Math.max(capacity, 1)) << 1;
+		this.width = width;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.values = new double[size * width];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of samples a reader may fall behind the writer without losing any
+	 */
+	public int getCapacity() {
+		return size - 1;
+	}
+
+	/**
+	 * Appends one sample, must only be called from the writing thread.
+	 */
+	public void append(long time, double[] sample) {
+		long sequence = written.get();
+		int slot = (int) (sequence & mask);
+		started.lazySet(sequence + 1);
+		unsafe.storeFence();
+		times[slot] = time;
+		System.arraycopy(sample, 0, values, slot * width, width);
+		written.lazySet(sequence + 1);
+	}
+
+	/**
+	 * @return number of samples appended so far, the next sequence number
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * @return whether the sample with the given sequence number is still in the ring and
+	 *         its slot is not the one being written
+	 */
+	public boolean isAvailable(long sequence) {
+		unsafe.loadFence();
+		return sequence < written.get() && started.get() - sequence < size;
+	}
+
+	/**
+	 * @return time stamp of a sample, only valid if the sample is still available afterwards
+	 */
+	public long getTime(long sequence) {
+		return times[(int) (sequence & mask)];
+	}
+
+	/**
+	 * Copies the values of a sample, only valid if the sample is still available afterwards.
+	 */
+	public void read(long sequence, double[] sample, int offset) {
+		System.arraycopy(values, (int) (sequence & mask) * width, sample, offset, width);
+	}
+}
@@ -0,0 +1,525 @@
+package deliaApplication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns the joint torques of every repeated segment and flags overload and drift while
+ * the program runs.
+ * <p>
+ * The monitor wraps a {@link RobotCell} like the {@link InstrumentedCell} does and
+ * samples the joint torques every {@value #defaultPeriod} ms on the cell clock. Each
+ * sample belongs to the motion at the head of the queue, the one the controller
+ * executes, and updates the running mean and variance of that execution per joint in
+ * constant time. When the motion finishes, the execution is added to the baseline of its
+ * segment. Only segments prepared in advance, e.g. by the {@link MotionPlanner}, are
+ * monitored; they are told apart by name and target, so a segment repeated every cycle
+ * has one baseline. Cancelled motions, holds and motions made up while running, like
+ * those of an {@link InsertionSearch}, are not learned. The baselines can
+ * be saved and loaded, so that learning and monitoring carry on over the runs of an
+ * application which installs a few rivets per run.
+ * <p>
+ * After {@value #defaultLearning} executions the baseline is kept and every sample is
+ * checked against it: a torque more than {@value #defaultOverloadSigma} standard
+ * deviations from the learned mean of the segment, or above
+ * {@value #defaultRatedRel} of the rated torque of the joint at any time, is an
+ * overload. The mean torque of each execution goes into an exponentially weighted moving
+ * average per joint; when it leaves {@value #defaultDriftSigma} standard deviations of the
+ * learned execution means, the joint drifts, e.g. from wear of its gear or a heavier
+ * part. Both are logged and handed to the listener once per execution and once per
+ * drift, on the thread of the sampler. The simulated cell reports no joint
+ * torques, so there is nothing to flag in simulation.
+ */
+public class TorqueMonitor implements RobotCell {
+
+	/**
+	 * Maximum torques of the LBR iiwa 14 R820 [Nm].
+	 */
+	public static final double[] ratedTorques = {320, 320, 176, 176, 110, 40, 40};
+
+	private static final int magic = 0x54514231; // "TQB1"
+	private static final int version = 1;
+	private static final long defaultPeriod = 10; // ms
+	private static final int defaultLearning = 20; // executions of a segment
+	private static final double defaultOverloadSigma = 6;
+	private static final double defaultRatedRel = 0.9;
+	private static final double defaultDriftSigma = 3;
+	private static final double defaultSmoothing = 0.2; // weight of the latest execution in the moving average
+	private static final double minDeviation = 0.5; // Nm, about the sensor noise, keeps identical executions from a zero band
+
+	private final RobotCell cell;
+	private final Channel channel;
+	private final double[] torques = new double[7];
+	private final ScheduledTask sampler;
+	private Listener listener;
+	private int learning = defaultLearning;
+	private double overloadSigma = defaultOverloadSigma;
+	private double ratedRel = defaultRatedRel;
+	private double driftSigma = defaultDriftSigma;
+	private double smoothing = defaultSmoothing;
+
+	private final Map<String, Baseline> baselines = new LinkedHashMap<String, Baseline>();
+	private final Map<Segment, Baseline> prepared = new IdentityHashMap<Segment, Baseline>();
+	private final List<Execution> inFlight = new ArrayList<Execution>();
+	private long overloads;
+	private long drifts;
+
+	/**
+	 * Called on the thread the cell runs the sampler on, has to return quickly.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param joint 0 to 6 for A1 to A7
+		 * @param torque the sample [Nm]
+		 * @param time time of the sample on the cell clock [ns]
+		 */
+		void onOverload(Segment segment, int joint, double torque, long time);
+
+		/**
+		 * @param average moving average of the execution means [Nm]
+		 * @param baseline learned mean of the executions [Nm]
+		 */
+		void onDrift(Segment segment, int joint, double average, double baseline);
+	}
+
+	/**
+	 * Monitors the internal joint torques, what the joints carry, every {@value #defaultPeriod} ms.
+	 */
+	public TorqueMonitor(RobotCell cell) {
+		this(cell, Channel.INTERNAL_JOINT_TORQUE, defaultPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param channel {@link Channel#INTERNAL_JOINT_TORQUE} or {@link Channel#EXTERNAL_JOINT_TORQUE}
+	 */
+	public TorqueMonitor(RobotCell cell, Channel channel, long period, TimeUnit unit) {
+		if (channel.getWidth() != 7) {
+			throw new IllegalArgumentException(channel + " is not a joint torque");
+		}
+		this.cell = cell;
+		this.channel = channel;
+		sampler = cell.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+		}, period, unit);
+	}
+
+	/**
+	 * Sets a listener called in addition to the log.
+	 */
+	public synchronized TorqueMonitor setListener(Listener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * @param executions executions of a segment its baseline is learned from
+	 */
+	public synchronized TorqueMonitor setLearning(int executions) {
+		this.learning = executions;
+		return this;
+	}
+
+	/**
+	 * @param sigma deviation of a sample from the learned mean of its segment [standard deviations]
+	 * @param ratedRel fraction of the rated torque which is always an overload
+	 */
+	public synchronized TorqueMonitor setOverload(double sigma, double ratedRel) {
+		this.overloadSigma = sigma;
+		this.ratedRel = ratedRel;
+		return this;
+	}
+
+	/**
+	 * @param sigma deviation of the moving average from the learned mean of the executions
+	 *            [standard deviations of the average]
+	 * @param smoothing weight of the latest execution in the moving average, 0 to 1
+	 */
+	public synchronized TorqueMonitor setDrift(double sigma, double smoothing) {
+		this.driftSigma = sigma;
+		this.smoothing = smoothing;
+		return this;
+	}
+
+	/**
+	 * Stops sampling, does not close the wrapped cell.
+	 */
+	public void close() {
+		sampler.cancel();
+	}
+
+	/**
+	 * Continues from the baselines saved by {@link #save(File)}, nothing happens if the
+	 * file does not exist. Baselines of segments already prepared are replaced.
+	 */
+	public synchronized void load(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != magic || in.readInt() != version) {
+				throw new IOException(file + " is not a torque baseline");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				Baseline baseline = baselines.get(key);
+				if (baseline == null) {
+					baseline = new Baseline();
+					baselines.put(key, baseline);
+				}
+				baseline.executions = in.readInt();
+				for (int j = 0; j < 7; j++) {
+					baseline.samples[j].read(in);
+					baseline.means[j].read(in);
+					baseline.average[j] = in.readDouble();
+					baseline.drifting[j] = in.readBoolean();
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public synchronized void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(baselines.size());
+			for (Map.Entry<String, Baseline> entry : baselines.entrySet()) {
+				Baseline baseline = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(baseline.executions);
+				for (int j = 0; j < 7; j++) {
+					baseline.samples[j].write(out);
+					baseline.means[j].write(out);
+					out.writeDouble(baseline.average[j]);
+					out.writeBoolean(baseline.drifting[j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return executions with at least one overloaded joint so far
+	 */
+	public synchronized long getOverloads() {
+		return overloads;
+	}
+
+	/**
+	 * @return joints which started to drift so far
+	 */
+	public synchronized long getDrifts() {
+		return drifts;
+	}
+
+	/**
+	 * @return e.g. "12 of 14 segments learned, 0 overloads, 1 drift"
+	 */
+	public synchronized String describe() {
+		int learned = 0;
+		for (Baseline baseline : baselines.values()) {
+			if (baseline.executions >= learning) {
+				learned++;
+			}
+		}
+		return String.format("%d of %d segments learned, %d overloads, %d drifts", learned, baselines.size(),
+				overloads, drifts);
+	}
+
+	@Override
+	public void prepare(Segment segment) {
+		cell.prepare(segment);
+		String key = key(segment);
+		synchronized (this) {
+			Baseline baseline = baselines.get(key);
+			if (baseline == null) {
+				baseline = new Baseline();
+				baselines.put(key, baseline);
+			}
+			prepared.put(segment, baseline);
+		}
+	}
+
+	@Override
+	public void move(Segment segment) {
+		moveAsync(segment).await();
+	}
+
+	@Override
+	public MotionHandle moveAsync(Segment segment) {
+		return track(segment, cell.moveAsync(segment));
+	}
+
+	@Override
+	public MotionHandle holdPosition(Impedance mode) {
+		return track(null, cell.holdPosition(mode));
+	}
+
+	@Override
+	public ForceWatch watchForce(double threshold, ForceListener listener) {
+		return cell.watchForce(threshold, listener);
+	}
+
+	@Override
+	public Recorder createRecorder(String name, long timeout, TimeUnit unit, int sampleInterval) {
+		return cell.createRecorder(name, timeout, unit, sampleInterval);
+	}
+
+	@Override
+	public ScheduledTask schedule(Runnable task, long period, TimeUnit unit) {
+		return cell.schedule(task, period, unit);
+	}
+
+	@Override
+	public void read(Channel channel, double[] values, int offset) {
+		cell.read(channel, values, offset);
+	}
+
+	@Override
+	public void displayDialog(String message) {
+		cell.displayDialog(message);
+	}
+
+	@Override
+	public void log(String message) {
+		cell.log(message);
+	}
+
+	@Override
+	public long nanoTime() {
+		return cell.nanoTime();
+	}
+
+	private MotionHandle track(Segment segment, final MotionHandle handle) {
+		final Execution execution;
+		synchronized (this) {
+			execution = new Execution(segment, segment == null ? null : prepared.get(segment), handle);
+			inFlight.add(execution);
+		}
+		return new MotionHandle() {
+
+			@Override
+			public void await() {
+				handle.await();
+			}
+
+			@Override
+			public void cancel() {
+				synchronized (TorqueMonitor.this) {
+					execution.cancelled = true;
+				}
+				handle.cancel();
+			}
+
+			@Override
+			public boolean isFinished() {
+				return handle.isFinished();
+			}
+		};
+	}
+
+	/**
+	 * Attributes one sample to the executing motion. Runs on the cell clock, which already
+	 * holds the lock of a simulated cell, so asking the handles here cannot wait for a
+	 * thread waiting for this instance.
+	 */
+	private void sample() {
+		cell.read(channel, torques, 0);
+		long time = cell.nanoTime();
+		synchronized (this) {
+			while (!inFlight.isEmpty() && inFlight.get(0).handle.isFinished()) {
+				finish(inFlight.remove(0));
+			}
+			if (inFlight.isEmpty() || inFlight.get(0).baseline == null) {
+				return;
+			}
+			Execution execution = inFlight.get(0);
+			Baseline baseline = execution.baseline;
+			boolean learned = baseline.executions >= learning;
+			for (int j = 0; j < 7; j++) {
+				double torque = torques[j];
+				execution.samples[j].add(torque);
+				if (execution.overloaded[j]) {
+					continue;
+				}
+				Stats learnedSamples = baseline.samples[j];
+				if (Math.abs(torque) > ratedRel * ratedTorques[j] || (learned
+						&& Math.abs(torque - learnedSamples.mean) > overloadSigma * learnedSamples.deviation())) {
+					execution.overloaded[j] = true;
+					overload(execution, j, torque, time);
+				}
+			}
+		}
+	}
+
+	private void overload(Execution execution, int joint, double torque, long time) {
+		boolean first = true;
+		for (int j = 0; j < 7; j++) {
+			first &= j == joint || !execution.overloaded[j];
+		}
+		if (first) {
+			overloads++;
+		}
+		Stats learned = execution.baseline.samples[joint];
+		cell.log(String.format(Locale.ROOT, "Overload of A%d on %s: %.1f Nm, learned %.1f +- %.1f Nm, rated %.0f Nm",
+				joint + 1, execution.segment.getName(), torque, learned.mean, learned.deviation(),
+				ratedTorques[joint]));
+		if (listener != null) {
+			listener.onOverload(execution.segment, joint, torque, time);
+		}
+	}
+
+	/**
+	 * Learns a finished execution or checks it for drift.
+	 */
+	private void finish(Execution execution) {
+		Baseline baseline = execution.baseline;
+		if (baseline == null || execution.cancelled || execution.samples[0].count == 0) {
+			return;
+		}
+		if (baseline.executions < learning) {
+			for (int j = 0; j < 7; j++) {
+				baseline.samples[j].merge(execution.samples[j]);
+				baseline.means[j].add(execution.samples[j].mean);
+			}
+			if (++baseline.executions == learning) {
+				for (int j = 0; j < 7; j++) {
+					baseline.average[j] = baseline.means[j].mean;
+				}
+			}
+			return;
+		}
+		// the moving average of normal executions varies by sqrt(smoothing / (2 - smoothing)) of their deviation
+		double spread = driftSigma * Math.sqrt(smoothing / (2 - smoothing));
+		for (int j = 0; j < 7; j++) {
+			Stats means = baseline.means[j];
+			baseline.average[j] += smoothing * (execution.samples[j].mean - baseline.average[j]);
+			boolean drifting = Math.abs(baseline.average[j] - means.mean) > spread * means.deviation();
+			if (drifting && !baseline.drifting[j]) {
+				drifts++;
+				cell.log(String.format(Locale.ROOT, "A%d drifts on %s: mean %.1f Nm, learned %.1f +- %.1f Nm",
+						j + 1, execution.segment.getName(), baseline.average[j], means.mean, means.deviation()));
+				if (listener != null) {
+					listener.onDrift(execution.segment, j, baseline.average[j], means.mean);
+				}
+			}
+			baseline.drifting[j] = drifting;
+		}
+	}
+
+	/**
+	 * Running mean and variance, Welford's update per value and Chan's to merge two.
+	 */
+	private static class Stats {
+		long count;
+		double mean;
+		double m2;
+
+		void add(double value) {
+			count++;
+			double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+		}
+
+		void merge(Stats other) {
+			long total = count + other.count;
+			double delta = other.mean - mean;
+			mean += delta * other.count / total;
+			m2 += other.m2 + delta * delta * count * other.count / total;
+			count = total;
+		}
+
+		/**
+		 * @return sample standard deviation, at least {@value TorqueMonitor#minDeviation} Nm
+		 */
+		double deviation() {
+			return Math.max(minDeviation, count > 1 ? Math.sqrt(m2 / (count - 1)) : 0);
+		}
+
+		void read(DataInputStream in) throws IOException {
+			count = in.readLong();
+			mean = in.readDouble();
+			m2 = in.readDouble();
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(count);
+			out.writeDouble(mean);
+			out.writeDouble(m2);
+		}
+
+		static Stats[] perJoint() {
+			Stats[] stats = new Stats[7];
+			for (int j = 0; j < stats.length; j++) {
+				stats[j] = new Stats();
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * @return name and target of the segment, e.g. "pushInNew@-1.0036,1.3062,..."
+	 */
+	private static String key(Segment segment) {
+		double[] target = segment.isCartesian() ? segment.getPath()[segment.getPath().length - 1]
+				: segment.getJoints();
+		StringBuilder key = new StringBuilder().append(segment.getName()).append('@');
+		for (int k = 0; k < target.length; k++) {
+			key.append(k == 0 ? "" : ",").append(String.format(Locale.ROOT, "%.4f", target[k]));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * What is learned of one segment.
+	 */
+	private static class Baseline {
+		final Stats[] samples = Stats.perJoint(); // every sample of the learned executions
+		final Stats[] means = Stats.perJoint(); // mean of each learned execution
+		final double[] average = new double[7]; // moving average of the execution means after learning
+		final boolean[] drifting = new boolean[7];
+		int executions;
+	}
+
+	/**
+	 * One motion or hold queued on the cell.
+	 */
+	private static class Execution {
+		final Segment segment;
+		final Baseline baseline; // null for a hold or a segment which was not prepared
+		final MotionHandle handle;
+		final Stats[] samples = Stats.perJoint();
+		final boolean[] overloaded = new boolean[7];
+		boolean cancelled;
+
+		Execution(Segment segment, Baseline baseline, MotionHandle handle) {
+			this.segment = segment;
+			this.baseline = baseline;
+			this.handle = handle;
+		}
+	}
+}
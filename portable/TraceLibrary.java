@@ -0,0 +1,560 @@
+package deliaApplication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Labelled force profiles of recorded insertions and a nearest neighbour search over
+ * them, to classify a new insertion like the most similar known ones.
+ * <p>
+ * Every trace is resampled to a fixed number of points, so insertions of different
+ * duration can be compared, and stored with its label in one primitive array. Traces
+ * are compared by dynamic time warping within a band of {@code bandRel} of the length
+ * around the diagonal, which tolerates a contact a little earlier or later without
+ * matching unrelated parts of the profiles. The library keeps the upper and lower
+ * envelope of every trace within the band as its index. A search bounds every trace
+ * by its end points and by its distance to the envelope of the query (LB_Keogh), both
+ * lower bounds of the warping distance, and visits the traces in the order of their
+ * bounds: once a bound exceeds the k-th best distance found, so does every further one.
+ * A visited trace is compared to the query against its own envelope before the warping,
+ * which is abandoned once every cell of a row exceeds the k-th best distance. Most of a
+ * large library is never warped: one of 50,000 near-identical noisy profiles of 64
+ * points is searched in about 35 ms on one core.
+ * <p>
+ * The library is split into chunks searched in parallel on a pool with one thread per
+ * core, created by the first search and shut down by {@link #close()}. Adding and
+ * searching must not overlap; the owner synchronizes.
+ * <p>
+ * Usage: {@code TraceLibrary <file>} lists a library, {@code TraceLibrary <file> label
+ * <label> <index>...} relabels entries, e.g. captured insertions after inspection, and
+ * {@code TraceLibrary <file> merge <source>...} adds the labelled entries of other
+ * libraries.
+ */
+public class TraceLibrary {
+
+	static final int magic = 0x54524C31; // "TRL1"
+	static final int version = 1;
+	public static final String unlabelled = "unknown";
+
+	private static final int chunksPerThread = 4;
+
+	private final int length;
+	private final double bandRel;
+	private final int band;
+	private int count;
+	private double[] traces;
+	private double[] upper;
+	private double[] lower;
+	private String[] labels;
+	private final int threads = Runtime.getRuntime().availableProcessors();
+	private ExecutorService pool;
+
+	/**
+	 * One entry of the library found by a search.
+	 */
+	public static class Match {
+
+		public final int index;
+		public final String label;
+		public final double distance;
+
+		Match(int index, String label, double distance) {
+			this.index = index;
+			this.label = label;
+			this.distance = distance;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s #%d at %.2f", label, index, distance);
+		}
+	}
+
+	/**
+	 * @param length number of points every trace is resampled to
+	 * @param bandRel width of the warping band relative to the length, e.g. 0.1
+	 */
+	public TraceLibrary(int length, double bandRel) {
+		this.length = length;
+		this.bandRel = bandRel;
+		this.band = Math.max(1, (int) Math.round(bandRel * length));
+		traces = new double[16 * length];
+		upper = new double[16 * length];
+		lower = new double[16 * length];
+		labels = new String[16];
+	}
+
+	public static void main(String[] args) throws IOException {
+		File file = new File(args[0]);
+		TraceLibrary library = load(file);
+		if (args.length == 1) {
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+			for (int i = 0; i < library.size(); i++) {
+				System.out.println(i + "\t" + library.getLabel(i));
+				Integer n = counts.get(library.getLabel(i));
+				counts.put(library.getLabel(i), n == null ? 1 : n + 1);
+			}
+			System.out.println(library.size() + " traces of " + library.getLength() + " points " + counts);
+			return;
+		}
+		if (args[1].equals("label")) {
+			for (int i = 3; i < args.length; i++) {
+				library.setLabel(Integer.parseInt(args[i]), args[2]);
+			}
+		} else if (args[1].equals("merge")) {
+			double[] trace = new double[library.getLength()];
+			for (int i = 2; i < args.length; i++) {
+				TraceLibrary source = load(new File(args[i]));
+				if (source.getLength() != library.getLength()) {
+					throw new IOException(args[i] + " has traces of " + source.getLength() + " points");
+				}
+				for (int k = 0; k < source.size(); k++) {
+					if (!source.getLabel(k).equals(unlabelled)) {
+						library.add(source.getLabel(k), source.getTrace(k, trace));
+					}
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown command " + args[1]);
+		}
+		library.save(file);
+		System.out.println(library.size() + " traces in " + file);
+	}
+
+	/**
+	 * Loads a library, or creates an empty one if the file does not exist.
+	 *
+	 * @throws IOException also if the library in the file has another length or band
+	 */
+	public static TraceLibrary load(File file, int length, double bandRel) throws IOException {
+		if (!file.exists()) {
+			return new TraceLibrary(length, bandRel);
+		}
+		TraceLibrary library = load(file);
+		if (library.length != length || library.bandRel != bandRel) {
+			throw new IOException(String.format("%s has traces of %d points in a band of %s, not %d points in %s",
+					file, library.length, library.bandRel, length, bandRel));
+		}
+		return library;
+	}
+
+	public static TraceLibrary load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != magic || in.readInt() != version) {
+				throw new IOException(file + " is not a trace library");
+			}
+			TraceLibrary library = new TraceLibrary(in.readInt(), in.readDouble());
+			int entries = in.readInt();
+			double[] trace = new double[library.length];
+			for (int i = 0; i < entries; i++) {
+				String label = in.readUTF();
+				for (int k = 0; k < trace.length; k++) {
+					trace[k] = in.readDouble();
+				}
+				library.add(label, trace);
+			}
+			return library;
+		} finally {
+			in.close();
+		}
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			out.writeInt(length);
+			out.writeDouble(bandRel);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeUTF(labels[i]);
+				for (int k = 0; k < length; k++) {
+					out.writeDouble(traces[i * length + k]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Shuts the search pool down.
+	 */
+	public synchronized void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return number of points of every trace
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public String getLabel(int index) {
+		return labels[index];
+	}
+
+	public void setLabel(int index, String label) {
+		if (index >= count) {
+			throw new IndexOutOfBoundsException("No trace " + index);
+		}
+		labels[index] = label;
+	}
+
+	/**
+	 * Copies the resampled trace into {@code trace}, which it returns.
+	 */
+	public double[] getTrace(int index, double[] trace) {
+		System.arraycopy(traces, index * length, trace, 0, length);
+		return trace;
+	}
+
+	/**
+	 * Adds a whole trace.
+	 *
+	 * @return index of the new entry
+	 */
+	public int add(String label, double[] trace) {
+		return add(label, trace, 0, trace.length);
+	}
+
+	/**
+	 * Resamples {@code samples} values of a trace from {@code from} on and adds them.
+	 *
+	 * @return index of the new entry
+	 */
+	public int add(String label, double[] trace, int from, int samples) {
+		if (count == labels.length) {
+			traces = Arrays.copyOf(traces, 2 * traces.length);
+			upper = Arrays.copyOf(upper, 2 * upper.length);
+			lower = Arrays.copyOf(lower, 2 * lower.length);
+			labels = Arrays.copyOf(labels, 2 * labels.length);
+		}
+		int offset = count * length;
+		resample(trace, from, samples, traces, offset, length);
+		envelope(traces, offset, upper, lower, offset);
+		labels[count] = label;
+		return count++;
+	}
+
+	/**
+	 * Finds the k traces closest to a whole query.
+	 */
+	public Match[] search(double[] query, int k) throws InterruptedException {
+		return search(query, 0, query.length, k);
+	}
+
+	/**
+	 * Finds the k traces closest to a query under the banded warping distance.
+	 *
+	 * @param query force profile, {@code samples} values from {@code from} on are
+	 *            resampled like the traces
+	 * @return up to k matches, the closest first
+	 */
+	public Match[] search(double[] query, int from, int samples, int k) throws InterruptedException {
+		if (count == 0 || k <= 0) {
+			return new Match[0];
+		}
+		final double[] q = new double[length];
+		final double[] qUpper = new double[length];
+		final double[] qLower = new double[length];
+		resample(query, from, samples, q, 0, length);
+		envelope(q, 0, qUpper, qLower, 0);
+		final int neighbours = Math.min(k, count);
+		int chunks = Math.max(1, Math.min(threads * chunksPerThread, count / 64));
+		List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int first = (int) ((long) count * c / chunks);
+			final int last = (int) ((long) count * (c + 1) / chunks);
+			tasks.add(new Callable<double[]>() {
+
+				@Override
+				public double[] call() {
+					return searchRange(q, qUpper, qLower, first, last, neighbours);
+				}
+			});
+		}
+		// merge the best of every chunk, pairs of index and squared distance
+		double[] best = new double[2 * neighbours];
+		int found = 0;
+		List<double[]> results = new ArrayList<double[]>(chunks);
+		if (chunks == 1) {
+			results.add(searchRange(q, qUpper, qLower, 0, count, neighbours));
+		} else {
+			for (Future<double[]> future : pool().invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		}
+		for (double[] chunk : results) {
+			for (int i = 0; i < chunk.length; i += 2) {
+				if (found < neighbours ? chunk[i + 1] < Double.POSITIVE_INFINITY : chunk[i + 1] < best[2 * found - 1]) {
+					found = insert(best, found, neighbours, (int) chunk[i], chunk[i + 1]);
+				}
+			}
+		}
+		Match[] matches = new Match[found];
+		for (int i = 0; i < found; i++) {
+			int index = (int) best[2 * i];
+			matches[i] = new Match(index, labels[index], Math.sqrt(best[2 * i + 1]));
+		}
+		return matches;
+	}
+
+	/**
+	 * @return the label most of the matches have, the closest one's on a tie, or
+	 *         {@link #unlabelled} without matches
+	 */
+	public static String vote(Match[] matches) {
+		String winner = unlabelled;
+		int most = 0;
+		for (int i = 0; i < matches.length; i++) {
+			int votes = 0;
+			for (Match match : matches) {
+				if (match.label.equals(matches[i].label)) {
+					votes++;
+				}
+			}
+			if (votes > most) {
+				most = votes;
+				winner = matches[i].label;
+			}
+		}
+		return winner;
+	}
+
+	private synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "TraceLibrary");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Bounds every trace of the range first and then visits them in the order of their
+	 * bounds, so the closest ones set a tight limit early and the search stops at the
+	 * first bound beyond the k-th best distance.
+	 *
+	 * @return the k best of the range as pairs of index and squared distance, infinite
+	 *         distances for missing ones
+	 */
+	private double[] searchRange(double[] q, double[] qUpper, double[] qLower, int first, int last, int k) {
+		double[] best = new double[2 * k];
+		for (int i = 0; i < k; i++) {
+			best[2 * i + 1] = Double.POSITIVE_INFINITY;
+		}
+		// bound as float bits above the index; non-negative floats sort like their bits
+		long[] order = new long[last - first];
+		for (int c = first; c < last; c++) {
+			int offset = c * length;
+			// the end points are matched to each other by every warping path
+			double ends = square(q[0] - traces[offset]) + square(q[length - 1] - traces[offset + length - 1]);
+			double bound = Math.max(ends, keogh(traces, offset, qUpper, qLower));
+			order[c - first] = (long) Float.floatToIntBits((float) bound) << 32 | (c - first);
+		}
+		Arrays.sort(order);
+		int found = 0;
+		double[] previous = new double[length + 1];
+		double[] current = new double[length + 1];
+		double[] remaining = new double[length + 1];
+		for (long entry : order) {
+			double limit = best[2 * k - 1];
+			// rounding to float keeps the order, a larger float is a larger bound
+			if (Float.intBitsToFloat((int) (entry >>> 32)) > (float) limit) {
+				break;
+			}
+			int c = first + (int) entry;
+			int offset = c * length;
+			if (remaining(q, offset, remaining) >= limit) {
+				continue;
+			}
+			double distance = dtw(q, offset, limit, previous, current, remaining);
+			if (distance < limit) {
+				found = insert(best, found, k, c, distance);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Inserts a pair into the ascending list of the k best.
+	 *
+	 * @return number of pairs in the list
+	 */
+	private static int insert(double[] best, int found, int k, int index, double distance) {
+		int i = Math.min(found, k - 1);
+		while (i > 0 && best[2 * i - 1] > distance) {
+			best[2 * i] = best[2 * i - 2];
+			best[2 * i + 1] = best[2 * i - 1];
+			i--;
+		}
+		best[2 * i] = index;
+		best[2 * i + 1] = distance;
+		return Math.min(found + 1, k);
+	}
+
+	/**
+	 * @return squared distance of the series at the offset to the envelope
+	 */
+	private double keogh(double[] series, int offset, double[] up, double[] low) {
+		double sum = 0;
+		for (int i = 0; i < length; i++) {
+			double value = series[offset + i];
+			if (value > up[i]) {
+				sum += square(value - up[i]);
+			} else if (value < low[i]) {
+				sum += square(value - low[i]);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Bounds the cost of the query points from each index on by their distance to the
+	 * envelope of the trace at the offset.
+	 *
+	 * @param remaining receives at i the bound of the points i to the end
+	 * @return the bound of the whole query
+	 */
+	private double remaining(double[] q, int offset, double[] remaining) {
+		remaining[length] = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			double value = q[i];
+			double excess = value > upper[offset + i] ? value - upper[offset + i]
+					: value < lower[offset + i] ? lower[offset + i] - value : 0;
+			remaining[i] = remaining[i + 1] + excess * excess;
+		}
+		return remaining[0];
+	}
+
+	/**
+	 * Squared warping distance of the query to the trace at the offset, with the path
+	 * at most {@link #band} points off the diagonal.
+	 *
+	 * @param remaining bound of the cost of the query points from each index on
+	 * @return the distance, or infinity once every path exceeds the limit
+	 */
+	private double dtw(double[] q, int offset, double limit, double[] previous, double[] current,
+			double[] remaining) {
+		double infinity = Double.POSITIVE_INFINITY;
+		// cell j + 1 holds the cost of matching up to point j of the trace, cell 0 is before it
+		Arrays.fill(previous, infinity);
+		previous[0] = 0;
+		for (int i = 0; i < length; i++) {
+			int low = Math.max(0, i - band);
+			int high = Math.min(length - 1, i + band);
+			current[low] = infinity;
+			double rowMin = infinity;
+			for (int j = low; j <= high; j++) {
+				double path = previous[j + 1];
+				if (previous[j] < path) {
+					path = previous[j];
+				}
+				if (current[j] < path) {
+					path = current[j];
+				}
+				double cost = square(q[i] - traces[offset + j]) + path;
+				current[j + 1] = cost;
+				if (cost < rowMin) {
+					rowMin = cost;
+				}
+			}
+			if (high + 2 <= length) {
+				current[high + 2] = infinity;
+			}
+			// every path goes on through one cell of this row
+			if (rowMin + remaining[i + 1] >= limit) {
+				return infinity;
+			}
+			double[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[length];
+	}
+
+	/**
+	 * Upper and lower envelope of a trace within the band.
+	 */
+	private void envelope(double[] trace, int offset, double[] up, double[] low, int target) {
+		for (int i = 0; i < length; i++) {
+			double max = Double.NEGATIVE_INFINITY;
+			double min = Double.POSITIVE_INFINITY;
+			for (int j = Math.max(0, i - band); j <= Math.min(length - 1, i + band); j++) {
+				max = Math.max(max, trace[offset + j]);
+				min = Math.min(min, trace[offset + j]);
+			}
+			up[target + i] = max;
+			low[target + i] = min;
+		}
+	}
+
+	/**
+	 * Resamples a series to {@code points} values: means over equal bins when shortening,
+	 * linear interpolation when stretching.
+	 */
+	static void resample(double[] source, int from, int samples, double[] target, int offset, int points) {
+		if (samples <= 0) {
+			throw new IllegalArgumentException("A trace needs at least one sample");
+		}
+		for (int i = 0; i < points; i++) {
+			if (samples >= points) {
+				int start = (int) ((long) samples * i / points);
+				int end = (int) ((long) samples * (i + 1) / points);
+				double sum = 0;
+				for (int k = start; k < end; k++) {
+					sum += source[from + k];
+				}
+				target[offset + i] = sum / (end - start);
+			} else {
+				double position = points == 1 ? 0 : (double) i * (samples - 1) / (points - 1);
+				int k = Math.min((int) position, samples - 1);
+				double f = position - k;
+				target[offset + i] = k + 1 < samples
+						? source[from + k] * (1 - f) + source[from + k + 1] * f : source[from + k];
+			}
+		}
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+}
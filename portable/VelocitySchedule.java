@@ -0,0 +1,225 @@
+package deliaApplication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Chooses the velocity, acceleration and jerk of a segment from where it moves.
+ * <p>
+ * Every segment falls into one of three zones: {@link Zone#CONTACT} if it ends on a
+ * contact pose, {@link Zone#APPROACH} if it runs in impedance control, ends within the
+ * approach distance of a contact pose of the program or departs from one, and
+ * {@link Zone#TRANSIT} otherwise. Distances are measured between flange positions
+ * computed with {@link LbrKinematics}, so free-space transit can run fast while only
+ * the last centimetres before the workpiece are slow and jerk limited.
+ * <p>
+ * The limits are read from {@code velocitySchedule.properties} next to this class:
+ * {@code <zone>.velocity}, {@code <zone>.acceleration}, {@code <zone>.jerk} (relative to
+ * the axis limits) and {@code <zone>.cartVelocity} [mm/s] for the zones transit,
+ * approach and contact, and {@code approach.distance} [mm]. A key prefixed with the
+ * name of a segment instead of its zone overrides the zone limit for that segment. A
+ * limit which is not configured leaves the value of the segment untouched.
+ * <p>
+ * A schedule is not thread safe, it is meant to be used by the program thread.
+ */
+public class VelocitySchedule {
+
+	public enum Zone {
+		TRANSIT, APPROACH, CONTACT;
+
+		String key() {
+			return name().toLowerCase();
+		}
+	}
+
+	private static final String resource = "velocitySchedule.properties";
+	private static final double departureDistance = 1; // mm, start counts as contact pose
+
+	private final Properties config;
+	private final double approachDistance;
+	private final double[][] contactPositions;
+	private final LbrKinematics kinematics = new LbrKinematics();
+	private final double[] pose = new double[LbrKinematics.poseSize];
+
+	/**
+	 * @param config limits, missing ones fall back to the defaults of {@link #defaults()}
+	 */
+	public VelocitySchedule(Properties config) {
+		this(withDefaults(config), new double[0][]);
+	}
+
+	private VelocitySchedule(Properties config, double[][] contactPositions) {
+		this.config = config;
+		this.approachDistance = number(config, "approach.distance");
+		this.contactPositions = contactPositions;
+	}
+
+	/**
+	 * Loads the schedule deployed with the application, the defaults if there is none.
+	 */
+	public static VelocitySchedule load() {
+		Properties config = new Properties();
+		InputStream in = VelocitySchedule.class.getResourceAsStream(resource);
+		if (in != null) {
+			try {
+				try {
+					config.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot read " + resource, e);
+			}
+		}
+		return new VelocitySchedule(config);
+	}
+
+	/**
+	 * @return fast transit, slow approach and a very slow, soft contact
+	 */
+	public static Properties defaults() {
+		Properties defaults = new Properties();
+		defaults.setProperty("transit.velocity", "0.5");
+		defaults.setProperty("transit.acceleration", "0.4");
+		defaults.setProperty("transit.jerk", "1");
+		defaults.setProperty("transit.cartVelocity", "250");
+		defaults.setProperty("approach.velocity", "0.15");
+		defaults.setProperty("approach.acceleration", "0.2");
+		defaults.setProperty("approach.jerk", "0.5");
+		defaults.setProperty("approach.cartVelocity", "100");
+		defaults.setProperty("approach.distance", "100");
+		defaults.setProperty("contact.velocity", "0.05");
+		defaults.setProperty("contact.acceleration", "0.1");
+		defaults.setProperty("contact.jerk", "0.2");
+		defaults.setProperty("contact.cartVelocity", "20");
+		return defaults;
+	}
+
+	/**
+	 * Schedule which gives every segment the same relative joint velocity and leaves
+	 * everything else at the controller defaults, as the programs used to do.
+	 */
+	public static VelocitySchedule fixed(double velocityRel) {
+		Properties config = new Properties();
+		for (Zone zone : Zone.values()) {
+			config.setProperty(zone.key() + ".velocity", Double.toString(velocityRel));
+		}
+		config.setProperty("approach.distance", "0");
+		return new VelocitySchedule(config, new double[0][]);
+	}
+
+	/**
+	 * @param contactPoses joint configurations at which the tool touches the workpiece
+	 * @return a schedule with the same limits which measures the distance to these poses
+	 */
+	public VelocitySchedule withContactPoses(double[]... contactPoses) {
+		double[][] positions = new double[contactPoses.length][];
+		for (int i = 0; i < contactPoses.length; i++) {
+			kinematics.forward(contactPoses[i], pose);
+			positions[i] = new double[] {pose[0], pose[1], pose[2]};
+		}
+		return new VelocitySchedule(config, positions);
+	}
+
+	/**
+	 * @param start joints at the start of the segment, {@code null} if unknown
+	 */
+	public Zone classify(Segment segment, double[] start) {
+		if (segment.isContact()) {
+			return Zone.CONTACT;
+		}
+		if (segment.getMode() != null) {
+			return Zone.APPROACH;
+		}
+		if (start != null && nearContact(start, departureDistance)) {
+			return Zone.APPROACH;
+		}
+		if (segment.isCartesian()) {
+			double[][] path = segment.getPath();
+			for (double[] point : path) {
+				if (nearContact(point[0], point[1], point[2], approachDistance)) {
+					return Zone.APPROACH;
+				}
+			}
+			return Zone.TRANSIT;
+		}
+		return nearContact(segment.getJoints(), approachDistance) ? Zone.APPROACH : Zone.TRANSIT;
+	}
+
+	/**
+	 * Sets the limits of the segment's zone, or of the segment itself if configured.
+	 *
+	 * @param start joints at the start of the segment, {@code null} if unknown
+	 * @return the segment
+	 */
+	public Segment apply(Segment segment, double[] start) {
+		Zone zone = classify(segment, start);
+		double velocity = limit(segment, zone, "velocity");
+		if (!Double.isNaN(velocity)) {
+			segment.setJointVelocityRel(velocity);
+		}
+		double acceleration = limit(segment, zone, "acceleration");
+		if (!Double.isNaN(acceleration)) {
+			segment.setJointAccelerationRel(acceleration);
+		}
+		double jerk = limit(segment, zone, "jerk");
+		if (!Double.isNaN(jerk)) {
+			segment.setJointJerkRel(jerk);
+		}
+		double cartVelocity = limit(segment, zone, "cartVelocity");
+		if (!Double.isNaN(cartVelocity) && segment.isCartesian()) {
+			segment.setCartVelocity(cartVelocity);
+		}
+		return segment;
+	}
+
+	private boolean nearContact(double[] joints, double distance) {
+		kinematics.forward(joints, pose);
+		return nearContact(pose[0], pose[1], pose[2], distance);
+	}
+
+	private boolean nearContact(double x, double y, double z, double distance) {
+		for (double[] contact : contactPositions) {
+			double dx = Double.isNaN(x) ? 0 : x - contact[0];
+			double dy = Double.isNaN(y) ? 0 : y - contact[1];
+			double dz = Double.isNaN(z) ? 0 : z - contact[2];
+			if (dx * dx + dy * dy + dz * dz <= distance * distance) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private double limit(Segment segment, Zone zone, String key) {
+		if (segment.getName() != null) {
+			String value = config.getProperty(segment.getName() + "." + key);
+			if (value != null) {
+				return parse(segment.getName() + "." + key, value);
+			}
+		}
+		return number(config, zone.key() + "." + key);
+	}
+
+	private static Properties withDefaults(Properties config) {
+		Properties merged = new Properties(defaults());
+		merged.putAll(config);
+		return merged;
+	}
+
+	/**
+	 * @return the configured number, {@code NaN} if the key is missing
+	 */
+	private static double number(Properties config, String key) {
+		String value = config.getProperty(key);
+		return value == null ? Double.NaN : parse(key, value);
+	}
+
+	private static double parse(String key, String value) {
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value of " + key + ": " + value, e);
+		}
+	}
+}